@@ -3,6 +3,7 @@ plugins {
     id("application")
     // Needed for classindex
     id("com.github.mrcjkb.module-finder") version "0.0.7"
+    id("me.champeau.jmh") version "0.7.2"
 }
 
 group = "com.pentlander"
@@ -44,6 +45,10 @@ tasks.withType<JavaExec>().configureEach {
     jvmArgs("--enable-preview")
 }
 
+jmh {
+    jvmArgs.add("--enable-preview")
+}
+
 tasks.getByName<Test>("test") {
     useJUnitPlatform()
     jvmArgs("--enable-preview")
@@ -0,0 +1,156 @@
+package com.pentlander.sasquach.runtime.bootstrap;
+
+import com.pentlander.sasquach.runtime.StructBase;
+import com.pentlander.sasquach.runtime.bootstrap.StructLinker.StructCallSiteDesc;
+import com.pentlander.sasquach.runtime.bootstrap.StructLinker.StructOperation;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodHandles.Lookup;
+import java.lang.invoke.MethodType;
+import java.lang.invoke.MutableCallSite;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import jdk.dynalink.DynamicLinkerFactory;
+import jdk.dynalink.linker.support.SimpleLinkRequest;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the throughput of spread struct call sites, e.g. {@code { x = 1, ..point }}, once the
+ * call site is linked.
+ * <p>The baseline benchmarks guard the same linked invocation with the guard spread call sites
+ * used before, which collected the spread structs into an array and checked them in a loop.</p>
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "--enable-preview")
+@State(Scope.Thread)
+public class SpreadBenchmark {
+  public static final class Point implements StructBase {
+    public final long x;
+    public final long y;
+
+    public Point(long x, long y) {
+      this.x = x;
+      this.y = y;
+    }
+  }
+
+  public static final class Label implements StructBase {
+    public final String label;
+
+    public Label(String label) {
+      this.label = label;
+    }
+  }
+
+  private final Point point = new Point(1, 2);
+  private final Label label = new Label("label");
+
+  private MethodHandle oneSpread;
+  private MethodHandle twoSpreads;
+  private MethodHandle oneSpreadBaseline;
+  private MethodHandle twoSpreadsBaseline;
+
+  @SuppressWarnings("unused")
+  private static boolean checkClasses(List<Class<?>> classes, Object[] args) {
+    for (int i = 0; i < classes.size(); i++) {
+      if (!classes.get(i).isInstance(args[i])) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /** Links a spread call site the way the linker does, but guarded by {@link #checkClasses}. */
+  private static MethodHandle baselineSpread(Lookup lookup, MethodType callSiteType,
+      Object... args) throws Exception {
+    var callSiteDesc = new StructCallSiteDesc(lookup,
+        StructOperation.STRUCT_INIT,
+        callSiteType,
+        new Object[]{"x"});
+    var linkerServices = new DynamicLinkerFactory().createLinker().getLinkerServices();
+    var invocation = new StructLinker().getGuardedInvocation(new SimpleLinkRequest(callSiteDesc,
+        false,
+        args), linkerServices).getInvocation();
+
+    List<Class<?>> structClasses = Arrays.stream(args, 1, args.length)
+        .<Class<?>>map(Object::getClass)
+        .toList();
+    var checkClasses = lookup.findStatic(SpreadBenchmark.class,
+            "checkClasses",
+            MethodType.methodType(boolean.class, List.class, Object[].class))
+        .bindTo(structClasses)
+        .asCollector(Object[].class, structClasses.size());
+    var guard = MethodHandles.dropArguments(checkClasses, 0, callSiteType.parameterType(0))
+        .asType(callSiteType.changeReturnType(boolean.class));
+    // The guard always passes, so the fallback is never taken
+    var guarded = MethodHandles.guardWithTest(guard, invocation, invocation);
+    return new MutableCallSite(guarded).dynamicInvoker();
+  }
+
+  @Setup
+  public void setup() throws Throwable {
+    var lookup = MethodHandles.lookup();
+    oneSpread = StructDispatch.bootstrapSpread(lookup,
+        "spread",
+        MethodType.methodType(StructBase.class, long.class, StructBase.class),
+        "x").dynamicInvoker();
+    twoSpreads = StructDispatch.bootstrapSpread(lookup,
+        "spread",
+        MethodType.methodType(StructBase.class, long.class, StructBase.class, StructBase.class),
+        "x").dynamicInvoker();
+
+    // Link both call sites up front so a bad link fails the run instead of being measured
+    var struct = twoSpreads();
+    var fields = StructFields.of(struct.getClass());
+    if (!fields.fieldTypes().keySet().equals(Set.of("x", "y", "label"))
+        || (long) fields.getter("x").invoke(struct) != 3L
+        || (long) fields.getter("y").invoke(struct) != 2L) {
+      throw new IllegalStateException("Spread produced the wrong struct: " + fields.fieldTypes());
+    }
+    oneSpread();
+
+    oneSpreadBaseline = baselineSpread(lookup,
+        MethodType.methodType(StructBase.class, long.class, StructBase.class),
+        3L,
+        point);
+    twoSpreadsBaseline = baselineSpread(lookup,
+        MethodType.methodType(StructBase.class, long.class, StructBase.class, StructBase.class),
+        3L,
+        point,
+        label);
+  }
+
+  @Benchmark
+  public Object oneSpread() throws Throwable {
+    return (StructBase) oneSpread.invokeExact(3L, (StructBase) point);
+  }
+
+  @Benchmark
+  public Object twoSpreads() throws Throwable {
+    return (StructBase) twoSpreads.invokeExact(3L, (StructBase) point, (StructBase) label);
+  }
+
+  @Benchmark
+  public Object oneSpreadBaseline() throws Throwable {
+    return (StructBase) oneSpreadBaseline.invokeExact(3L, (StructBase) point);
+  }
+
+  @Benchmark
+  public Object twoSpreadsBaseline() throws Throwable {
+    return (StructBase) twoSpreadsBaseline.invokeExact(3L, (StructBase) point, (StructBase) label);
+  }
+}
@@ -0,0 +1,218 @@
+package com.pentlander.sasquach;
+
+import com.pentlander.sasquach.name.QualifiedModuleName;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.jspecify.annotations.Nullable;
+
+/**
+ * Results of the previous build that are needed to decide which modules have to be compiled again.
+ * <p>The cache is stored in the output directory next to the class files. A module only has to be
+ * compiled again if the source file it's in changed, or if the signature of a module it imports
+ * changed. If the cache is missing, can't be read or was written by a different build of the
+ * compiler, every module is compiled.</p>
+ */
+final class BuildCache {
+  static final String FILE_NAME = ".sasquach-cache";
+  /** Incremented whenever the format of the file changes. */
+  private static final int VERSION = 2;
+  /**
+   * Identifies the build of the compiler. Class files from another build may call bootstrap
+   * methods or runtime classes that have since changed, so their cache is ignored.
+   */
+  private static final @Nullable String COMPILER_ID = compilerId();
+
+  /**
+   * @param sourceHash      hash of the contents of the module's source file.
+   * @param signature       signature of the module, see
+   *                        {@link com.pentlander.sasquach.type.TypeSignatures}.
+   * @param imports         modules the module imports.
+   * @param classNames      names of the classes generated for the module.
+   * @param specializations names of the specialized methods generated for the module.
+   */
+  record ModuleEntry(String sourceHash, String signature, Set<QualifiedModuleName> imports,
+                     Set<String> classNames, List<String> specializations) {}
+
+  private final Map<QualifiedModuleName, ModuleEntry> modules;
+
+  BuildCache(Map<QualifiedModuleName, ModuleEntry> modules) {
+    this.modules = modules;
+  }
+
+  static BuildCache empty() {
+    return new BuildCache(Map.of());
+  }
+
+  Map<QualifiedModuleName, ModuleEntry> modules() {
+    return modules;
+  }
+
+  @Nullable ModuleEntry get(QualifiedModuleName moduleName) {
+    return modules.get(moduleName);
+  }
+
+  /**
+   * Reads the cache from the output directory, or returns an empty cache if it can't be read or
+   * was written by a different build of the compiler.
+   */
+  static BuildCache read(Path outputPath) {
+    return read(outputPath, COMPILER_ID);
+  }
+
+  static BuildCache read(Path outputPath, @Nullable String compilerId) {
+    if (compilerId == null) {
+      return empty();
+    }
+    var modules = new LinkedHashMap<QualifiedModuleName, ModuleEntry>();
+    var cachePath = outputPath.resolve(FILE_NAME);
+    try (var in = new DataInputStream(new BufferedInputStream(Files.newInputStream(cachePath)))) {
+      if (in.readInt() != VERSION || !readString(in).equals(compilerId)) {
+        return empty();
+      }
+      int moduleCount = in.readInt();
+      for (int i = 0; i < moduleCount; i++) {
+        var moduleName = QualifiedModuleName.fromString(readString(in));
+        var sourceHash = readString(in);
+        var signature = readString(in);
+        var imports = new LinkedHashSet<QualifiedModuleName>();
+        for (var importName : readStrings(in)) {
+          imports.add(QualifiedModuleName.fromString(importName));
+        }
+        var classNames = new LinkedHashSet<>(readStrings(in));
+        var specializations = readStrings(in);
+        modules.put(moduleName,
+            new ModuleEntry(sourceHash, signature, imports, classNames, specializations));
+      }
+    } catch (NoSuchFileException e) {
+      return empty();
+    } catch (IOException | RuntimeException e) {
+      System.err.println("warning: ignoring unreadable build cache: " + e.getMessage());
+      return empty();
+    }
+    return new BuildCache(modules);
+  }
+
+  /**
+   * Writes the cache to the output directory. The file is replaced atomically so an interrupted
+   * write can't leave a partial cache behind.
+   */
+  void write(Path outputPath) throws IOException {
+    write(outputPath, COMPILER_ID);
+  }
+
+  void write(Path outputPath, @Nullable String compilerId) throws IOException {
+    Files.createDirectories(outputPath);
+    var tempFile = Files.createTempFile(outputPath, FILE_NAME, ".tmp");
+    try (var out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(
+        tempFile)))) {
+      out.writeInt(VERSION);
+      // An empty id never matches, so the cache is ignored if the compiler can't be identified
+      writeString(out, compilerId != null ? compilerId : "");
+      out.writeInt(modules.size());
+      for (var entry : modules.entrySet()) {
+        var module = entry.getValue();
+        writeString(out, entry.getKey().toString());
+        writeString(out, module.sourceHash());
+        writeString(out, module.signature());
+        writeStrings(out, module.imports().stream().map(QualifiedModuleName::toString).toList());
+        writeStrings(out, module.classNames());
+        writeStrings(out, module.specializations());
+      }
+    }
+    Files.move(tempFile,
+        outputPath.resolve(FILE_NAME),
+        StandardCopyOption.REPLACE_EXISTING,
+        StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  static String hash(String contents) {
+    return HexFormat.of().formatHex(sha256().digest(contents.getBytes(StandardCharsets.UTF_8)));
+  }
+
+  /**
+   * Returns a hash of the jar or class directory the compiler was loaded from, or null if it can't
+   * be read. The runtime classes are in the same jar, so a change to them changes the id too.
+   */
+  private static @Nullable String compilerId() {
+    try {
+      var codeSource = BuildCache.class.getProtectionDomain().getCodeSource();
+      if (codeSource == null) {
+        return null;
+      }
+      var path = Path.of(codeSource.getLocation().toURI());
+      var digest = sha256();
+      if (Files.isDirectory(path)) {
+        try (var files = Files.walk(path)) {
+          for (var file : files.filter(Files::isRegularFile).sorted().toList()) {
+            digest.update(path.relativize(file).toString().getBytes(StandardCharsets.UTF_8));
+            digest.update(Files.readAllBytes(file));
+          }
+        }
+      } else {
+        digest.update(Files.readAllBytes(path));
+      }
+      return HexFormat.of().formatHex(digest.digest());
+    } catch (IOException | URISyntaxException | RuntimeException e) {
+      System.err.println("warning: unable to identify the compiler, not using the build cache: "
+          + e.getMessage());
+      return null;
+    }
+  }
+
+  private static MessageDigest sha256() {
+    try {
+      return MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  // DataOutput#writeUTF is limited to 64KB, which a signature may exceed
+  private static void writeString(DataOutputStream out, String str) throws IOException {
+    var bytes = str.getBytes(StandardCharsets.UTF_8);
+    out.writeInt(bytes.length);
+    out.write(bytes);
+  }
+
+  private static String readString(DataInputStream in) throws IOException {
+    var bytes = new byte[in.readInt()];
+    in.readFully(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  private static void writeStrings(DataOutputStream out, Iterable<String> strs) throws IOException {
+    var list = new ArrayList<String>();
+    strs.forEach(list::add);
+    out.writeInt(list.size());
+    for (var str : list) {
+      writeString(out, str);
+    }
+  }
+
+  private static List<String> readStrings(DataInputStream in) throws IOException {
+    int size = in.readInt();
+    var strs = new ArrayList<String>(size);
+    for (int i = 0; i < size; i++) {
+      strs.add(readString(in));
+    }
+    return strs;
+  }
+}
@@ -2,12 +2,18 @@ package com.pentlander.sasquach;
 
 import static java.util.Objects.requireNonNull;
 
+import com.pentlander.sasquach.BuildCache.ModuleEntry;
 import com.pentlander.sasquach.ast.CompilationUnit;
+import com.pentlander.sasquach.ast.Use;
 import com.pentlander.sasquach.backend.BytecodeGenerator;
 import com.pentlander.sasquach.backend.BytecodeResult;
+import com.pentlander.sasquach.name.QualifiedModuleName;
 import com.pentlander.sasquach.nameres.ModuleResolver;
+import com.pentlander.sasquach.nameres.NameResolutionResult;
 import com.pentlander.sasquach.rdparser.SasquachParser;
+import com.pentlander.sasquach.tast.expression.TModuleStruct.TypeDef;
 import com.pentlander.sasquach.type.TypeResolver;
+import com.pentlander.sasquach.type.TypeSignatures;
 import java.io.IOException;
 import java.io.UncheckedIOException;
 import java.nio.file.FileVisitResult;
@@ -16,19 +22,35 @@ import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.SimpleFileVisitor;
 import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
-import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
 import java.util.stream.Stream;
 import org.atteo.classindex.ClassIndex;
+import org.jspecify.annotations.Nullable;
 
 public class Compiler {
   private final Set<Option> options;
+  /** Maximum number of files to parse and validate in parallel. */
+  private final int jobs;
 
-  public Compiler(Set<Option> options) {
+  public Compiler(Set<Option> options, int jobs) {
+    Preconditions.checkArgument(jobs > 0, "jobs must be positive: %s", jobs);
     this.options = options;
+    this.jobs = jobs;
+  }
+
+  public Compiler(Set<Option> options) {
+    this(options, Runtime.getRuntime().availableProcessors());
   }
 
   Sources findFiles(List<Path> sourcePaths) throws IOException {
@@ -58,7 +80,7 @@ public class Compiler {
           var packageName = simplifyPackageName(relPath);
           var source = new Source(SourcePath.fromPath(filePath),
               packageName,
-              Files.readAllLines(filePath));
+              Files.readString(filePath));
           sources.put(source.path(), source);
           return FileVisitResult.CONTINUE;
         }
@@ -71,7 +93,7 @@ public class Compiler {
 
       var source = new Source(SourcePath.fromPath(sourcePath),
           simplifyPackageName(sourcePath),
-          Files.readAllLines(sourcePath));
+          Files.readString(sourcePath));
       return Sources.single(source);
     }
   }
@@ -109,29 +131,209 @@ public class Compiler {
     } catch (IOException e) {
       throw new UncheckedIOException(e);
     }
-    var compUnits = new ArrayList<CompilationUnit>();
-    for (Source source : combinedSources.values()) {
-      var result = SasquachParser.parse(source);
-      result.errors().throwIfNotEmpty(combinedSources);
+    var compUnits = parseAll(combinedSources);
+    var nameResolutionResult = resolveNames(compUnits, combinedSources);
+
+    var typeResolver = new TypeResolver(nameResolutionResult);
+    var typeResolutionResult = typeResolver.resolve(compUnits);
+    typeResolutionResult.errors().throwIfNotEmpty(combinedSources);
+
+    var bytecodeGenerator = new BytecodeGenerator();
+    return bytecodeGenerator.generateBytecode(typeResolutionResult.getModuleDeclarations());
+  }
+
+  /**
+   * @param bytecode     the classes of the modules that were compiled.
+   * @param cache        the cache to use for the next build.
+   * @param staleClasses classes from the previous build that no module generates anymore.
+   */
+  record IncrementalResult(BytecodeResult bytecode, BuildCache cache, Set<String> staleClasses) {}
+
+  /**
+   * Compiles the modules that changed since the build recorded in the cache.
+   * <p>Every module is still parsed and name resolved, and the type of every module is resolved
+   * from its type annotations. The functions of a module are only type checked and generated if
+   * the module's source file changed, or if the signature of a module it imports, directly or
+   * transitively, changed.</p>
+   *
+   * @param sources all the sources, including the standard library.
+   */
+  IncrementalResult compileIncremental(Sources sources, BuildCache cache, Path outputPath)
+      throws CompilationException {
+    var compUnits = parseAll(sources);
+    var nameResolutionResult = resolveNames(compUnits, sources);
+    var typeResolver = new TypeResolver(nameResolutionResult);
+    typeResolver.resolveModuleTypes(compUnits);
+
+    var sourceHashes = new HashMap<SourcePath, String>();
+    var entries = new LinkedHashMap<QualifiedModuleName, ModuleEntry>();
+    var changedSignatures = new HashSet<QualifiedModuleName>();
+    var importers = new HashMap<QualifiedModuleName, List<QualifiedModuleName>>();
+    for (var compUnit : compUnits) {
+      for (var module : compUnit.modules()) {
+        var moduleName = module.name();
+        var sourcePath = module.range().sourcePath();
+        var sourceHash = sourceHashes.computeIfAbsent(sourcePath,
+            path -> BuildCache.hash(sources.getSource(path).contents()));
+        var signature = TypeSignatures.moduleSignature(typeResolver.getModuleType(moduleName),
+            typeResolver.getTypeDefs(moduleName));
+        var imports = new LinkedHashSet<QualifiedModuleName>();
+        for (var use : module.struct().useList()) {
+          if (use instanceof Use.Module moduleUse) {
+            imports.add(moduleUse.id().moduleName());
+            importers.computeIfAbsent(moduleUse.id().moduleName(), _ -> new ArrayList<>())
+                .add(moduleName);
+          }
+        }
+
+        var cachedEntry = cache.get(moduleName);
+        if (cachedEntry == null || !cachedEntry.signature().equals(signature)) {
+          changedSignatures.add(moduleName);
+        }
+        entries.put(moduleName,
+            new ModuleEntry(sourceHash,
+                signature,
+                imports,
+                cachedEntry != null ? cachedEntry.classNames() : Set.of(),
+                cachedEntry != null ? cachedEntry.specializations() : List.of()));
+      }
+    }
+
+    // Modules that import a module whose signature changed must be compiled again
+    var modulesToCompile = new HashSet<QualifiedModuleName>();
+    var affectedModules = new ArrayDeque<>(changedSignatures);
+    while (!affectedModules.isEmpty()) {
+      var moduleName = affectedModules.removeFirst();
+      if (modulesToCompile.add(moduleName)) {
+        affectedModules.addAll(importers.getOrDefault(moduleName, List.of()));
+      }
+    }
+    entries.forEach((moduleName, entry) -> {
+      var cachedEntry = cache.get(moduleName);
+      if (cachedEntry == null || !cachedEntry.sourceHash().equals(entry.sourceHash())
+          || !classFilesExist(outputPath, cachedEntry.classNames())) {
+        modulesToCompile.add(moduleName);
+      }
+    });
+
+    var typeResolutionResult = typeResolver.resolveFunctions(modulesToCompile);
+    typeResolutionResult.errors().throwIfNotEmpty(sources);
+
+    var otherTypeDefs = new ArrayList<TypeDef>();
+    var previousSpecializations = new HashMap<QualifiedModuleName, List<String>>();
+    entries.forEach((moduleName, entry) -> {
+      if (modulesToCompile.contains(moduleName)) {
+        previousSpecializations.put(moduleName, entry.specializations());
+      } else {
+        otherTypeDefs.addAll(typeResolver.getTypeDefs(moduleName));
+      }
+    });
+    var bytecodeGenerator = new BytecodeGenerator();
+    var bytecode = bytecodeGenerator.generateBytecode(typeResolutionResult.getModuleDeclarations(),
+        otherTypeDefs,
+        previousSpecializations);
+
+    for (var moduleName : modulesToCompile) {
+      var entry = entries.get(moduleName);
+      var classNames = bytecode.moduleClasses().getOrDefault(moduleName, Set.of());
+      entries.put(moduleName,
+          new ModuleEntry(entry.sourceHash(),
+              entry.signature(),
+              entry.imports(),
+              classNames,
+              bytecode.specializations().getOrDefault(moduleName, List.of())));
+    }
+    // Classes may be generated by more than one module, e.g. the class of a literal struct
+    var claimedClasses = new HashSet<String>();
+    entries.values().forEach(entry -> claimedClasses.addAll(entry.classNames()));
+    var staleClasses = new HashSet<String>();
+    cache.modules().forEach((moduleName, cachedEntry) -> {
+      if (!entries.containsKey(moduleName) || modulesToCompile.contains(moduleName)) {
+        cachedEntry.classNames()
+            .stream()
+            .filter(className -> !claimedClasses.contains(className))
+            .forEach(staleClasses::add);
+      }
+    });
 
-      var compilationUnit = result.item();
-      compUnits.add(compilationUnit);
+    return new IncrementalResult(bytecode, new BuildCache(entries), staleClasses);
+  }
+
+  private static boolean classFilesExist(Path outputPath, Set<String> classNames) {
+    return classNames.stream()
+        .allMatch(className -> Files.exists(classFilePath(outputPath, className)));
+  }
 
-      var validator = new AstValidator(compilationUnit);
-      var compileErrors = validator.validate();
-      if (!compileErrors.isEmpty()) throw new CompilationException(source, compileErrors);
+  private List<CompilationUnit> parseAll(Sources sources) throws CompilationException {
+    var compUnits = new ArrayList<CompilationUnit>();
+    var errors = new ArrayList<Error>();
+    for (var result : parseAndValidate(sources)) {
+      if (result.compilationUnit() != null) {
+        compUnits.add(result.compilationUnit());
+      }
+      errors.addAll(result.errors());
+    }
+    if (!errors.isEmpty()) {
+      throw new CompilationException(sources, errors);
     }
+    return compUnits;
+  }
 
+  private static NameResolutionResult resolveNames(List<CompilationUnit> compUnits,
+      Sources sources) throws CompilationException {
     var nameResolver = new ModuleResolver();
     var nameResolutionResult = nameResolver.resolveCompilationUnits(compUnits);
-    nameResolutionResult.errors().throwIfNotEmpty(combinedSources);
+    nameResolutionResult.errors().throwIfNotEmpty(sources);
+    return nameResolutionResult;
+  }
 
-    var typeResolver = new TypeResolver(nameResolutionResult);
-    var typeResolutionResult = typeResolver.resolve(compUnits);
-    typeResolutionResult.errors().throwIfNotEmpty(combinedSources);
+  private record FileResult(@Nullable CompilationUnit compilationUnit,
+                            List<? extends Error> errors) {}
 
-    var bytecodeGenerator = new BytecodeGenerator();
-    return bytecodeGenerator.generateBytecode(typeResolutionResult.getModuleDeclarations());
+  /**
+   * Parses and validates each file independently. Files are processed in parallel on up to
+   * {@link #jobs} threads, but the results are returned sorted by path so the compilation units
+   * and errors are in the same order regardless of which file finishes first.
+   */
+  private List<FileResult> parseAndValidate(Sources sources) {
+    var sortedSources = sources.values()
+        .stream()
+        .sorted(Comparator.comparing(source -> source.path().filepath()))
+        .toList();
+    if (jobs == 1 || sortedSources.size() <= 1) {
+      return sortedSources.stream().map(Compiler::parseAndValidate).toList();
+    }
+
+    try (var executor = Executors.newFixedThreadPool(Math.min(jobs, sortedSources.size()))) {
+      var futures = sortedSources.stream()
+          .map(source -> executor.submit(() -> parseAndValidate(source)))
+          .toList();
+      var results = new ArrayList<FileResult>(futures.size());
+      for (var future : futures) {
+        results.add(future.get());
+      }
+      return results;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while parsing", e);
+    } catch (ExecutionException e) {
+      // Rethrow the exception from the parser thread, e.g. a failed precondition
+      if (e.getCause() instanceof RuntimeException runtimeException) {
+        throw runtimeException;
+      }
+      throw new IllegalStateException(e.getCause());
+    }
+  }
+
+  private static FileResult parseAndValidate(Source source) {
+    var result = SasquachParser.parse(source);
+    if (result.hasError()) {
+      return new FileResult(null, result.errors().errors());
+    }
+
+    var compilationUnit = result.item();
+    var validator = new AstValidator(compilationUnit);
+    return new FileResult(compilationUnit, validator.validate());
   }
 
   public Result compile(List<Path> sourcePaths, Path outputPath) {
@@ -139,21 +341,25 @@ public class Compiler {
       var sasqSources = options.contains(Option.NO_STD) ? Sources.empty()
           : findFiles(Path.of("src/main/sasquach/sasquach"));
       var sources = sasqSources.merge(findFiles(sourcePaths));
-      Map<String, byte[]> bytecodeResults;
+      IncrementalResult result;
       try {
-        bytecodeResults = compile(sources).generatedClasses();
+        result = compileIncremental(sources, BuildCache.read(outputPath), outputPath);
       } catch (CompilationException e) {
         printErrors(sources, e.errors());
         return Result.FAILURE;
       }
 
-      clearDestDir(outputPath);
+      // Only classes that changed are written, the rest are left in place from the previous build
       writeRuntimeFiles(outputPath);
-      for (var entry : bytecodeResults.entrySet()) {
+      for (var entry : result.bytecode().generatedClasses().entrySet()) {
         String name = entry.getKey();
         byte[] byteCode = entry.getValue();
         saveBytecodeToFile(outputPath, name, byteCode);
       }
+      for (var className : result.staleClasses()) {
+        Files.deleteIfExists(classFilePath(outputPath, className));
+      }
+      result.cache().write(outputPath);
     } catch (IOException e) {
       throw new UncheckedIOException(e);
     }
@@ -176,20 +382,20 @@ public class Compiler {
 
   public static void saveBytecodeToFile(Path outputDir, String className, byte[] byteCode)
       throws IOException {
-    var filepath = outputDir.resolve(className.replace('.', '/') + ".class");
-    Files.createDirectories(filepath.getParent());
-    Files.write(filepath, byteCode);
+    writeIfChanged(classFilePath(outputDir, className), byteCode);
   }
 
-  void clearDestDir(Path outputPath) throws IOException {
-    if (Files.notExists(outputPath)) return;
-    Files.walkFileTree(outputPath, new SimpleFileVisitor<>() {
-      @Override
-      public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
-        Files.delete(file);
-        return FileVisitResult.CONTINUE;
-      }
-    });
+  private static Path classFilePath(Path outputDir, String className) {
+    return outputDir.resolve(className.replace('.', '/') + ".class");
+  }
+
+  /** Writes the file unless it already has the same contents, so its timestamp is unchanged. */
+  private static void writeIfChanged(Path filepath, byte[] bytes) throws IOException {
+    if (Files.exists(filepath) && Arrays.equals(Files.readAllBytes(filepath), bytes)) {
+      return;
+    }
+    Files.createDirectories(filepath.getParent());
+    Files.write(filepath, bytes);
   }
 
   void writeRuntimeFiles(Path outputPath) throws IOException {
@@ -201,11 +407,7 @@ public class Compiler {
         var resourcePath = Paths.get(clazz.getName().replace('.', '/') + ".class");
         var classFileBytes = requireNonNull(Main.class.getClassLoader()
             .getResourceAsStream(resourcePath.toString())).readAllBytes();
-        var outputFilePath = outputPath.resolve(resourcePath);
-        if (Files.notExists(outputFilePath.getParent())) {
-          Files.createDirectories(outputFilePath.getParent());
-        }
-        Files.write(outputFilePath, classFileBytes);
+        writeIfChanged(outputPath.resolve(resourcePath), classFileBytes);
       }
     }
   }
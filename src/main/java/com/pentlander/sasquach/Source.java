@@ -3,19 +3,77 @@ package com.pentlander.sasquach;
 import static com.pentlander.sasquach.Source.DecorationChar.*;
 
 import java.util.Arrays;
-import java.util.List;
 
 /**
  * Class containing the source code as a string.
- * <p>It has convenience methods for highlighting parts of the source code.</p>
+ * <p>The contents are stored once along with the offsets where each line starts. Lines are only
+ * extracted when they're needed, e.g. for highlighting part of the source code in an error.</p>
  */
-public record Source(SourcePath path, String packageName, List<String> sourceLines) {
+public final class Source {
+  private final SourcePath path;
+  private final String packageName;
+  private final String contents;
+  /** Offset of the first character of each line, in ascending order. */
+  private final int[] lineStarts;
+
+  public Source(SourcePath path, String packageName, String contents) {
+    this.path = path;
+    this.packageName = packageName;
+    this.contents = contents;
+    this.lineStarts = computeLineStarts(contents);
+  }
+
   public static Source fromString(String packageName, String source) {
-    return new Source(new SourcePath("anon.sasq"), packageName, Arrays.asList(source.split("\n")));
+    return new Source(new SourcePath("anon.sasq"), packageName, source);
+  }
+
+  private static int[] computeLineStarts(String contents) {
+    var lineStarts = new int[16];
+    int count = 1;
+    for (int i = 0; i < contents.length(); i++) {
+      if (contents.charAt(i) == '\n') {
+        if (count == lineStarts.length) {
+          lineStarts = Arrays.copyOf(lineStarts, count * 2);
+        }
+        lineStarts[count++] = i + 1;
+      }
+    }
+    // A trailing newline ends the last line rather than starting an empty one
+    if (count > 1 && lineStarts[count - 1] == contents.length()) {
+      count--;
+    }
+    return Arrays.copyOf(lineStarts, count);
+  }
+
+  public SourcePath path() {
+    return path;
   }
 
-  public String sourceString() {
-    return String.join("\n", sourceLines());
+  public String packageName() {
+    return packageName;
+  }
+
+  public String contents() {
+    return contents;
+  }
+
+  public int lineCount() {
+    return lineStarts.length;
+  }
+
+  /** Returns the line without the line terminator. The line number starts at one. */
+  public String line(int lineNumber) {
+    int idx = lineNumber - 1;
+    var start = lineStarts[idx];
+    var end = idx + 1 < lineStarts.length ? lineStarts[idx + 1] - 1 : contents.length();
+    // The last line keeps its newline, since a trailing newline doesn't start another line
+    if (end > start && end == contents.length() && contents.charAt(end - 1) == '\n') {
+      end--;
+    }
+    if (end > start && contents.charAt(end - 1) == '\r') {
+      end--;
+    }
+    return contents.substring(start, end);
   }
 
   static String underline(Range.Single range, int offset) {
@@ -31,7 +89,7 @@ public record Source(SourcePath path, String packageName, List<String> sourceLin
   }
 
   private int lineNumberWidth() {
-    return String.valueOf(sourceLines.size()).length();
+    return String.valueOf(lineCount()).length();
   }
 
   private String leftPad(String value) {
@@ -45,18 +103,23 @@ public record Source(SourcePath path, String packageName, List<String> sourceLin
   public String getNumberedLines(Range range) {
     Position start = range.start();
     return switch (range) {
-      case Range.Single _ -> lineNumber(start.line()) + sourceLines.get(start.line() - 1);
+      case Range.Single _ -> lineNumber(start.line()) + line(start.line());
       case Range.Multi multiRange -> {
         Position end = multiRange.end();
         var builder = new StringBuilder();
         for (int i = start.line() - 1; i < end.line(); i++) {
-          builder.append(lineNumber(i)).append(sourceLines.get(i)).append('\n');
+          builder.append(lineNumber(i)).append(line(i + 1)).append('\n');
         }
         yield builder.toString();
       }
     };
   }
 
+  @Override
+  public String toString() {
+    return "Source[path=" + path + ", packageName=" + packageName + "]";
+  }
+
   enum DecorationChar {
     HBAR("─"),
     VBAR("│"),
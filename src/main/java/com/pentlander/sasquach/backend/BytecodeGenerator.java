@@ -2,10 +2,21 @@ package com.pentlander.sasquach.backend;
 
 import com.pentlander.sasquach.ast.Node;
 import com.pentlander.sasquach.ast.expression.Tuple;
+import com.pentlander.sasquach.backend.Specializations.Specialization;
+import com.pentlander.sasquach.name.QualifiedModuleName;
+import com.pentlander.sasquach.name.UnqualifiedName;
 import com.pentlander.sasquach.tast.TModuleDeclaration;
 import com.pentlander.sasquach.tast.TypedNode;
+import com.pentlander.sasquach.tast.expression.TModuleStruct;
+import com.pentlander.sasquach.tast.expression.TModuleStruct.TypeDef;
+import com.pentlander.sasquach.type.FunctionType;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import org.jspecify.annotations.Nullable;
 
 public class BytecodeGenerator {
@@ -14,16 +25,70 @@ public class BytecodeGenerator {
   }
 
   public BytecodeResult generateBytecode(Collection<TModuleDeclaration> moduleDeclarations) {
+    return generateBytecode(moduleDeclarations, List.of(), Map.of());
+  }
+
+  /**
+   * Generates the modules when other modules were generated by a previous compilation.
+   *
+   * @param otherTypeDefs           type definitions of the modules that aren't generated.
+   * @param previousSpecializations names of the specialized methods of each module generated by
+   *                                the previous compilation. Modules that aren't generated may
+   *                                call them, so they're generated again.
+   */
+  public BytecodeResult generateBytecode(Collection<TModuleDeclaration> moduleDeclarations,
+      Collection<TypeDef> otherTypeDefs,
+      Map<QualifiedModuleName, List<String>> previousSpecializations) {
     var generatedBytecode = new LinkedHashMap<String, byte[]>();
+    var moduleClasses = new LinkedHashMap<QualifiedModuleName, Set<String>>();
 
-    var tupleClassGen = new ClassGenerator(Tuple.TUPLE_MODULE);
+    var structLayouts = new StructLayouts();
+    var specializations = new Specializations(moduleDeclarations.stream()
+        .map(TModuleDeclaration::moduleName)
+        .toList());
+    var tupleClassGen = new ClassGenerator(Tuple.TUPLE_MODULE, structLayouts, specializations);
     generatedBytecode.putAll(tupleClassGen.generateTuples());
+    // Register the layouts of all the named structs up front, since a module may access the fields
+    // of a struct defined in a module that is generated later
+    structLayouts.addTypeDefs(List.copyOf(otherTypeDefs));
     for (var moduleDeclaration : moduleDeclarations) {
-      var classGen = new ClassGenerator(moduleDeclaration.moduleName());
-      generatedBytecode.putAll(classGen.generate(moduleDeclaration));
+      if (moduleDeclaration.struct() instanceof TModuleStruct moduleStruct) {
+        structLayouts.addTypeDefs(moduleStruct.typeDefs());
+        var previousNames = previousSpecializations.get(moduleDeclaration.moduleName());
+        if (previousNames != null) {
+          var funcTypes = new HashMap<UnqualifiedName, FunctionType>();
+          moduleStruct.functions().forEach(func -> funcTypes.put(func.name(), func.type()));
+          specializations.addPrevious(moduleDeclaration.moduleName(), previousNames, funcTypes);
+        }
+      }
     }
 
-    return new BytecodeResult(generatedBytecode);
+    // A module may request specializations of functions in a module that was already generated, so
+    // keep regenerating the modules with new specializations until there are none left. The set of
+    // specializations is finite since type parameters are only specialized to primitive types.
+    Collection<TModuleDeclaration> modulesToGenerate = moduleDeclarations;
+    while (!modulesToGenerate.isEmpty()) {
+      for (var moduleDeclaration : modulesToGenerate) {
+        var classGen = new ClassGenerator(moduleDeclaration.moduleName(),
+            structLayouts,
+            specializations);
+        var classes = classGen.generate(moduleDeclaration);
+        generatedBytecode.putAll(classes);
+        moduleClasses.computeIfAbsent(moduleDeclaration.moduleName(), _ -> new LinkedHashSet<>())
+            .addAll(classes.keySet());
+      }
+      var changedModules = specializations.takeChangedModules();
+      modulesToGenerate = moduleDeclarations.stream()
+          .filter(moduleDeclaration -> changedModules.contains(moduleDeclaration.moduleName()))
+          .toList();
+    }
+
+    var specializationNames = new LinkedHashMap<QualifiedModuleName, List<String>>();
+    for (var moduleName : moduleClasses.keySet()) {
+      specializationNames.put(moduleName,
+          specializations.forModule(moduleName).stream().map(Specialization::name).toList());
+    }
+    return new BytecodeResult(generatedBytecode, moduleClasses, specializationNames);
   }
 
   static class CodeGenerationException extends RuntimeException {
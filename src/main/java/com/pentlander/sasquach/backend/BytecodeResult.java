@@ -1,5 +1,19 @@
 package com.pentlander.sasquach.backend;
 
+import com.pentlander.sasquach.name.QualifiedModuleName;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
-public record BytecodeResult(Map<String, byte[]> generatedClasses) {}
+/**
+ * @param generatedClasses bytecode of the generated classes by class name.
+ * @param moduleClasses    names of the classes generated for each module.
+ * @param specializations  names of the specialized methods generated for each module.
+ */
+public record BytecodeResult(Map<String, byte[]> generatedClasses,
+                             Map<QualifiedModuleName, Set<String>> moduleClasses,
+                             Map<QualifiedModuleName, List<String>> specializations) {
+  public BytecodeResult(Map<String, byte[]> generatedClasses) {
+    this(generatedClasses, Map.of(), Map.of());
+  }
+}
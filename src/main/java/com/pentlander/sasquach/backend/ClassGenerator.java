@@ -2,7 +2,6 @@ package com.pentlander.sasquach.backend;
 
 import static com.pentlander.sasquach.Util.seqMap;
 import static com.pentlander.sasquach.backend.GeneratorUtil.MTD_EQUALS;
-import static com.pentlander.sasquach.backend.GeneratorUtil.box;
 import static com.pentlander.sasquach.backend.GeneratorUtil.generateLoadVar;
 import static com.pentlander.sasquach.backend.GeneratorUtil.internalClassDesc;
 import static com.pentlander.sasquach.type.TypeUtils.classDesc;
@@ -18,11 +17,12 @@ import com.pentlander.sasquach.name.QualifiedModuleName;
 import com.pentlander.sasquach.name.UnqualifiedName;
 import com.pentlander.sasquach.name.UnqualifiedTypeName;
 import com.pentlander.sasquach.runtime.StructBase;
-import com.pentlander.sasquach.runtime.bootstrap.Func;
 import com.pentlander.sasquach.runtime.bootstrap.StructDispatch;
+import com.pentlander.sasquach.runtime.bootstrap.SwitchBootstraps;
 import com.pentlander.sasquach.tast.TFunctionParameter;
 import com.pentlander.sasquach.tast.TFunctionParameter.Label;
 import com.pentlander.sasquach.tast.TModuleDeclaration;
+import com.pentlander.sasquach.tast.TNamedFunction;
 import com.pentlander.sasquach.tast.TypedNode;
 import com.pentlander.sasquach.tast.expression.TFunction;
 import com.pentlander.sasquach.tast.expression.TModuleStruct;
@@ -37,6 +37,7 @@ import com.pentlander.sasquach.type.StructType.RowModifier;
 import com.pentlander.sasquach.type.SumType;
 import com.pentlander.sasquach.type.Type;
 import com.pentlander.sasquach.type.TypeParameter;
+import com.pentlander.sasquach.type.TypeUtils;
 import com.pentlander.sasquach.type.UniversalType;
 import com.pentlander.sasquach.type.VariantType;
 import java.lang.classfile.ClassBuilder;
@@ -50,6 +51,7 @@ import java.lang.classfile.Signature.ArrayTypeSig;
 import java.lang.classfile.Signature.BaseTypeSig;
 import java.lang.classfile.Signature.TypeParam;
 import java.lang.classfile.TypeKind;
+import java.lang.classfile.attribute.ConstantValueAttribute;
 import java.lang.classfile.attribute.PermittedSubclassesAttribute;
 import java.lang.classfile.attribute.SignatureAttribute;
 import java.lang.classfile.attribute.SourceFileAttribute;
@@ -63,11 +65,15 @@ import java.lang.constant.MethodTypeDesc;
 import java.lang.reflect.AccessFlag;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.SequencedMap;
+import java.util.Set;
 import java.util.function.Consumer;
 import java.util.stream.IntStream;
 import java.util.stream.Stream;
@@ -78,17 +84,26 @@ import org.jspecify.annotations.Nullable;
 class ClassGenerator {
   static final MethodTypeDesc MTD_TO_STRING = MethodTypeDesc.of(ConstantDescs.CD_String);
   static final MethodTypeDesc MTD_HASHCODE = MethodTypeDesc.of(ConstantDescs.CD_int);
-  static final MethodTypeDesc MTD_HASH = MethodTypeDesc.of(ConstantDescs.CD_int, ConstantDescs.CD_Object.arrayType());
+  static final MethodTypeDesc MTD_OBJECTS_HASHCODE = MethodTypeDesc.of(ConstantDescs.CD_int, ConstantDescs.CD_Object);
+  static final MethodTypeDesc MTD_VARIANT_ORDINAL = MethodTypeDesc.of(ConstantDescs.CD_int);
   static final ClassDesc CD_STRUCT_BASE = classDesc(StructBase.class);
   static final String INSTANCE_FIELD = "INSTANCE";
+  /** Structs with at least this many fields cache their hash code after it's first computed. */
+  static final int CACHED_HASH_MIN_FIELDS = 8;
+  static final String CACHED_HASH_FIELD = "$hash";
   private final Map<String, byte[]> generatedClasses = new LinkedHashMap<>();
   private final SasqClassHierarchyResolver resolver = new SasqClassHierarchyResolver();
   @Nullable private TypedNode contextNode;
 
   private final QualifiedModuleName parentModuleName;
+  private final StructLayouts structLayouts;
+  private final Specializations specializations;
 
-  ClassGenerator(QualifiedModuleName parentModuleName) {
+  ClassGenerator(QualifiedModuleName parentModuleName, StructLayouts structLayouts,
+      Specializations specializations) {
     this.parentModuleName = parentModuleName;
+    this.structLayouts = structLayouts;
+    this.specializations = specializations;
   }
 
   public Map<String, byte[]> generate(TModuleDeclaration moduleDeclaration) {
@@ -131,6 +146,15 @@ class ClassGenerator {
       clb.withField(name, classDesc, ClassFile.ACC_PUBLIC + ClassFile.ACC_FINAL);
       fieldClasses.add(classDesc);
     }
+    var visitedStructs = Collections.<StructType>newSetFromMap(new IdentityHashMap<>());
+    var cacheHash = fields.size() >= CACHED_HASH_MIN_FIELDS && fields.values()
+        .stream()
+        .allMatch(type -> hasStableHash(type, visitedStructs));
+    if (cacheHash) {
+      clb.withField(CACHED_HASH_FIELD,
+          ConstantDescs.CD_int,
+          ClassFile.ACC_PRIVATE + ClassFile.ACC_TRANSIENT + ClassFile.ACC_SYNTHETIC);
+    }
 
     // Generate constructor
     clb.withMethodBody(
@@ -165,7 +189,7 @@ class ClassGenerator {
     //  impl generated to delegate to that func
     generateEquals(clb, structDesc, fields);
     // TODO: Don't generate hashCode method if the struct already has one
-    generateHashCode(clb, structDesc, fields);
+    generateHashCode(clb, structDesc, fields, cacheHash);
   }
 
   private void generateSumType(SumType sumType) {
@@ -204,17 +228,24 @@ class ClassGenerator {
         .toList();
     clb.withFlags(AccessFlag.PUBLIC, AccessFlag.ABSTRACT, AccessFlag.INTERFACE)
         .withInterfaceSymbols(CD_STRUCT_BASE)
-        .with(PermittedSubclassesAttribute.ofSymbols(permittedSubclassDescs));
+        .with(PermittedSubclassesAttribute.ofSymbols(permittedSubclassDescs))
+        .withMethod(SwitchBootstraps.VARIANT_ORDINAL_METHOD,
+            MTD_VARIANT_ORDINAL,
+            ClassFile.ACC_PUBLIC | ClassFile.ACC_ABSTRACT,
+            _ -> {});
     resolver.addSumType(sumType.internalClassDesc());
   }
 
-  private void generateSingleton(SingletonType singleton, SumType sumType, SourcePath sourcePath) {
-    buildAddClass(singleton, clb -> generateSingleton(clb, singleton, sumType, sourcePath));
+  private void generateSingleton(SingletonType singleton, SumType sumType, int ordinal,
+      SourcePath sourcePath) {
+    buildAddClass(singleton, clb -> generateSingleton(clb, singleton, sumType, ordinal, sourcePath));
   }
 
-  private void generateSingleton(ClassBuilder clb, SingletonType singleton, SumType sumType, SourcePath sourcePath) {
+  private void generateSingleton(ClassBuilder clb, SingletonType singleton, SumType sumType,
+      int ordinal, SourcePath sourcePath) {
     var structDesc = singleton.internalClassDesc();
     generateStructStart(clb, structDesc, sourcePath, seqMap(), sumType.internalClassDesc());
+    generateVariantOrdinal(clb, ordinal);
 
     generateStaticInstance(clb, singleton.classDesc(),
         structDesc,
@@ -226,17 +257,37 @@ class ClassGenerator {
         });
   }
 
-  private void generateVariantStruct(StructType structType, SumType sumType, SourcePath sourcePath) {
-    buildAddClass(structType, clb -> generateVariantStruct(clb, structType, sumType, sourcePath));
+  private void generateVariantStruct(StructType structType, SumType sumType, int ordinal,
+      SourcePath sourcePath) {
+    buildAddClass(structType,
+        clb -> generateVariantStruct(clb, structType, sumType, ordinal, sourcePath));
   }
 
-  private void generateVariantStruct(ClassBuilder clb, StructType structType, SumType sumType, SourcePath sourcePath) {
+  private void generateVariantStruct(ClassBuilder clb, StructType structType, SumType sumType,
+      int ordinal, SourcePath sourcePath) {
     generateStructStart(
         clb,
         structType.internalClassDesc(),
         sourcePath,
         structType.memberTypes(),
         sumType.internalClassDesc());
+    generateVariantOrdinal(clb, ordinal);
+  }
+
+  /**
+   * Generate the ordinal of the variant within its sum type. The ordinal is exposed as a constant
+   * so that match call sites can build a lookup table when they're linked, and as an
+   * implementation of the sum type's ordinal method so they can dispatch on it.
+   */
+  private static void generateVariantOrdinal(ClassBuilder clb, int ordinal) {
+    clb.withField(SwitchBootstraps.VARIANT_ORDINAL_FIELD,
+        ConstantDescs.CD_int,
+        fb -> fb.withFlags(ClassFile.ACC_PUBLIC | ClassFile.ACC_STATIC | ClassFile.ACC_FINAL)
+            .with(ConstantValueAttribute.of(ordinal)));
+    clb.withMethodBody(SwitchBootstraps.VARIANT_ORDINAL_METHOD,
+        MTD_VARIANT_ORDINAL,
+        ClassFile.ACC_PUBLIC | ClassFile.ACC_FINAL,
+        cob -> cob.ldc(ordinal).ireturn());
   }
 
   private void generateStruct(StructType structType, SourcePath sourcePath) {
@@ -261,6 +312,7 @@ class ClassGenerator {
           .mapToObj(j -> new TypeParameter(new UnqualifiedTypeName("A" + j)))
           .toList();
       var structType = new StructType(Tuple.tupleName(i), typeParams, memberTypes, RowModifier.none());
+      structLayouts.add(structType);
       buildAddClass(structType, clb -> generateStructStart(clb,
           structType.internalClassDesc(), null,
           structType.memberTypes()));
@@ -301,21 +353,23 @@ class ClassGenerator {
       switch (typeDef.type()) {
         case SumType sumType -> {
           generateSumType(sumType);
-          sumType.types().forEach(variantType -> {
+          var variantTypes = sumType.types();
+          for (int ordinal = 0; ordinal < variantTypes.size(); ordinal++) {
+            var variantType = variantTypes.get(ordinal);
             var name = variantType.name().simpleName();
             var constructorType = variantType.constructorType(sumType);
             switch (variantType) {
               case StructType structType -> {
-                generateVariantStruct(structType, sumType, sourcePath);
+                generateVariantStruct(structType, sumType, ordinal, sourcePath);
                 generateTypeConstructor(clb, name, structType.internalClassDesc(), constructorType);
 
               }
               case SingletonType singletonType -> {
-                generateSingleton(singletonType, sumType, sourcePath);
+                generateSingleton(singletonType, sumType, ordinal, sourcePath);
                 generateTypeConstructor(clb, name, singletonType.internalClassDesc(), constructorType);
               }
             }
-          });
+          }
         }
         case StructType type -> {
           generateStruct(type, sourcePath);
@@ -352,24 +406,89 @@ class ClassGenerator {
     });
   }
 
-  private static void generateHashCode(ClassBuilder clb, ClassDesc structDesc, SequencedMap<UnqualifiedName, Type> fields) {
+  /**
+   * Generates a hash code that combines the hashes of the fields the same way as
+   * {@link Objects#hash}, but inline without allocating an array or boxing the primitive fields.
+   * If the struct caches its hash, the hash is only computed the first time it's requested.
+   */
+  private static void generateHashCode(ClassBuilder clb, ClassDesc structDesc,
+      SequencedMap<UnqualifiedName, Type> fields, boolean cacheHash) {
     clb.withMethodBody("hashCode", MTD_HASHCODE, ClassFile.ACC_PUBLIC + ClassFile.ACC_FINAL, cob -> {
       var thisSlot = cob.receiverSlot();
-      cob.ldc(fields.size());
-      cob.anewarray(ConstantDescs.CD_Object);
-      int i = 0;
-      for (var field : fields.entrySet()) {
-        var fieldName = field.getKey().toString();
-        var fieldType = internalClassDesc(field.getValue());
-        cob.dup().ldc(i++).aload(thisSlot).getfield(structDesc, fieldName, fieldType);
-        box(cob, field.getValue());
-        cob.aastore();
+      if (cacheHash) {
+        var computeLabel = cob.newLabel();
+        cob.aload(thisSlot)
+            .getfield(structDesc, CACHED_HASH_FIELD, ConstantDescs.CD_int)
+            .dup()
+            .ifeq(computeLabel)
+            .ireturn()
+            .labelBinding(computeLabel);
+        cob.pop();
+      }
+
+      cob.iconst_1();
+      fields.forEach((name, type) -> {
+        var fieldType = internalClassDesc(type);
+        cob.bipush(31)
+            .imul()
+            .aload(thisSlot)
+            .getfield(structDesc, name.toString(), fieldType);
+        generateFieldHash(cob, TypeKind.from(fieldType));
+        cob.iadd();
+      });
+
+      if (cacheHash) {
+        // A hash of zero isn't distinguishable from a hash that hasn't been computed, so it's
+        // computed again each time. Races are benign since the hash is always the same.
+        var hashSlot = cob.allocateLocal(TypeKind.IntType);
+        cob.istore(hashSlot)
+            .aload(thisSlot)
+            .iload(hashSlot)
+            .putfield(structDesc, CACHED_HASH_FIELD, ConstantDescs.CD_int)
+            .iload(hashSlot);
       }
-      cob.invokestatic(classDesc(Objects.class), "hash", MTD_HASH)
-          .ireturn();
+      cob.ireturn();
     });
   }
 
+  /** Converts the field value on top of the stack into its hash code. */
+  private static void generateFieldHash(CodeBuilder cob, TypeKind typeKind) {
+    switch (typeKind) {
+      // The hash of these types is the value itself
+      case IntType, ShortType, ByteType, CharType -> {}
+      case BooleanType -> cob.invokestatic(ConstantDescs.CD_Boolean,
+          "hashCode",
+          MethodTypeDesc.of(ConstantDescs.CD_int, ConstantDescs.CD_boolean));
+      case LongType -> cob.invokestatic(ConstantDescs.CD_Long,
+          "hashCode",
+          MethodTypeDesc.of(ConstantDescs.CD_int, ConstantDescs.CD_long));
+      case FloatType -> cob.invokestatic(ConstantDescs.CD_Float,
+          "hashCode",
+          MethodTypeDesc.of(ConstantDescs.CD_int, ConstantDescs.CD_float));
+      case DoubleType -> cob.invokestatic(ConstantDescs.CD_Double,
+          "hashCode",
+          MethodTypeDesc.of(ConstantDescs.CD_int, ConstantDescs.CD_double));
+      default -> cob.invokestatic(classDesc(Objects.class), "hashCode", MTD_OBJECTS_HASHCODE);
+    }
+  }
+
+  /**
+   * Returns true if the hash code of a value of the type can never change. Only the hash of a
+   * struct whose fields are all of these types can be cached. A row-polymorphic struct may have
+   * fields that aren't part of its type, so its hash is never considered stable.
+   */
+  private static boolean hasStableHash(Type type, Set<StructType> visitedStructs) {
+    return switch (TypeUtils.reify(type)) {
+      case BuiltinType _, FunctionType _ -> true;
+      case StructType structType -> structType.rowModifier() instanceof RowModifier.None
+          && (!visitedStructs.add(structType) || structType.memberTypes()
+          .values()
+          .stream()
+          .allMatch(memberType -> hasStableHash(memberType, visitedStructs)));
+      default -> false;
+    };
+  }
+
   private void generateTStruct(ClassBuilder clb, TStruct struct) {
     setContext(struct);
     // Generate class header
@@ -388,14 +507,35 @@ class ClassGenerator {
       generateNamedTypes(clb, moduleStruct.typeDefs());
       generateStaticInstance(clb, structType.classDesc(),
           structType.internalClassDesc(),
-          cob -> new ExpressionGenerator(parentModuleName, cob, ExprContext.INIT, "modInit", List.of()).generateStructInit(
-              struct));
+          cob -> new ExpressionGenerator(parentModuleName,
+              structLayouts,
+              specializations,
+              cob,
+              ExprContext.INIT,
+              "modInit",
+              List.of(),
+              Map.of()).generateStructInit(struct));
 
       // Generate methods
+      var functions = new HashMap<UnqualifiedName, TNamedFunction>();
       for (var function : moduleStruct.functions()) {
         setContext(function);
+        functions.put(function.name(), function);
         generateFunction(clb, function.name().toString(), function.function());
       }
+
+      // Generate the specializations requested by call sites. Generating a function may request
+      // more specializations of functions in this module, which get generated when the module is
+      // generated again.
+      for (var specialization : specializations.forModule(parentModuleName)) {
+        var function = functions.get(specialization.funcName());
+        setContext(function);
+        generateFunction(clb,
+            specialization.name(),
+            function.function(),
+            ClassFile.ACC_PUBLIC + ClassFile.ACC_FINAL,
+            specialization.typeArgs());
+      }
     }
   }
 
@@ -417,7 +557,7 @@ class ClassGenerator {
 
   private void generateFunction(ClassBuilder clb, String funcName, TFunction function) {
     // TODO Replace this with an annotation check once annotations are implemented
-    generateFunction(clb, funcName, function, ClassFile.ACC_PUBLIC + ClassFile.ACC_FINAL);
+    generateFunction(clb, funcName, function, ClassFile.ACC_PUBLIC + ClassFile.ACC_FINAL, Map.of());
   }
 
   public static Signature typeSignature(Type type) {
@@ -452,36 +592,45 @@ class ClassGenerator {
 
   }
 
+  /**
+   * Generates a method that calls the function stored in the field. The method takes and returns
+   * the same types as the function, so the primitives of a closure that isn't generic are passed
+   * through without boxing.
+   */
   private static void generateFunctionWrapper(ClassBuilder clb, ClassDesc owner, UnqualifiedName fieldName, FunctionType funcType) {
     var signature = generateMethodSignature(funcType);
     var fieldNameStr = fieldName.toString();
+    var funcTypeDesc = GeneratorUtil.functionTypeDesc(funcType, Map.of());
 
-    clb.withMethod(fieldNameStr, funcType.functionTypeDesc(), ClassFile.ACC_PUBLIC + ClassFile.ACC_FINAL, mb -> {
+    clb.withMethod(fieldNameStr, funcTypeDesc, ClassFile.ACC_PUBLIC + ClassFile.ACC_FINAL, mb -> {
       if (signature != null) {
         mb.with(SignatureAttribute.of(signature));
       }
       mb.withCode(cob -> {
-        int idx = 0;
         cob.aload(cob.receiverSlot()).dup().getfield(owner, fieldNameStr, funcType.classDesc()).swap();
-        for (var param : funcType.parameters()) {
-          GeneratorUtil.generateLoadVar(cob, param.type(), cob.parameterSlot(idx++));
+        for (int i = 0; i < funcTypeDesc.parameterCount(); i++) {
+          cob.loadInstruction(TypeKind.from(funcTypeDesc.parameterType(i)), cob.parameterSlot(i));
         }
 
-        var funcTypeDesc = funcType.functionTypeDesc().insertParameterTypes(0, Func.CD, ConstantDescs.CD_Object);
         cob.invokeDynamicInstruction(DynamicCallSiteDesc.of(
             StructDispatch.MHD_BOOTSTRAP_MEMBER,
             StandardOperation.CALL.toString(),
-            funcTypeDesc));
-        cob.returnInstruction(TypeKind.from(funcType.returnType().classDesc()));
+            GeneratorUtil.funcCallTypeDesc(funcTypeDesc)));
+        cob.returnInstruction(TypeKind.from(funcTypeDesc.returnType()));
       });
     });
   }
 
 
+  /**
+   * @param typeArgs primitive types to substitute for the type parameters when generating a
+   *                 specialization of a generic function, otherwise empty.
+   */
   private void generateFunction(ClassBuilder clb, String functionName, TFunction function,
-      int methodFlags) {
+      int methodFlags, Map<UniversalType, BuiltinType> typeArgs) {
     var funcType = function.typeWithCaptures();
-    var signature = generateMethodSignature(funcType);
+    // The signature of a specialization wouldn't match its descriptor
+    var signature = typeArgs.isEmpty() ? generateMethodSignature(funcType) : null;
     // If a "main" method is found, need to generate a static method that delegates to instance
     int staticAcc = 0;
     final String funcName;
@@ -493,7 +642,8 @@ class ClassGenerator {
     }
 
     var namedAnonFuncs = new ArrayList<NamedAnonFunc>();
-    clb.withMethod(funcName, funcType.functionTypeDesc(), methodFlags + staticAcc, mb -> {
+    var funcTypeDesc = GeneratorUtil.functionTypeDesc(funcType, typeArgs);
+    clb.withMethod(funcName, funcTypeDesc, methodFlags + staticAcc, mb -> {
       if (signature != null) {
         mb.with(SignatureAttribute.of(signature));
       }
@@ -510,11 +660,19 @@ class ClassGenerator {
         if ((methodFlags & ClassFile.ACC_STATIC) != 0) {
           context = ExprContext.ANON_FUNC;
         }
-        var exprGenerator = new ExpressionGenerator(parentModuleName, cob, context, funcName, params).initParams();
+        var exprGenerator = new ExpressionGenerator(parentModuleName,
+            structLayouts,
+            specializations,
+            cob,
+            context,
+            funcName,
+            params,
+            typeArgs).initParams();
         var returnExpr = function.expression();
         if (returnExpr != null) {
           exprGenerator.generateExpr(returnExpr);
-          cob.returnInstruction(TypeKind.from(returnExpr.type().classDesc()));
+          var returnType = GeneratorUtil.specialize(returnExpr.type(), typeArgs);
+          cob.returnInstruction(TypeKind.from(returnType.classDesc()));
         } else {
           cob.return_();
         }
@@ -527,6 +685,7 @@ class ClassGenerator {
         clb,
         func.name(),
         func.function(),
-        ClassFile.ACC_PUBLIC + ClassFile.ACC_STATIC));
+        ClassFile.ACC_PUBLIC + ClassFile.ACC_STATIC,
+        typeArgs));
   }
 }
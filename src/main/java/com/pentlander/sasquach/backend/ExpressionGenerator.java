@@ -5,6 +5,7 @@ import static com.pentlander.sasquach.backend.ClassGenerator.INSTANCE_FIELD;
 import static com.pentlander.sasquach.backend.GeneratorUtil.tryBox;
 import static com.pentlander.sasquach.type.TypeUtils.asStructType;
 import static com.pentlander.sasquach.type.TypeUtils.classDesc;
+import static java.util.Objects.requireNonNull;
 
 import com.pentlander.sasquach.ast.expression.Value;
 import com.pentlander.sasquach.backend.AnonFunctions.NamedAnonFunc;
@@ -12,7 +13,6 @@ import com.pentlander.sasquach.backend.BytecodeGenerator.CodeGenerationException
 import com.pentlander.sasquach.backend.TLocalVarMeta.TVarMeta;
 import com.pentlander.sasquach.name.QualifiedModuleName;
 import com.pentlander.sasquach.name.UnqualifiedName;
-import com.pentlander.sasquach.runtime.bootstrap.Func;
 import com.pentlander.sasquach.runtime.bootstrap.FuncBootstrap;
 import com.pentlander.sasquach.runtime.bootstrap.StructDispatch;
 import com.pentlander.sasquach.runtime.bootstrap.SwitchBootstraps;
@@ -34,8 +34,8 @@ import com.pentlander.sasquach.type.FieldAccessKind;
 import com.pentlander.sasquach.type.FunctionType;
 import com.pentlander.sasquach.type.StructType;
 import com.pentlander.sasquach.type.Type;
+import com.pentlander.sasquach.type.TypeParameter;
 import com.pentlander.sasquach.type.TypeUtils;
-import com.pentlander.sasquach.type.TypeVariable;
 import com.pentlander.sasquach.type.UniversalType;
 import java.io.PrintStream;
 import java.lang.classfile.CodeBuilder;
@@ -55,9 +55,13 @@ import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Deque;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.function.BiConsumer;
 import java.util.function.Consumer;
+import java.util.stream.Collectors;
 import java.util.stream.Stream;
 import jdk.dynalink.Namespace;
 import jdk.dynalink.StandardNamespace;
@@ -70,19 +74,28 @@ final class ExpressionGenerator {
   private final Deque<Label> loopLabels = new ArrayDeque<>();
   private final AnonFunctions anonFunctions;
   private final QualifiedModuleName parentModuleName;
+  private final StructLayouts structLayouts;
+  private final Specializations specializations;
   private final CodeBuilder cob;
   private final ExprContext context;
   private final TLocalVarMeta localVarMeta;
+  /** Primitive type arguments if generating a specialization of a generic function. */
+  private final Map<UniversalType, BuiltinType> typeArgs;
   @Nullable private TypedNode contextNode;
 
   ExpressionGenerator(
-      QualifiedModuleName parentModuleName, CodeBuilder cob, ExprContext context, String functionName,
-      List<TFunctionParameter> params) {
+      QualifiedModuleName parentModuleName, StructLayouts structLayouts,
+      Specializations specializations, CodeBuilder cob, ExprContext context, String functionName,
+      List<TFunctionParameter> params, Map<UniversalType, BuiltinType> typeArgs) {
     this.parentModuleName = parentModuleName;
+    this.structLayouts = structLayouts;
+    this.specializations = specializations;
     this.cob = cob;
     this.context = context;
+    this.typeArgs = typeArgs;
     this.anonFunctions = new AnonFunctions(functionName);
-    this.localVarMeta = TLocalVarMeta.of(params, context);
+    this.localVarMeta = typeArgs.isEmpty() ? TLocalVarMeta.of(params, context)
+        : TLocalVarMeta.of(params, context, this::type);
   }
 
   private void addContextNode(TypedNode node) {
@@ -119,10 +132,7 @@ final class ExpressionGenerator {
   }
 
   Type type(Type type) {
-    if (type instanceof TypeVariable typeVar) {
-      return typeVar.resolvedType().orElseThrow();
-    }
-    return type;
+    return GeneratorUtil.specialize(type, typeArgs);
   }
 
   void attachVarMeta(TVarMeta varMeta) {
@@ -130,7 +140,7 @@ final class ExpressionGenerator {
     cob.with(LocalVariable.of(
         varMeta.idx(),
         localVar.name().toString(),
-        localVar.variableType().classDesc(),
+        type(localVar.variableType()).classDesc(),
         cob.newBoundLabel(),
         cob.endLabel()));
   }
@@ -209,14 +219,17 @@ final class ExpressionGenerator {
       }
       case TArrayValue arrayValue -> {
         // TODO: Support primitive arrays.
+        var componentType = type(arrayValue).classDesc().componentType();
         cob.bipush(arrayValue.expressions().size())
-            .anewarray(arrayValue.type().classDesc().componentType());
+            .anewarray(componentType);
 
         var expressions = arrayValue.expressions();
         for (int i = 0; i < expressions.size(); i++) {
           var expr = expressions.get(i);
           cob.dup().ldc(i);
           generate(expr);
+          // Elements of a type parameter are primitives in a specialized body
+          GeneratorUtil.convert(cob, type(expr).classDesc(), componentType);
           cob.aastore();
         }
       }
@@ -280,7 +293,7 @@ final class ExpressionGenerator {
       }
       case TStruct struct -> {
         if (struct instanceof TLiteralStruct) {
-          var classGen = new ClassGenerator(parentModuleName);
+          var classGen = new ClassGenerator(parentModuleName, structLayouts, specializations);
           generatedClasses.putAll(classGen.generate(struct));
         }
 
@@ -289,7 +302,7 @@ final class ExpressionGenerator {
       case TFieldAccess fieldAccess -> {
         generate(fieldAccess.expr());
         var structType = asStructType(fieldAccess.expr().type()).orElseThrow();
-        generateFieldAccess(cob, fieldAccess.fieldName(), structType.fieldType(fieldAccess.fieldName()));
+        generateFieldAccess(structType, fieldAccess.fieldName(), type(fieldAccess));
       }
       case TBlock block -> generateBlock(block);
       case TForeignFieldAccess(_, var id, var ownerType, var fieldType, var accessKind) -> {
@@ -303,7 +316,15 @@ final class ExpressionGenerator {
             id.name().toString(),
             fieldType.classDesc());
       }
-      case TFunctionCall functionCall -> generateFunctionCall(functionCall);
+      case TFunctionCall functionCall -> {
+        var fusedLoop = functionCall instanceof TBasicFunctionCall basicCall
+            ? IteratorFusion.fuse(basicCall) : null;
+        if (fusedLoop != null) {
+          generate(fusedLoop);
+        } else {
+          generateFunctionCall(functionCall);
+        }
+      }
       case TLoop loop -> {
         loop.varDeclarations().forEach(this::generate);
         var recurPoint = cob.newBoundLabel();
@@ -321,19 +342,15 @@ final class ExpressionGenerator {
         cob.goto_(loopLabels.getLast());
       }
       case TFunction func -> {
-        var funcTypeDesc = func.typeWithCaptures().functionTypeDesc();
+        var funcTypeDesc = GeneratorUtil.functionTypeDesc(func.typeWithCaptures(), typeArgs);
         var anonFuncName = anonFunctions.add(func);
         var captures = func.captures();
 
-        cob.bipush(captures.size()).anewarray(ConstantDescs.CD_Object);
-        for (int i = 0; i < captures.size(); i++) {
-          var capture = captures.get(i);
-          cob.dup().bipush(i);
-          generateLoadVar(capture);
-          GeneratorUtil.box(cob, capture.variableType());
-          cob.aastore();
-        }
-        cob.invokeDynamicInstruction(FuncBootstrap.bootstrapFuncInit(anonFuncName, funcTypeDesc));
+        // Captures are passed as is, the closure class stores them in fields of the same type
+        captures.forEach(this::generateLoadVar);
+        cob.invokeDynamicInstruction(FuncBootstrap.bootstrapFuncInit(anonFuncName,
+            funcTypeDesc,
+            captures.size()));
       }
       case TApplyOperator applyOperator -> generate(applyOperator.functionCall());
       case TMatch match -> {
@@ -385,16 +402,14 @@ final class ExpressionGenerator {
               // Need to look up the types of the bindings, allocate a variable for each field,
               // then store the value of the field in the variable
               for (int j = 0; j < bindings.size(); j++) {
-                // Load the value of the field and cast it
+                // Load the value of the field
                 GeneratorUtil.generateLoadVar(cob, variantType, exprVarIdx);
-                cob.checkcast(variantType.internalClassDesc());
-
                 var field = tupleFieldTypes.get(j);
-                generateFieldAccess(cob, field.getKey(), field.getValue());
-
-                // Store the value in the pattern variable
                 var binding = bindings.get(j);
                 var bindType = type(binding);
+                generateFieldAccess(variantType, field.getKey(), bindType);
+
+                // Store the value in the pattern variable
                 int idx = localVarMeta.push(binding).idx();
                 generateStoreVar(cob, bindType, idx);
               }
@@ -403,12 +418,9 @@ final class ExpressionGenerator {
               var variantType = variantStruct.type();
               for (var binding : variantStruct.bindings()) {
                 GeneratorUtil.generateLoadVar(cob, variantType, exprVarIdx);
-                cob.checkcast(variantType.internalClassDesc());
-
-                var fieldType = variantType.fieldType(binding.name());
-                generateFieldAccess(cob, binding.name(), fieldType);
-
                 var bindType = type(binding);
+                generateFieldAccess(variantType, binding.name(), bindType);
+
                 int idx = localVarMeta.push(binding).idx();
                 generateStoreVar(cob, bindType, idx);
               }
@@ -435,7 +447,6 @@ final class ExpressionGenerator {
   private void generateFunctionCall(TFunctionCall functionCall) {
     var name = functionCall.name();
     var args = functionCall.arguments();
-    var returnType = functionCall.returnType();
 
     switch (functionCall) {
       case TForeignFunctionCall foreignFuncCall -> {
@@ -467,16 +478,33 @@ final class ExpressionGenerator {
             cob.arrayStoreInstruction(typeKind);
           }
         } else {
-          args.forEach(this::generate);
+          // Type parameters of the method are erased, so primitives passed to them need to be
+          // boxed. The arguments may also be unboxed if they're typed by a specialized type
+          // parameter.
+          var paramDescs = foreignFuncType.methodHandleDesc().invocationType().parameterList();
+          for (int i = 0; i < args.size(); i++) {
+            var arg = args.get(i);
+            generate(arg);
+            GeneratorUtil.convert(cob, type(arg).classDesc(), paramDescs.get(i));
+          }
         }
 
-        generate(foreignFuncType.methodHandleDesc());
+        var methodHandleDesc = foreignFuncType.methodHandleDesc();
+        generate(methodHandleDesc);
         var castType = foreignFuncType.castType();
         if (castType != null) {
-          cob.checkcast(castType.classDesc());
+          GeneratorUtil.convert(cob,
+              methodHandleDesc.invocationType().returnType(),
+              type(castType).classDesc());
         }
       }
       case TBasicFunctionCall structFuncCall -> {
+        if (structFuncCall.callTarget() instanceof Struct(var structExpr)
+            && moduleName(structExpr) instanceof QualifiedModuleName moduleName) {
+          generateModuleFunctionCall(structFuncCall, structExpr, moduleName);
+          return;
+        }
+
         var funcType = structFuncCall.functionType();
         switch (structFuncCall.callTarget()) {
           case LocalVar(var localVar) -> {
@@ -488,28 +516,161 @@ final class ExpressionGenerator {
             cob.dup();
             // Consume one of the struct references to create a Func object, making the stack:
             // Struct -> Func, then swap them since the func call expects the order to be Func -> Struct
-            generateFieldAccess(cob, name, funcType);
+            generateFieldAccess(asStructType(structExpr.type()).orElseThrow(), name, funcType);
             cob.swap();
           }
         }
 
-        generateArgs(structFuncCall.typedArgs(), funcType.parameters());
-        var funcTypeDesc = funcType.functionTypeDesc().insertParameterTypes(0, Func.CD, ConstantDescs.CD_Object);
+        // The call site is typed with the types of the arguments and the type of the call rather
+        // than the erased function type, so calling a function value whose implementation takes
+        // or returns primitives doesn't box them. The linker converts the values if the
+        // implementation is erased instead.
+        var argTypes = new ArrayList<Type>();
+        generateArgs(structFuncCall.typedArgs(),
+            funcType.parameters(),
+            (argType, _) -> argTypes.add(argType));
+        var funcTypeDesc = GeneratorUtil.funcCallTypeDesc(MethodTypeDesc.of(
+            type(structFuncCall).classDesc(),
+            argTypes.stream().map(Type::classDesc).toList()));
         cob.invokeDynamicInstruction(DynamicCallSiteDesc.of(
             StructDispatch.MHD_BOOTSTRAP_MEMBER,
             StandardOperation.CALL.toString(),
             funcTypeDesc));
-        var funcCallType = type(structFuncCall);
-        tryUnbox(funcCallType, returnType);
       }
     }
   }
 
-  private static void generateFieldAccess(
-      CodeBuilder cob,
-      UnqualifiedName fieldName,
-      Type fieldType
-  ) {
+  /**
+   * Returns the name of the module if the expression refers to a module known at compile time,
+   * otherwise returns null.
+   */
+  private @Nullable QualifiedModuleName moduleName(TypedExpression structExpr) {
+    return switch (structExpr) {
+      case TVarReference(_, Module(var moduleName), _, _) -> moduleName;
+      case TThisExpr _ -> parentModuleName;
+      default -> null;
+    };
+  }
+
+  /**
+   * Invoke a module function directly on the module class. Every function in the module's type is
+   * generated as a method on the module class, so the method descriptor is known at compile time
+   * and there's no need to go through dynamic dispatch. If the call instantiates type parameters of
+   * the function with primitive types, a specialization of the function is called instead.
+   */
+  private void generateModuleFunctionCall(TBasicFunctionCall funcCall, TypedExpression structExpr,
+      QualifiedModuleName moduleName) {
+    var structType = asStructType(structExpr.type()).orElseThrow();
+    var fieldType = requireNonNull(structType.fieldType(funcCall.name()));
+    var declaredFuncType = TypeUtils.asFunctionType(fieldType).orElseThrow();
+
+    var funcTypeArgs = primitiveTypeArgs(funcCall, declaredFuncType);
+    var specializedName = specializations.request(moduleName,
+        funcCall.name(),
+        declaredFuncType,
+        funcTypeArgs);
+    var methodName = specializedName != null ? specializedName : funcCall.name().toString();
+    var calleeTypeArgs = specializedName != null ? funcTypeArgs
+        : Map.<UniversalType, BuiltinType>of();
+
+    generate(structExpr);
+    generateArgs(
+        funcCall.typedArgs(),
+        declaredFuncType.parameters(),
+        (argType, paramType) -> GeneratorUtil.convert(cob,
+            argType,
+            GeneratorUtil.specialize(paramType, calleeTypeArgs)));
+    cob.invokevirtual(moduleName.toClassDesc(),
+        methodName,
+        GeneratorUtil.functionTypeDesc(declaredFuncType, calleeTypeArgs));
+    GeneratorUtil.convert(cob,
+        GeneratorUtil.specialize(declaredFuncType.returnType(), calleeTypeArgs),
+        type(funcCall));
+  }
+
+  /**
+   * Returns the type parameters of the called function that the call instantiates with primitive
+   * types. Type parameters that are the type of a parameter, the return type, or a parameter or
+   * return type of a function parameter are included, since those are passed unboxed. Type
+   * parameters nested in any other type are erased regardless.
+   */
+  private Map<UniversalType, BuiltinType> primitiveTypeArgs(TBasicFunctionCall funcCall,
+      FunctionType declaredFuncType) {
+    var typeParams = declaredFuncType.typeParameters()
+        .stream()
+        .map(TypeParameter::toUniversal)
+        .collect(Collectors.toSet());
+    if (typeParams.isEmpty()) {
+      return Map.of();
+    }
+
+    var typeArgs = new HashMap<UniversalType, BuiltinType>();
+    var conflicting = new HashSet<UniversalType>();
+    var args = funcCall.typedArgs().args();
+    var argIndexes = funcCall.typedArgs().argIndexes();
+    var params = declaredFuncType.parameters();
+    for (int i = 0; i < argIndexes.length; i++) {
+      addPrimitiveTypeArgs(params.get(i).type(),
+          args.get(argIndexes[i]).type(),
+          typeParams,
+          typeArgs,
+          conflicting);
+    }
+    addPrimitiveTypeArgs(declaredFuncType.returnType(),
+        funcCall.type(),
+        typeParams,
+        typeArgs,
+        conflicting);
+    conflicting.forEach(typeArgs::remove);
+    return typeArgs;
+  }
+
+  private void addPrimitiveTypeArgs(Type declaredType, Type actualType,
+      Set<UniversalType> typeParams, Map<UniversalType, BuiltinType> typeArgs,
+      Set<UniversalType> conflicting) {
+    var reifiedType = TypeUtils.reify(declaredType);
+    if (reifiedType instanceof UniversalType universalType && typeParams.contains(universalType)
+        && type(actualType) instanceof BuiltinType typeArg && GeneratorUtil.isPrimitive(typeArg)) {
+      var existingTypeArg = typeArgs.putIfAbsent(universalType, typeArg);
+      if (existingTypeArg != null && existingTypeArg != typeArg) {
+        conflicting.add(universalType);
+      }
+    } else if (reifiedType instanceof FunctionType declaredFuncType
+        && TypeUtils.asFunctionType(type(actualType)).orElse(null) instanceof FunctionType actualFuncType
+        && declaredFuncType.parameters().size() == actualFuncType.parameters().size()) {
+      // Function values are called with their parameter and return types unboxed, so a
+      // specialization lets a closure with primitive types be called without boxing
+      var declaredParams = declaredFuncType.parameterTypes();
+      var actualParams = actualFuncType.parameterTypes();
+      for (int i = 0; i < declaredParams.size(); i++) {
+        addPrimitiveTypeArgs(declaredParams.get(i),
+            actualParams.get(i),
+            typeParams,
+            typeArgs,
+            conflicting);
+      }
+      addPrimitiveTypeArgs(declaredFuncType.returnType(),
+          actualFuncType.returnType(),
+          typeParams,
+          typeArgs,
+          conflicting);
+    }
+  }
+
+  /**
+   * Access a field of the struct on top of the stack. If the struct type is known to be a class
+   * generated in this compilation, the field is loaded directly, otherwise it's loaded through
+   * dynamic dispatch.
+   */
+  private void generateFieldAccess(StructType structType, UnqualifiedName fieldName, Type fieldType) {
+    var fieldDesc = structLayouts.fieldDesc(structType, fieldName);
+    if (fieldDesc != null) {
+      var structClassDesc = structType.internalClassDesc();
+      cob.checkcast(structClassDesc).getfield(structClassDesc, fieldName.toString(), fieldDesc);
+      GeneratorUtil.convert(cob, fieldDesc, fieldType.classDesc());
+      return;
+    }
+
     var isFunc = TypeUtils.asFunctionType(fieldType).isPresent();
     var namespaces = isFunc ? new Namespace[]{StandardNamespace.PROPERTY, StandardNamespace.METHOD}
         : new Namespace[]{StandardNamespace.PROPERTY};
@@ -523,6 +684,11 @@ final class ExpressionGenerator {
   }
 
   private void generateArgs(TArgs typedArgs, List<FunctionType.Param> params) {
+    generateArgs(typedArgs, params, (argType, paramType) -> tryBox(cob, argType, type(paramType)));
+  }
+
+  private void generateArgs(TArgs typedArgs, List<FunctionType.Param> params,
+      BiConsumer<Type, Type> argConverter) {
     var args = typedArgs.args();
     var varIndexes = new int[args.size()];
     int j = 0;
@@ -530,9 +696,10 @@ final class ExpressionGenerator {
       // Generate the expression
       generate(expr);
 
-      int idx = localVarMeta.pushHidden();
+      var exprType = type(expr);
+      int idx = localVarMeta.pushHidden(TypeKind.from(exprType.classDesc()).slotSize());
       varIndexes[j++] = idx;
-      generateStoreVar(cob, type(expr), idx);
+      generateStoreVar(cob, exprType, idx);
     }
 
     var argIndexes = typedArgs.argIndexes();
@@ -542,7 +709,7 @@ final class ExpressionGenerator {
       var param = params.get(i);
 
       GeneratorUtil.generateLoadVar(cob, argType, varIndexes[argIndex]);
-      tryBox(cob, argType, param.type());
+      argConverter.accept(argType, param.type());
     }
   }
 
@@ -575,7 +742,7 @@ final class ExpressionGenerator {
         }
       });
 
-      var paramClassDescs = Stream.concat(fields.stream().map(field -> field.type().classDesc()),
+      var paramClassDescs = Stream.concat(fields.stream().map(field -> type(field.type()).classDesc()),
           literalStruct.spreads().stream().map(spread -> spread.type().classDesc())).toList();
       var typeDesc = MethodTypeDesc.of(structType.classDesc(), paramClassDescs);
       var callSiteDesc = DynamicCallSiteDesc.of(StructDispatch.MHD_BOOTSTRAP_SPREAD, typeDesc)
@@ -591,7 +758,7 @@ final class ExpressionGenerator {
       var field = fields.get(i);
       var paramType = params.get(i);
       generateExpr(field.expr());
-      tryBox(cob, field.type(), paramType);
+      tryBox(cob, type(field.type()), paramType);
       paramDescs[i] = paramType.classDesc();
     }
     generate(MethodHandleDesc.ofConstructor(structClassDesc, paramDescs));
@@ -599,7 +766,7 @@ final class ExpressionGenerator {
 
   private void generateLoadVar(TLocalVariable localVar) {
     var varMeta = localVarMeta.get(localVar);
-    GeneratorUtil.generateLoadVar(cob, varMeta.localVar().variableType(), varMeta.idx());
+    GeneratorUtil.generateLoadVar(cob, type(varMeta.localVar().variableType()), varMeta.idx());
   }
 
   private static void generateStoreVar(CodeBuilder cob, Type type, int idx) {
@@ -623,19 +790,6 @@ final class ExpressionGenerator {
     }
   }
 
-  /**
-   * Convert a boxed type into its primitive type.
-   */
-  void tryUnbox(Type expectedType, Type actualType) {
-    if (expectedType instanceof BuiltinType builtinType && builtinType == BuiltinType.INT
-        && (actualType instanceof UniversalType)) {
-      cob.checkcast(ConstantDescs.CD_Integer)
-          .invokevirtual(ConstantDescs.CD_Integer,
-              "intValue",
-              MethodTypeDesc.of(ConstantDescs.CD_int));
-    }
-  }
-
   private void generate(DirectMethodHandleDesc methodHandleDesc) {
     GeneratorUtil.generate(cob, methodHandleDesc);
   }
@@ -1,9 +1,12 @@
 package com.pentlander.sasquach.backend;
 
-import static com.pentlander.sasquach.type.TypeUtils.classDesc;
-
+import com.pentlander.sasquach.runtime.bootstrap.Func;
 import com.pentlander.sasquach.type.BuiltinType;
+import com.pentlander.sasquach.type.FunctionType;
 import com.pentlander.sasquach.type.Type;
+import com.pentlander.sasquach.type.TypeUtils;
+import com.pentlander.sasquach.type.TypeVariable;
+import com.pentlander.sasquach.type.UniversalType;
 import java.lang.classfile.CodeBuilder;
 import java.lang.classfile.Opcode;
 import java.lang.classfile.TypeKind;
@@ -11,7 +14,7 @@ import java.lang.constant.ClassDesc;
 import java.lang.constant.ConstantDescs;
 import java.lang.constant.DirectMethodHandleDesc;
 import java.lang.constant.MethodTypeDesc;
-import jdk.dynalink.linker.support.TypeUtilities;
+import java.util.Map;
 
 public final class GeneratorUtil {
   static final MethodTypeDesc MTD_EQUALS = MethodTypeDesc.of(ConstantDescs.CD_boolean, ConstantDescs.CD_Object);
@@ -70,17 +73,47 @@ public final class GeneratorUtil {
     }
   }
 
-  static void box(CodeBuilder cob, Type type) {
-    if (type instanceof BuiltinType builtinType) {
-      switch (builtinType) {
-        case BOOLEAN, INT, CHAR, BYTE, SHORT, LONG, FLOAT, DOUBLE -> {
-          var wrapperTypeDesc = classDesc(TypeUtilities.getWrapperType(builtinType.typeClass()));
-          var methodTypeDesc = MethodTypeDesc.of(wrapperTypeDesc, builtinType.classDesc());
-          cob.invokestatic(wrapperTypeDesc, "valueOf",  methodTypeDesc);
-        }
-        default -> {}
-      }
+  /**
+   * Returns the type with type variables resolved and, if it's a universal type with a type
+   * argument, replaced by the type argument of the function specialization.
+   */
+  static Type specialize(Type type, Map<UniversalType, BuiltinType> typeArgs) {
+    if (type instanceof TypeVariable typeVar) {
+      type = typeVar.resolvedType().orElseThrow();
+    }
+    if (!typeArgs.isEmpty() && TypeUtils.reify(type) instanceof UniversalType universalType
+        && typeArgs.get(universalType) instanceof BuiltinType typeArg) {
+      return typeArg;
     }
+    return type;
+  }
+
+  /** Returns the descriptor of the function with the type arguments substituted. */
+  static MethodTypeDesc functionTypeDesc(FunctionType funcType,
+      Map<UniversalType, BuiltinType> typeArgs) {
+    if (typeArgs.isEmpty()) {
+      return funcType.functionTypeDesc();
+    }
+    return MethodTypeDesc.of(specialize(funcType.returnType(), typeArgs).classDesc(),
+        funcType.parameterTypes()
+            .stream()
+            .map(paramType -> specialize(paramType, typeArgs).classDesc())
+            .toArray(ClassDesc[]::new));
+  }
+
+  /**
+   * Returns the descriptor of a {@code CALL} call site for a function value with the given
+   * descriptor. The call site takes the {@link Func} and the receiver the function was accessed on
+   * before the arguments of the function.
+   */
+  static MethodTypeDesc funcCallTypeDesc(MethodTypeDesc funcTypeDesc) {
+    return funcTypeDesc.insertParameterTypes(0, Func.CD, ConstantDescs.CD_Object);
+  }
+
+  /** Returns true if the type is a JVM primitive type. */
+  static boolean isPrimitive(Type type) {
+    return type instanceof BuiltinType builtinType && builtinType != BuiltinType.STRING
+        && builtinType != BuiltinType.VOID;
   }
 
   /**
@@ -90,11 +123,75 @@ public final class GeneratorUtil {
    */
   static void tryBox(CodeBuilder cob, Type actualType, Type expectedType) {
     var expectedTypeKind = TypeKind.from(expectedType.classDesc());
-    if (expectedTypeKind.equals(TypeKind.ReferenceType)) {
-      box(cob, actualType);
+    if (expectedTypeKind.equals(TypeKind.ReferenceType) && isPrimitive(actualType)) {
+      box(cob, TypeKind.from(actualType.classDesc()));
     }
   }
 
+  /**
+   * Convert the value on top of the stack from the actual type into the expected type, boxing,
+   * unboxing or casting it as necessary.
+   * <p>This method should be used when invoking a method directly rather than through
+   * invokedynamic, as the method descriptor erases the type parameters to {@link Object}.</p>
+   */
+  static void convert(CodeBuilder cob, Type actualType, Type expectedType) {
+    convert(cob, actualType.classDesc(), expectedType.classDesc());
+  }
+
+  static void convert(CodeBuilder cob, ClassDesc actualClassDesc, ClassDesc expectedClassDesc) {
+    if (actualClassDesc.equals(expectedClassDesc)) {
+      return;
+    }
+
+    var actualTypeKind = TypeKind.from(actualClassDesc);
+    var expectedTypeKind = TypeKind.from(expectedClassDesc);
+    if (expectedTypeKind == TypeKind.VoidType) {
+      if (actualTypeKind.slotSize() == 2) {
+        cob.pop2();
+      } else {
+        cob.pop();
+      }
+    } else if (actualTypeKind == TypeKind.VoidType) {
+      cob.aconst_null();
+    } else if (expectedTypeKind == TypeKind.ReferenceType && actualTypeKind != TypeKind.ReferenceType) {
+      box(cob, actualTypeKind);
+    } else if (expectedTypeKind != TypeKind.ReferenceType && actualTypeKind == TypeKind.ReferenceType) {
+      unbox(cob, expectedTypeKind);
+    } else if (expectedTypeKind == TypeKind.ReferenceType
+        && !expectedClassDesc.equals(ConstantDescs.CD_Object)) {
+      cob.checkcast(expectedClassDesc);
+    }
+  }
+
+  private static ClassDesc wrapperClassDesc(TypeKind typeKind) {
+    return switch (typeKind) {
+      case BooleanType -> ConstantDescs.CD_Boolean;
+      case ByteType -> ConstantDescs.CD_Byte;
+      case CharType -> ConstantDescs.CD_Character;
+      case ShortType -> ConstantDescs.CD_Short;
+      case IntType -> ConstantDescs.CD_Integer;
+      case LongType -> ConstantDescs.CD_Long;
+      case FloatType -> ConstantDescs.CD_Float;
+      case DoubleType -> ConstantDescs.CD_Double;
+      case ReferenceType, VoidType -> throw new IllegalArgumentException(typeKind.toString());
+    };
+  }
+
+  private static void box(CodeBuilder cob, TypeKind typeKind) {
+    var wrapperTypeDesc = wrapperClassDesc(typeKind);
+    var primitiveDesc = ClassDesc.ofDescriptor(typeKind.descriptor());
+    cob.invokestatic(wrapperTypeDesc, "valueOf", MethodTypeDesc.of(wrapperTypeDesc, primitiveDesc));
+  }
+
+  private static void unbox(CodeBuilder cob, TypeKind typeKind) {
+    var wrapperTypeDesc = wrapperClassDesc(typeKind);
+    var primitiveDesc = ClassDesc.ofDescriptor(typeKind.descriptor());
+    cob.checkcast(wrapperTypeDesc)
+        .invokevirtual(wrapperTypeDesc,
+            primitiveDesc.displayName() + "Value",
+            MethodTypeDesc.of(primitiveDesc));
+  }
+
   static void generateEquals(CodeBuilder cob, TypeKind typeKind) {
     var falseLabel = cob.newLabel();
     var endLabel = cob.newLabel();
@@ -0,0 +1,267 @@
+package com.pentlander.sasquach.backend;
+
+import static java.util.Objects.requireNonNull;
+
+import com.pentlander.sasquach.Range;
+import com.pentlander.sasquach.ast.id.Id;
+import com.pentlander.sasquach.name.QualifiedModuleName;
+import com.pentlander.sasquach.name.UnqualifiedName;
+import com.pentlander.sasquach.tast.TBranch;
+import com.pentlander.sasquach.tast.expression.TApplyOperator;
+import com.pentlander.sasquach.tast.expression.TBasicFunctionCall;
+import com.pentlander.sasquach.tast.expression.TBasicFunctionCall.TArgs;
+import com.pentlander.sasquach.tast.expression.TBasicFunctionCall.TCallTarget;
+import com.pentlander.sasquach.tast.expression.TBasicFunctionCall.TCallTarget.Struct;
+import com.pentlander.sasquach.tast.expression.TBlock;
+import com.pentlander.sasquach.tast.expression.TFunction;
+import com.pentlander.sasquach.tast.expression.TIfExpression;
+import com.pentlander.sasquach.tast.expression.TLocalVariable;
+import com.pentlander.sasquach.tast.expression.TLoop;
+import com.pentlander.sasquach.tast.expression.TMatch;
+import com.pentlander.sasquach.tast.expression.TRecur;
+import com.pentlander.sasquach.tast.expression.TVarReference;
+import com.pentlander.sasquach.tast.expression.TVarReference.RefDeclaration.Local;
+import com.pentlander.sasquach.tast.expression.TVarReference.RefDeclaration.Module;
+import com.pentlander.sasquach.tast.expression.TVariableDeclaration;
+import com.pentlander.sasquach.tast.expression.TypedExpression;
+import com.pentlander.sasquach.type.BuiltinType;
+import com.pentlander.sasquach.type.FunctionType;
+import com.pentlander.sasquach.type.Type;
+import com.pentlander.sasquach.type.TypeUtils;
+import java.util.ArrayList;
+import java.util.List;
+import org.jspecify.annotations.Nullable;
+
+/**
+ * Fuses a pipeline of std iterator adapters that ends in a terminal operation into a single loop.
+ * <p>A call like {@code iter |> Iterator.map(f) |> Iterator.filter(p) |> Iterator.reduce(init, g)}
+ * creates an iterator per stage, and every item goes through a dynamic call to each stage's
+ * closure. If the functions passed to the stages and the terminal operation are lambdas, the
+ * pipeline is rewritten into a loop over a cursor of the source iterator with the lambda bodies
+ * inlined:</p>
+ * <pre>
+ * let items = Iterator.cursor(...)
+ * loop (let accum = init) -> if items.hasNext() {
+ *   let item = items.nextItem()
+ *   let mapped = f body
+ *   if p body recur(g body) else recur(accum)
+ * } else accum
+ * </pre>
+ * <p>The parameters of an inlined lambda are declared as local variables with the same ids as
+ * the parameters, so references to them in the body resolve to the locals without rewriting the
+ * body. The adapters are lazy, so the fused loop calls the functions in the same order as the
+ * pipeline does.</p>
+ */
+final class IteratorFusion {
+  private record Stage(boolean isMap, TFunction func) {}
+
+  private static final QualifiedModuleName ITERATOR_MODULE = QualifiedModuleName.fromString(
+      "std/Iterator");
+  private static final String MAP = "map";
+  private static final String FILTER = "filter";
+  private static final String REDUCE = "reduce";
+  private static final String FOR_EACH = "forEach";
+  private static final UnqualifiedName CURSOR = new UnqualifiedName("cursor");
+
+  private final TBasicFunctionCall terminalCall;
+  private final Range range;
+  private final Type resultType;
+  private List<TVariableDeclaration> loopVars = List.of();
+
+  private IteratorFusion(TBasicFunctionCall terminalCall) {
+    this.terminalCall = terminalCall;
+    this.range = terminalCall.range();
+    this.resultType = terminalCall.returnType();
+  }
+
+  /**
+   * Returns a loop equivalent to the call if it's a terminal operation on a pipeline of iterator
+   * adapters that can be fused, otherwise returns null.
+   */
+  static @Nullable TypedExpression fuse(TBasicFunctionCall call) {
+    var isReduce = isIteratorCall(call, REDUCE);
+    if (!isReduce && !isIteratorCall(call, FOR_EACH)) {
+      return null;
+    }
+    var terminalFunc = inlineableFunc(call, isReduce ? 2 : 1, isReduce ? 2 : 1);
+    if (terminalFunc == null) {
+      return null;
+    }
+
+    // Collect the adapters from the last to the first until reaching the source iterator
+    var stages = new ArrayList<Stage>();
+    var source = unwrap(arg(call, 0));
+    while (source instanceof TBasicFunctionCall stageCall) {
+      var isMap = isIteratorCall(stageCall, MAP);
+      var func = isMap || isIteratorCall(stageCall, FILTER) ? inlineableFunc(stageCall, 1, 1)
+          : null;
+      if (func == null) {
+        break;
+      }
+      stages.addFirst(new Stage(isMap, func));
+      source = unwrap(arg(stageCall, 0));
+    }
+
+    return new IteratorFusion(call).fuse(source, stages, terminalFunc, isReduce);
+  }
+
+  private TypedExpression fuse(TypedExpression source, List<Stage> stages, TFunction terminalFunc,
+      boolean isReduce) {
+    var itemsDecl = new TVariableDeclaration(syntheticId("fusedItems"), cursorCall(source), range);
+    var itemsRef = reference(itemsDecl);
+    @Nullable TypedExpression accumRef = null;
+    if (isReduce) {
+      // The accumulator parameter of the lambda is the loop variable
+      var accumParam = terminalFunc.parameters().getFirst();
+      var accumDecl = new TVariableDeclaration(accumParam.id(), arg(terminalCall, 1), range);
+      loopVars = List.of(accumDecl);
+      accumRef = reference(accumDecl);
+    }
+
+    var firstFunc = stages.isEmpty() ? terminalFunc : stages.getFirst().func();
+    var itemType = firstFunc.parameters().getLast().type();
+    var nextItem = fieldCall(itemsRef, "nextItem", itemType);
+    var body = new TBlock(inlineStages(stages, 0, nextItem, terminalFunc, accumRef), range);
+    var hasNext = fieldCall(itemsRef, "hasNext", BuiltinType.BOOLEAN);
+    var loop = new TLoop(loopVars,
+        new TIfExpression(hasNext, body, accumRef, resultType, range),
+        range);
+    return new TBlock(List.of(itemsDecl, loop), range);
+  }
+
+  /**
+   * Returns the expressions that pass the item through the stages starting at the index and then
+   * recur with the result of the terminal function. If a filter rejects the item, the loop recurs
+   * with the accumulator unchanged.
+   */
+  private List<TypedExpression> inlineStages(List<Stage> stages, int idx, TypedExpression item,
+      TFunction terminalFunc, @Nullable TypedExpression accumRef) {
+    var exprs = new ArrayList<TypedExpression>();
+    if (idx == stages.size()) {
+      var itemParam = terminalFunc.parameters().getLast();
+      exprs.add(new TVariableDeclaration(itemParam.id(), item, range));
+      if (accumRef != null) {
+        exprs.add(recur(List.of(terminalFunc.expression())));
+      } else {
+        exprs.add(terminalFunc.expression());
+        exprs.add(recur(List.of()));
+      }
+      return exprs;
+    }
+
+    var stage = stages.get(idx);
+    var param = stage.func().parameters().getFirst();
+    exprs.add(new TVariableDeclaration(param.id(), item, range));
+    var funcBody = stage.func().expression();
+    if (stage.isMap()) {
+      exprs.addAll(inlineStages(stages, idx + 1, funcBody, terminalFunc, accumRef));
+    } else {
+      var rest = inlineStages(stages, idx + 1, reference(param), terminalFunc, accumRef);
+      var skip = recur(accumRef != null ? List.of(accumRef) : List.of());
+      exprs.add(new TIfExpression(funcBody, new TBlock(rest, range), skip, resultType, range));
+    }
+    return exprs;
+  }
+
+  private TRecur recur(List<TypedExpression> args) {
+    return new TRecur(loopVars, args, resultType, range);
+  }
+
+  private TVarReference reference(TLocalVariable localVar) {
+    return new TVarReference(localVar.name(), new Local(localVar), localVar.variableType(), range);
+  }
+
+  /**
+   * Calls {@code Iterator.cursor} with the source iterator, since the source may only define
+   * {@code next}.
+   */
+  private TBasicFunctionCall cursorCall(TypedExpression source) {
+    var moduleRef = ((Struct) terminalCall.callTarget()).structExpr();
+    var moduleType = TypeUtils.asStructType(moduleRef.type()).orElseThrow();
+    var cursorType = TypeUtils.asFunctionType(requireNonNull(moduleType.fieldType(CURSOR)))
+        .orElseThrow();
+    return new TBasicFunctionCall(TCallTarget.struct(moduleRef),
+        CURSOR,
+        cursorType,
+        new TArgs(new int[]{0}, List.of(source)),
+        cursorType.returnType(),
+        range);
+  }
+
+  /** Calls the function in the field of the struct, like {@code items.nextItem()}. */
+  private TBasicFunctionCall fieldCall(TVarReference struct, String name, Type returnType) {
+    var id = syntheticId(name);
+    return new TBasicFunctionCall(TCallTarget.struct(struct),
+        id.name(),
+        new FunctionType(List.of(), List.of(), returnType),
+        new TArgs(new int[0], List.of()),
+        returnType,
+        range);
+  }
+
+  private Id syntheticId(String name) {
+    // The range is empty, so it can't be the same as the id of a variable in the source
+    return new Id(name, new Range.Single(range.sourcePath(), range.start(), 0));
+  }
+
+  private static boolean isIteratorCall(TBasicFunctionCall call, String name) {
+    return call.callTarget() instanceof Struct(TVarReference(_, Module(var moduleName), _, _))
+        && moduleName.equals(ITERATOR_MODULE) && call.name().toString().equals(name);
+  }
+
+  /**
+   * Returns the lambda passed as the argument at the index if it can be inlined, otherwise returns
+   * null.
+   */
+  private static @Nullable TFunction inlineableFunc(TBasicFunctionCall call, int argIdx,
+      int paramCount) {
+    if (!isInOrder(call.typedArgs()) || call.arguments().size() <= argIdx) {
+      return null;
+    }
+    // A lambda that recurs to itself has to stay a function
+    return arg(call, argIdx) instanceof TFunction func && func.parameters().size() == paramCount
+        && !recursInTailPosition(func.expression()) ? func : null;
+  }
+
+  /**
+   * Returns true if the arguments are passed in the order of the parameters, so evaluating them
+   * in another order can't change the order of their side effects.
+   */
+  private static boolean isInOrder(TArgs args) {
+    var argIndexes = args.argIndexes();
+    for (int i = 0; i < argIndexes.length; i++) {
+      if (argIndexes[i] != i) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Returns true if the expression recurs to the enclosing function. A recur that isn't nested in
+   * a loop must be in tail position, since it jumps back to the start of the function.
+   */
+  private static boolean recursInTailPosition(TypedExpression expr) {
+    return switch (expr) {
+      case TRecur _ -> true;
+      case TBlock block -> !block.expressions().isEmpty()
+          && recursInTailPosition(block.returnExpression());
+      case TIfExpression ifExpr -> recursInTailPosition(ifExpr.trueExpression())
+          || (ifExpr.falseExpression() != null && recursInTailPosition(ifExpr.falseExpression()));
+      case TMatch match -> match.branches().stream()
+          .map(TBranch::expr)
+          .anyMatch(IteratorFusion::recursInTailPosition);
+      default -> false;
+    };
+  }
+
+  private static TypedExpression arg(TBasicFunctionCall call, int paramIdx) {
+    var typedArgs = call.typedArgs();
+    return typedArgs.args().get(typedArgs.argIndexes()[paramIdx]);
+  }
+
+  private static TypedExpression unwrap(TypedExpression expr) {
+    return expr instanceof TApplyOperator applyOperator ? unwrap(applyOperator.functionCall())
+        : expr;
+  }
+}
@@ -0,0 +1,146 @@
+package com.pentlander.sasquach.backend;
+
+import com.pentlander.sasquach.name.QualifiedModuleName;
+import com.pentlander.sasquach.name.UnqualifiedName;
+import com.pentlander.sasquach.type.BuiltinType;
+import com.pentlander.sasquach.type.FunctionType;
+import com.pentlander.sasquach.type.TypeParameter;
+import com.pentlander.sasquach.type.UniversalType;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.jspecify.annotations.Nullable;
+
+/**
+ * Primitive specializations of generic module functions.
+ * <p>Type parameters are erased to {@link Object}, so every primitive passed to or returned from a
+ * generic function has to be boxed. When a call site instantiates type parameters of a module
+ * function with primitive types, it requests a copy of the function where those type parameters
+ * are replaced by the primitive types and calls the copy instead. Generating a specialization may
+ * request more specializations, so modules are regenerated until no new ones are requested.</p>
+ */
+final class Specializations {
+  private final Set<QualifiedModuleName> moduleNames;
+  private final Map<QualifiedModuleName, Map<String, Specialization>> specializations =
+      new LinkedHashMap<>();
+  private final Set<QualifiedModuleName> changedModules = new LinkedHashSet<>();
+
+  /**
+   * @param moduleNames modules that are generated in this compilation. Only functions in these
+   *                    modules can be specialized.
+   */
+  Specializations(Collection<QualifiedModuleName> moduleNames) {
+    this.moduleNames = Set.copyOf(moduleNames);
+  }
+
+  /**
+   * A copy of the function named {@code funcName} with the type arguments substituted for the type
+   * parameters.
+   */
+  record Specialization(String name, UnqualifiedName funcName,
+                        Map<UniversalType, BuiltinType> typeArgs) {}
+
+  /**
+   * Requests a specialization of a function and returns the name of the method to call, or null if
+   * the function can't be specialized.
+   *
+   * @param typeArgs the primitive types the call site instantiates the type parameters with. Type
+   *                 parameters that are missing are left as is.
+   */
+  @Nullable String request(QualifiedModuleName moduleName, UnqualifiedName funcName,
+      FunctionType funcType, Map<UniversalType, BuiltinType> typeArgs) {
+    if (typeArgs.isEmpty() || !moduleNames.contains(moduleName)) {
+      return null;
+    }
+
+    var name = specializedName(funcName, funcType.typeParameters(), typeArgs);
+    var moduleSpecializations = specializations.computeIfAbsent(moduleName,
+        _ -> new LinkedHashMap<>());
+    if (!moduleSpecializations.containsKey(name)) {
+      moduleSpecializations.put(name, new Specialization(name, funcName, Map.copyOf(typeArgs)));
+      changedModules.add(moduleName);
+    }
+    return name;
+  }
+
+  /**
+   * Adds specializations that were requested in a previous compilation by modules that aren't
+   * generated in this one, so they're still generated along with the module. Names of functions
+   * that no longer exist or whose type parameters changed are ignored.
+   *
+   * @param names the names of the specialized methods, e.g. 'reduce$LI'
+   * @param funcTypes the types of the functions in the module
+   */
+  void addPrevious(QualifiedModuleName moduleName, Collection<String> names,
+      Map<UnqualifiedName, FunctionType> funcTypes) {
+    var moduleSpecializations = specializations.computeIfAbsent(moduleName,
+        _ -> new LinkedHashMap<>());
+    for (var name : names) {
+      int separatorIdx = name.indexOf('$');
+      var funcName = new UnqualifiedName(name.substring(0, separatorIdx));
+      var funcType = funcTypes.get(funcName);
+      if (funcType == null) {
+        continue;
+      }
+
+      var typeParameters = funcType.typeParameters();
+      var descriptors = name.substring(separatorIdx + 1);
+      if (descriptors.length() != typeParameters.size()) {
+        continue;
+      }
+      var typeArgs = new LinkedHashMap<UniversalType, BuiltinType>();
+      for (int i = 0; i < descriptors.length(); i++) {
+        var typeArg = primitiveType(descriptors.charAt(i));
+        if (typeArg != null) {
+          typeArgs.put(typeParameters.get(i).toUniversal(), typeArg);
+        }
+      }
+      if (!typeArgs.isEmpty() && specializedName(funcName, typeParameters, typeArgs).equals(name)) {
+        moduleSpecializations.put(name, new Specialization(name, funcName, Map.copyOf(typeArgs)));
+      }
+    }
+  }
+
+  private static @Nullable BuiltinType primitiveType(char descriptor) {
+    for (var type : BuiltinType.values()) {
+      var typeDescriptor = type.classDesc().descriptorString();
+      if (typeDescriptor.length() == 1 && typeDescriptor.charAt(0) == descriptor) {
+        return type;
+      }
+    }
+    return null;
+  }
+
+  /** Returns the specializations requested so far for functions in the module. */
+  List<Specialization> forModule(QualifiedModuleName moduleName) {
+    return List.copyOf(specializations.getOrDefault(moduleName, Map.of()).values());
+  }
+
+  /**
+   * Returns the modules that had specializations requested since the last time this method was
+   * called. Those modules need to be generated again to include the new specializations.
+   */
+  Set<QualifiedModuleName> takeChangedModules() {
+    var modules = Set.copyOf(changedModules);
+    changedModules.clear();
+    return modules;
+  }
+
+  /**
+   * The name of the specialization has a suffix with the descriptor of each type argument, or 'L'
+   * for type parameters that remain erased, e.g. 'reduce$LI'.
+   */
+  private static String specializedName(UnqualifiedName funcName,
+      List<TypeParameter> typeParameters, Map<UniversalType, BuiltinType> typeArgs) {
+    var suffix = new ArrayList<String>(typeParameters.size());
+    for (var typeParameter : typeParameters) {
+      var typeArg = typeArgs.get(typeParameter.toUniversal());
+      suffix.add(typeArg != null ? typeArg.classDesc().descriptorString() : "L");
+    }
+    return funcName + "$" + String.join("", suffix);
+  }
+}
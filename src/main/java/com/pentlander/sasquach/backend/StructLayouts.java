@@ -0,0 +1,52 @@
+package com.pentlander.sasquach.backend;
+
+import com.pentlander.sasquach.name.UnqualifiedName;
+import com.pentlander.sasquach.tast.expression.TModuleStruct.TypeDef;
+import com.pentlander.sasquach.type.StructType;
+import com.pentlander.sasquach.type.SumType;
+import java.lang.constant.ClassDesc;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.jspecify.annotations.Nullable;
+
+/**
+ * Field layouts of the struct classes generated in the current compilation.
+ * <p>The field descriptors are taken from the declared struct types, so fields with the type of a
+ * type parameter are {@link Object} even if the type at the point of access is more specific.</p>
+ */
+final class StructLayouts {
+  private final Map<ClassDesc, Map<UnqualifiedName, ClassDesc>> fieldDescs = new HashMap<>();
+
+  void add(StructType structType) {
+    var fields = new HashMap<UnqualifiedName, ClassDesc>();
+    structType.memberTypes().forEach((name, type) -> fields.put(name, type.classDesc()));
+    fieldDescs.put(structType.internalClassDesc(), fields);
+  }
+
+  void addTypeDefs(List<TypeDef> typeDefs) {
+    for (var typeDef : typeDefs) {
+      switch (typeDef.type()) {
+        case SumType sumType -> sumType.types().forEach(variantType -> {
+          if (variantType instanceof StructType structType) {
+            add(structType);
+          }
+        });
+        case StructType structType -> add(structType);
+        default -> {}
+      }
+    }
+  }
+
+  /**
+   * Returns the descriptor of the field if values of the struct type are always instances of the
+   * generated class, otherwise null.
+   */
+  @Nullable ClassDesc fieldDesc(StructType structType, UnqualifiedName fieldName) {
+    if (structType.isRow() || structType.isSynthetic()) {
+      return null;
+    }
+    var fields = fieldDescs.get(structType.internalClassDesc());
+    return fields != null ? fields.get(fieldName) : null;
+  }
+}
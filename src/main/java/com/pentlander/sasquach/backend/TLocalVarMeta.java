@@ -6,20 +6,36 @@ import com.pentlander.sasquach.ast.id.Id;
 import com.pentlander.sasquach.backend.ExpressionGenerator.ExprContext;
 import com.pentlander.sasquach.tast.expression.TLocalVariable;
 import com.pentlander.sasquach.type.BuiltinType;
+import com.pentlander.sasquach.type.Type;
 import java.util.ArrayDeque;
 import java.util.Collection;
 import java.util.Deque;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.function.UnaryOperator;
 
 class TLocalVarMeta {
   private final Deque<TVarMeta> varMetas = new ArrayDeque<>();
   private final Map<Id, TVarMeta> varToMeta = new HashMap<>();
+  private final UnaryOperator<Type> typeResolver;
   private int count = 0;
 
+  private TLocalVarMeta(UnaryOperator<Type> typeResolver) {
+    this.typeResolver = typeResolver;
+  }
+
   public static TLocalVarMeta of(List<? extends TLocalVariable> localVars, ExprContext context) {
-    var localVarMeta = new TLocalVarMeta();
+    return of(localVars, context, UnaryOperator.identity());
+  }
+
+  /**
+   * @param typeResolver resolves the type of a variable to the type it has in the generated code,
+   *                     which determines how many slots it takes up.
+   */
+  public static TLocalVarMeta of(List<? extends TLocalVariable> localVars, ExprContext context,
+      UnaryOperator<Type> typeResolver) {
+    var localVarMeta = new TLocalVarMeta(typeResolver);
     localVarMeta.count = switch (context) {
       case INIT, ANON_FUNC -> 0;
       case NAMED_FUNC -> 1;
@@ -34,7 +50,7 @@ class TLocalVarMeta {
 
   TVarMeta push(TLocalVariable localVar) {
     var meta = new TVarMeta(localVar, count);
-    var slotInc = switch (localVar.type()) {
+    var slotInc = switch (typeResolver.apply(localVar.variableType())) {
       case BuiltinType builtinType -> switch (builtinType) {
         case LONG, DOUBLE -> 2;
         default -> 1;
@@ -48,7 +64,13 @@ class TLocalVarMeta {
   }
 
   int pushHidden() {
-    return count++;
+    return pushHidden(1);
+  }
+
+  int pushHidden(int slotSize) {
+    var idx = count;
+    count += slotSize;
+    return idx;
   }
 
   TVarMeta get(TLocalVariable localVar) {
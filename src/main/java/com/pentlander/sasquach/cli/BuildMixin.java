@@ -6,18 +6,34 @@ import java.nio.file.Path;
 import java.util.List;
 import java.util.Set;
 import org.jspecify.annotations.NullUnmarked;
+import picocli.CommandLine.Model.CommandSpec;
 import picocli.CommandLine.Option;
+import picocli.CommandLine.ParameterException;
 import picocli.CommandLine.Parameters;
+import picocli.CommandLine.Spec;
 
 @NullUnmarked
 public class BuildMixin {
+  @Spec(Spec.Target.MIXEE)
+  CommandSpec spec;
   @Parameters(arity = "1..*", description = "source file paths")
   List<Path> sourcePaths;
   @Option(names = { "-o", "--output-path"}, defaultValue = "out")
   Path outputPath;
+  int jobs = Runtime.getRuntime().availableProcessors();
+
+  @Option(names = { "-j", "--jobs"}, description = "number of files to parse in parallel, "
+      + "defaults to the number of processors")
+  void setJobs(int jobs) {
+    if (jobs < 1) {
+      throw new ParameterException(spec.commandLine(),
+          "Invalid value for option '--jobs': must be at least 1 but was " + jobs);
+    }
+    this.jobs = jobs;
+  }
 
   Result compile() {
-    var compiler = new Compiler(Set.of());
+    var compiler = new Compiler(Set.of(), jobs);
     return compiler.compile(sourcePaths, outputPath);
   }
 }
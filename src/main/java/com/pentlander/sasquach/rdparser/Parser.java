@@ -29,18 +29,17 @@ public class Parser {
 
   private final List<Token> tokens;
   private final Set<Integer> newlineTokenIndexes;
+  /// True while parsing speculatively after a [#checkpoint()]
   private boolean shouldBacktrack;
-  private int checkpointCurrent = 0;
-  private int checkpointEventsSize = 0;
+  /// True if the speculative parse failed and must be restored to the checkpoint
+  private boolean failed;
+  /// Indexes of open events that were given a forward parent during a speculative parse, so the
+  /// links on events from before the checkpoint can be undone when restoring
+  private final List<Integer> speculativeLinks = new ArrayList<>();
 
-  Parser(List<Token> tokens, Set<Integer> newlineTokenIndexes, boolean shouldBacktrack) {
+  Parser(List<Token> tokens, Set<Integer> newlineTokenIndexes) {
     this.tokens = tokens;
     this.newlineTokenIndexes = newlineTokenIndexes;
-    this.shouldBacktrack = shouldBacktrack;
-  }
-
-  Parser(List<Token> tokens, Set<Integer> newlineTokenIndexes) {
-    this(tokens, newlineTokenIndexes, false);
   }
 
   public RangedErrorList errors() {
@@ -53,14 +52,30 @@ public class Parser {
     return mark;
   }
 
+  /// Opens a tree that encloses the tree of the mark. Instead of inserting an open event before
+  /// the mark's event, which would shift every event after it, the new open event is appended and
+  /// linked to as the forward parent of the mark's event. If the mark's tree already has forward
+  /// parents, the new tree encloses the outermost one.
   MarkOpened openBefore(Mark mark) {
-    var openMark = new MarkOpened(mark.idx(), mark.tokenIdx());
-    events.add(mark.idx(), Event.open(TreeKind.ERROR_TREE));
+    int childIdx = mark.idx();
+    var child = (Open) events.get(childIdx);
+    while (child.forwardParent() != Open.NO_PARENT) {
+      childIdx = child.forwardParent();
+      child = (Open) events.get(childIdx);
+    }
+
+    var openMark = new MarkOpened(events.size(), mark.tokenIdx());
+    events.add(Event.open(TreeKind.ERROR_TREE));
+    events.set(childIdx, new Open(child.treeKind(), openMark.idx()));
+    if (shouldBacktrack) {
+      speculativeLinks.add(childIdx);
+    }
     return openMark;
   }
 
   MarkClosed close(MarkOpened mark, TreeKind treeKind) {
-    events.set(mark.idx(), Event.open(treeKind));
+    var open = (Open) events.get(mark.idx());
+    events.set(mark.idx(), new Open(treeKind, open.forwardParent()));
     events.add(EventKind.CLOSE);
     return new MarkClosed(mark.idx(), mark.tokenIdx());
   }
@@ -70,7 +85,7 @@ public class Parser {
   }
 
   boolean isAtEnd() {
-    return current == tokens.size();
+    return failed || current == tokens.size();
   }
 
   boolean shouldBacktrack() {
@@ -78,6 +93,10 @@ public class Parser {
   }
 
   void advance() {
+    // The parser acts as if it's at the end of the tokens after a speculative parse fails
+    if (failed) {
+      return;
+    }
     Preconditions.checkState(!isAtEnd(), "advanced past EOF");
     fuel = DEFAULT_FUEL;
     events.add(EventKind.ADVANCE);
@@ -97,7 +116,7 @@ public class Parser {
     fuel--;
 
     int idx = current + lookahead;
-    return idx < tokens.size() ? tokens.get(idx).type() : TokenType.EOF;
+    return !failed && idx < tokens.size() ? tokens.get(idx).type() : TokenType.EOF;
   }
 
   boolean at(TokenType tokenType) {
@@ -119,17 +138,21 @@ public class Parser {
       return;
     }
 
-    var tokenFound = current < tokens.size() ? tokens.get(current) : null;
-    var msg = "expected '%s', but found: %s".formatted(tokenType, tokenFound);
     if (shouldBacktrack) {
-      throw new BacktrackException(msg);
+      fail();
     } else {
+      var tokenFound = current < tokens.size() ? tokens.get(current) : null;
+      System.err.println("expected '%s', but found: %s".formatted(tokenType, tokenFound));
       addError(tokenType.toString());
-      System.err.println(msg);
     }
   }
 
   private void addError(String expected) {
+    // Errors in a speculative parse mean that it failed, they aren't reported
+    if (shouldBacktrack) {
+      fail();
+      return;
+    }
     var tokenFound = peekToken();
     var msg = "expected '%s', but found: %s".formatted(expected, tokenFound);
     errors.add(new ParseError(msg, tokenFound.range()));
@@ -142,7 +165,9 @@ public class Parser {
   }
 
   MarkClosed advanceWithError(MarkOpened mark, String error) {
-    System.err.println("error: " + error);
+    if (!shouldBacktrack) {
+      System.err.println("error: " + error);
+    }
     addError(error);
     advance();
     return close(mark, TreeKind.ERROR_TREE);
@@ -153,37 +178,86 @@ public class Parser {
     advanceWithError(mark, error);
   }
 
-  void checkpoint() {
+  /// Starts a speculative parse. Errors while speculating mark the parse as [#failed()] instead of
+  /// being reported, and the parser acts as if it's at the end of the tokens so the parse unwinds
+  /// quickly. The caller must either [#restore] or [#commit] the checkpoint. Checkpoints may be
+  /// nested.
+  Checkpoint checkpoint() {
+    var checkpoint = new Checkpoint(current,
+        events.size(),
+        speculativeLinks.size(),
+        fuel,
+        shouldBacktrack);
     shouldBacktrack = true;
-    checkpointCurrent = current;
-    checkpointEventsSize = events.size();
+    return checkpoint;
   }
 
-  void clearCheckpoint() {
-    shouldBacktrack = false;
-    checkpointCurrent = 0;
-    checkpointEventsSize = 0;
+  boolean failed() {
+    return failed;
   }
 
-  void restore() {
-    current = checkpointCurrent;
-    events.subList(checkpointEventsSize, events.size()).clear();
-    clearCheckpoint();
+  /// Fails the current speculative parse.
+  void fail() {
+    Preconditions.checkState(shouldBacktrack, "can only fail a speculative parse");
+    failed = true;
+  }
+
+  /// Keeps the result of the speculative parse started by the checkpoint.
+  void commit(Checkpoint checkpoint) {
+    Preconditions.checkState(!failed, "can't commit a failed parse");
+    shouldBacktrack = checkpoint.shouldBacktrack();
+    if (!shouldBacktrack) {
+      speculativeLinks.clear();
+    }
+  }
+
+  /// Discards the tokens consumed and the events added since the checkpoint.
+  void restore(Checkpoint checkpoint) {
+    current = checkpoint.current();
+    fuel = checkpoint.fuel();
+    for (int i = speculativeLinks.size() - 1; i >= checkpoint.linksSize(); i--) {
+      int idx = speculativeLinks.get(i);
+      if (idx < checkpoint.eventsSize()) {
+        var open = (Open) events.get(idx);
+        events.set(idx, Event.open(open.treeKind()));
+      }
+    }
+    speculativeLinks.subList(checkpoint.linksSize(), speculativeLinks.size()).clear();
+    events.subList(checkpoint.eventsSize(), events.size()).clear();
+    shouldBacktrack = checkpoint.shouldBacktrack();
+    failed = false;
   }
 
   Tree buildTree() {
     var tokensIter = tokens.iterator();
     var stack = new ArrayList<Tree>();
+    var forwardParents = new ArrayList<TreeKind>();
 
     Preconditions.checkState(EventKind.CLOSE.equals(events.removeLast()), "must end in close event");
-    for (var event : events) {
-      switch (event) {
-        case Open(var treeKind) -> stack.add(new Tree(treeKind, new ArrayList<>()));
+    for (int i = 0; i < events.size(); i++) {
+      switch (events.get(i)) {
+        case Open(var treeKind, var forwardParent) -> {
+          // The forward parents enclose this tree, so they're opened first, starting with the
+          // outermost. They're replaced with tombstones so they aren't opened again.
+          forwardParents.add(treeKind);
+          int parentIdx = forwardParent;
+          while (parentIdx != Open.NO_PARENT) {
+            var parent = (Open) events.get(parentIdx);
+            forwardParents.add(parent.treeKind());
+            events.set(parentIdx, EventKind.TOMBSTONE);
+            parentIdx = parent.forwardParent();
+          }
+          for (var kind : forwardParents.reversed()) {
+            stack.add(new Tree(kind, new ArrayList<>()));
+          }
+          forwardParents.clear();
+        }
         case EventKind.ADVANCE -> stack.getLast().children().add(new Child.ChildToken(tokensIter.next()));
         case EventKind.CLOSE -> {
           var tree = stack.removeLast();
           stack.getLast().children().add(new ChildTree(tree, tree.firstToken(), tree.lastToken()));
         }
+        case EventKind.TOMBSTONE -> {}
       }
     }
 
@@ -201,23 +275,26 @@ public class Parser {
   record MarkOpened(int idx, int tokenIdx) implements Mark {}
   record MarkClosed(int idx, int tokenIdx) implements Mark {}
 
+  /// State of the parser to return to if a speculative parse fails
+  record Checkpoint(int current, int eventsSize, int linksSize, int fuel,
+                    boolean shouldBacktrack) {}
+
   ///  Indicates when a new sub [Tree] should open/close
   sealed interface Event {
-    record Open(TreeKind treeKind) implements Event {}
+    /// Opens a tree. The forward parent is the index of the open event of a tree that encloses
+    /// this one, but was opened after it by [Parser#openBefore].
+    record Open(TreeKind treeKind, int forwardParent) implements Event {
+      static final int NO_PARENT = -1;
+    }
 
     enum EventKind implements Event {
-      CLOSE, ADVANCE
+      CLOSE, ADVANCE,
+      /// Forward parent that was already opened
+      TOMBSTONE
     }
 
     static Event.Open open(TreeKind treeKind) {
-      return new Open(treeKind);
-    }
-  }
-
-
-  static final class BacktrackException extends RuntimeException {
-    public BacktrackException(String message) {
-      super(message);
+      return new Open(treeKind, Open.NO_PARENT);
     }
   }
 
@@ -3,11 +3,9 @@ package com.pentlander.sasquach.rdparser;
 import static com.pentlander.sasquach.rdparser.Scanner.TokenType.*;
 
 import com.pentlander.sasquach.PackageName;
-import com.pentlander.sasquach.Preconditions;
 import com.pentlander.sasquach.RangedErrorList;
 import com.pentlander.sasquach.Source;
 import com.pentlander.sasquach.ast.CompilationUnit;
-import com.pentlander.sasquach.rdparser.Parser.BacktrackException;
 import com.pentlander.sasquach.rdparser.Parser.Mark;
 import com.pentlander.sasquach.rdparser.Parser.MarkClosed;
 import com.pentlander.sasquach.rdparser.Parser.MarkOpened;
@@ -531,10 +529,12 @@ public class SasquachParser {
           var mark = p.open();
           boolean parsedNamedStruct = tryParse(() -> {
             namedType();
+            // '{' must be on the same line as struct name
             if (p.startOfLine()) {
-              throw new BacktrackException("'{' must be on the same line as struct name");
+              p.fail();
+            } else {
+              struct();
             }
-            struct();
           });
 
           if (parsedNamedStruct) {
@@ -736,7 +736,7 @@ public class SasquachParser {
       default -> {
         if (!p.isAtEnd()) {
           if (p.shouldBacktrack()) {
-            throw new BacktrackException("Unexpected token '%s'".formatted(p.peekToken()));
+            p.fail();
           } else {
             p.advanceWithError("unexpected token '%s'".formatted(p.peekToken()));
           }
@@ -776,7 +776,7 @@ public class SasquachParser {
 
   private void throwIllegalStateOrBacktrack(String msg) {
     if (p.shouldBacktrack()) {
-      throw new BacktrackException(msg);
+      p.fail();
     } else {
       throw new IllegalStateException(msg);
     }
@@ -784,31 +784,31 @@ public class SasquachParser {
 
   // Check that the method used to check if the starting token is valid matches the actual implementation
   private void checkStart(Supplier<Boolean> startPred, String checkName) {
-    Preconditions.checkState(startPred.get(), "Does not match " + checkName + " start");
+    if (!startPred.get()) {
+      throwIllegalStateOrBacktrack("Does not match " + checkName + " start");
+    }
   }
 
   private boolean tryParse(Runnable parser) {
-    p.checkpoint();
-    try {
-      parser.run();
-      p.clearCheckpoint();
-      return true;
-    } catch (BacktrackException e) {
-      p.restore();
+    var checkpoint = p.checkpoint();
+    parser.run();
+    if (p.failed()) {
+      p.restore(checkpoint);
       return false;
     }
+    p.commit(checkpoint);
+    return true;
   }
 
   @Nullable
   private MarkClosed tryParse(Supplier<MarkClosed> parser) {
-    p.checkpoint();
-    try {
-      var mark = parser.get();
-      p.clearCheckpoint();
-      return mark;
-    } catch (BacktrackException e) {
-      p.restore();
+    var checkpoint = p.checkpoint();
+    var mark = parser.get();
+    if (p.failed()) {
+      p.restore(checkpoint);
       return null;
     }
+    p.commit(checkpoint);
+    return mark;
   }
 }
@@ -3,7 +3,6 @@ package com.pentlander.sasquach.rdparser;
 import static com.pentlander.sasquach.rdparser.Scanner.TokenType.*;
 import static java.lang.Character.isJavaIdentifierPart;
 import static java.lang.Character.isJavaIdentifierStart;
-import static java.util.Map.entry;
 
 import com.pentlander.sasquach.Position;
 import com.pentlander.sasquach.Range;
@@ -11,28 +10,34 @@ import com.pentlander.sasquach.Range.Multi;
 import com.pentlander.sasquach.Range.Single;
 import com.pentlander.sasquach.Source;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Map;
 import java.util.Set;
 import org.jspecify.annotations.Nullable;
 
 public class Scanner {
-  private static final Map<String, TokenType> KEYWORDS = Map.ofEntries(
-      entry("if", IF),
-      entry("else", ELSE),
-      entry("match", MATCH),
-      entry("let", LET),
-      entry("print", PRINT),
-      entry("foreign", FOREIGN),
-      entry("use", USE),
-      entry("type", TYPE),
-      entry("typealias", TYPEALIAS),
-      entry("loop", LOOP),
-      entry("true", TRUE),
-      entry("false", FALSE)
+  private static final List<Keyword> KEYWORDS = List.of(
+      new Keyword("if", IF),
+      new Keyword("else", ELSE),
+      new Keyword("match", MATCH),
+      new Keyword("let", LET),
+      new Keyword("print", PRINT),
+      new Keyword("foreign", FOREIGN),
+      new Keyword("use", USE),
+      new Keyword("type", TYPE),
+      new Keyword("typealias", TYPEALIAS),
+      new Keyword("loop", LOOP),
+      new Keyword("true", TRUE),
+      new Keyword("false", FALSE)
   );
+  private static final int MAX_KEYWORD_LENGTH = KEYWORDS.stream()
+      .mapToInt(keyword -> keyword.chars().length)
+      .max()
+      .orElseThrow();
 
   private final Source source;
+  /** Text of the source, tokens refer to ranges of it by offset. */
+  private final char[] chars;
   private final List<Token> tokens = new ArrayList<>();
   private final List<Integer> newlineTokenIndexes = new ArrayList<>();
   private int start = 0;
@@ -44,14 +49,11 @@ public class Scanner {
 
   public Scanner(Source source) {
     this.source = source;
-  }
-
-  private String sourceStr() {
-    return source.sourceString();
+    this.chars = source.contents().toCharArray();
   }
 
   private boolean isAtEnd() {
-    return current >= sourceStr().length();
+    return current >= chars.length;
   }
 
   private boolean isDigit(char c) {
@@ -59,21 +61,16 @@ public class Scanner {
   }
 
   private char advance() {
-    return sourceStr().charAt(current++);
+    return chars[current++];
   }
 
   private void addToken(TokenType type) {
-    addToken(type, null);
-  }
-
-  private void addToken(TokenType type, @Nullable String literal) {
-    String text = currentSubstring();
-    tokens.add(new Token(type, text, literal, currentRange()));
+    tokens.add(new Token(type, chars, start, current, currentRange()));
   }
 
   private boolean match(char expected) {
     if (isAtEnd()) return false;
-    if (sourceStr().charAt(current) != expected) return false;
+    if (chars[current] != expected) return false;
 
     current++;
     return true;
@@ -84,12 +81,12 @@ public class Scanner {
   }
 
   private char peek() {
-    return !isAtEnd() ? sourceStr().charAt(current) : '\0';
+    return !isAtEnd() ? chars[current] : '\0';
   }
 
   private char peekNext() {
-    if (current + 1 >= sourceStr().length()) return '\0';
-    return sourceStr().charAt(current + 1);
+    if (current + 1 >= chars.length) return '\0';
+    return chars[current + 1];
   }
 
   private void addString() {
@@ -104,10 +101,7 @@ public class Scanner {
 
     // The closing "
     advance();
-
-    // Trim the surrounding quotes.
-    String value = sourceStr().substring(start + 1, current - 1);
-    addToken(STRING, value);
+    addToken(STRING);
   }
 
   private void addNumber() {
@@ -119,16 +113,12 @@ public class Scanner {
       advance();
 
       while (isDigit(peek())) advance();
-      addToken(DOUBLE_LIKE, currentSubstring());
+      addToken(DOUBLE_LIKE);
     } else {
-      addToken(INT_LIKE, currentSubstring());
+      addToken(INT_LIKE);
     }
   }
 
-  private String currentSubstring() {
-    return sourceStr().substring(start, current);
-  }
-
   private Range currentRange() {
     var startLineCol = start - startLineIdx;
     var startPos = new Position(startLine + 1, startLineCol);
@@ -143,10 +133,24 @@ public class Scanner {
 
   private void addIdentifier() {
     while (isJavaIdentifierPart(peek()) && !isAtEnd()) advance();
+    addToken(keywordType());
+  }
 
-    var text = currentSubstring();
-    var tokenType = KEYWORDS.getOrDefault(text, NAME);
-    addToken(tokenType);
+  /** Returns the type of the keyword in the current range, or NAME if it's not a keyword. */
+  private TokenType keywordType() {
+    var length = current - start;
+    // Every keyword starts with a lowercase letter, so most names can be ruled out without
+    // comparing them to each keyword
+    if (length > MAX_KEYWORD_LENGTH || !Character.isLowerCase(chars[start])) {
+      return NAME;
+    }
+    for (var keyword : KEYWORDS) {
+      var keywordChars = keyword.chars();
+      if (Arrays.equals(chars, start, current, keywordChars, 0, keywordChars.length)) {
+        return keyword.type();
+      }
+    }
+    return NAME;
   }
 
   private void scanToken() {
@@ -220,25 +224,63 @@ public class Scanner {
       scanToken();
     }
 
-    tokens.add(new Token(EOF, "", null, currentRange()));
+    tokens.add(new Token(EOF, chars, current, current, currentRange()));
 
     return new Result(tokens, Set.copyOf(newlineTokenIndexes));
   }
 
   record Result(List<Token> tokens,  Set<Integer> newlineIndexes) {}
 
-  public record Token(TokenType type, String lexeme, @Nullable String literal, Range range) {
+  private record Keyword(char[] chars, TokenType type) {
+    Keyword(String text, TokenType type) {
+      this(text.toCharArray(), type);
+    }
+  }
+
+  /**
+   * A token refers to its text by its offsets in the source, so the text of a token is only
+   * copied into a string if it's needed, which is usually only for names and literals.
+   */
+  public record Token(TokenType type, char[] source, int start, int end, Range range) {
     public boolean hasType(TokenType tokenType) {
       return tokenType.equals(type);
     }
 
+    public String lexeme() {
+      return new String(source, start, end - start);
+    }
+
+    /** Returns the value of a literal token, or null if it's not a literal. */
+    public @Nullable String literal() {
+      return switch (type) {
+        // Trim the surrounding quotes
+        case STRING -> new String(source, start + 1, end - start - 2);
+        case INT_LIKE, DOUBLE_LIKE -> lexeme();
+        default -> null;
+      };
+    }
+
     public Range.Single singleRange() {
       return (Range.Single) range;
     }
 
+    // The source array is shared by every token, so tokens are compared by their text rather than
+    // by the identity of the array
+    @Override
+    public boolean equals(Object o) {
+      return o instanceof Token token && type == token.type && range.equals(token.range)
+          && Arrays.equals(source, start, end, token.source, token.start, token.end);
+    }
+
+    @Override
+    public int hashCode() {
+      return 31 * type.hashCode() + range.hashCode();
+    }
+
     @Override
     public String toString() {
-      var str = literal != null ? type + "[" + literal + "]" : "'" + lexeme + "'";
+      var literal = literal();
+      var str = literal != null ? type + "[" + literal + "]" : "'" + lexeme() + "'";
       return str + " @ " + range;
     }
   }
@@ -0,0 +1,77 @@
+package com.pentlander.sasquach.runtime;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.Objects;
+
+/**
+ * Reference that can be read and updated atomically from multiple threads without locking.
+ * <p>Unlike {@link Ref}, the value is read and written with volatile semantics, and updates that
+ * depend on the current value use a compare-and-set loop. The function argument of
+ * {@link #swap} is typed as a type parameter so a Sasquach function value can be passed in.</p>
+ */
+public final class AtomicRef<T> {
+  private static final VarHandle VALUE;
+
+  static {
+    try {
+      VALUE = MethodHandles.lookup().findVarHandle(AtomicRef.class, "value", Object.class);
+    } catch (ReflectiveOperationException e) {
+      throw new ExceptionInInitializerError(e);
+    }
+  }
+
+  private volatile T value;
+
+  public AtomicRef(T value) {
+    this.value = value;
+  }
+
+  public T get() {
+    return value;
+  }
+
+  public void set(T value) {
+    this.value = value;
+  }
+
+  @SuppressWarnings("unchecked")
+  public T getAndSet(T value) {
+    return (T) VALUE.getAndSet(this, value);
+  }
+
+  /**
+   * Sets the value to the new value if the current value is equal to the expected value and returns
+   * whether it was set. Values are compared with {@code equals} rather than by identity, since
+   * primitives are boxed into a new object every time they're stored.
+   */
+  public boolean compareAndSet(T expected, T newValue) {
+    while (true) {
+      var current = value;
+      if (!Objects.equals(current, expected)) {
+        return false;
+      }
+      // The value may have been replaced by an equal value since it was read, so retry
+      if (VALUE.compareAndSet(this, current, newValue)) {
+        return true;
+      }
+    }
+  }
+
+  /**
+   * Sets the value to the result of calling the function with the current value and returns the
+   * new value. If another thread changes the value while the function runs, the function is called
+   * again with the new value, so it must not have side effects.
+   */
+  @SuppressWarnings("unchecked")
+  public <F> T swap(F fn) {
+    var func = Funcs.bind1(fn);
+    while (true) {
+      var current = value;
+      var newValue = (T) func.apply(current);
+      if (VALUE.compareAndSet(this, current, newValue)) {
+        return newValue;
+      }
+    }
+  }
+}
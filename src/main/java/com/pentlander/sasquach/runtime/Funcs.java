@@ -0,0 +1,75 @@
+package com.pentlander.sasquach.runtime;
+
+import com.pentlander.sasquach.runtime.bootstrap.Closure;
+import com.pentlander.sasquach.runtime.bootstrap.Func;
+import com.pentlander.sasquach.runtime.bootstrap.Func.NamedFunc;
+import java.lang.invoke.MethodHandle;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Calls Sasquach function values from Java.
+ * <p>A function is bound to a handle that calls it before it's called, so calling it from Java
+ * doesn't go through a call site shared with every other function passed to Java. Callers that
+ * call the same function many times, like the parallel list operations, bind it once and reuse
+ * the bound function.</p>
+ * <p>A closure is bound to the invoke method of its class. A named function gets a call site of
+ * its own, which is linked the same way as a call to a function value in Sasquach code. The call
+ * site is kept by the function, so binding the same function again doesn't bootstrap another.</p>
+ */
+public final class Funcs {
+  private Funcs() {
+  }
+
+  private static MethodHandle bind(Object func, int arity) {
+    return switch ((Func) func) {
+      case Closure closure -> Closure.genericInvoker(closure.getClass()).bindTo(closure);
+      case NamedFunc namedFunc -> namedFunc.invoker(arity);
+    };
+  }
+
+  public static Supplier<Object> bind0(Object func) {
+    var handle = bind(func, 0);
+    return () -> {
+      try {
+        return handle.invokeExact();
+      } catch (RuntimeException | Error e) {
+        throw e;
+      } catch (Throwable e) {
+        throw new IllegalStateException(e);
+      }
+    };
+  }
+
+  public static Function<Object, Object> bind1(Object func) {
+    var handle = bind(func, 1);
+    return arg -> {
+      try {
+        return handle.invokeExact(arg);
+      } catch (RuntimeException | Error e) {
+        throw e;
+      } catch (Throwable e) {
+        throw new IllegalStateException(e);
+      }
+    };
+  }
+
+  public static BiFunction<Object, Object, Object> bind2(Object func) {
+    var handle = bind(func, 2);
+    return (arg0, arg1) -> {
+      try {
+        return handle.invokeExact(arg0, arg1);
+      } catch (RuntimeException | Error e) {
+        throw e;
+      } catch (Throwable e) {
+        throw new IllegalStateException(e);
+      }
+    };
+  }
+
+  /** Calls a function that's only called once. */
+  public static Object call(Object func) {
+    return bind0(func).get();
+  }
+}
@@ -0,0 +1,91 @@
+package com.pentlander.sasquach.runtime;
+
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * Growable list of ints backed by an {@code int[]}, so the elements aren't boxed.
+ * <p>Unlike {@link PersistentVector}, the list is mutable.</p>
+ */
+public final class IntArrayList {
+  private static final int DEFAULT_CAPACITY = 10;
+
+  private int[] elements;
+  private int size;
+
+  public IntArrayList() {
+    this(DEFAULT_CAPACITY);
+  }
+
+  public IntArrayList(int capacity) {
+    elements = new int[Math.max(capacity, 1)];
+  }
+
+  public static IntArrayList fromArray(int[] array) {
+    var list = new IntArrayList(array.length);
+    System.arraycopy(array, 0, list.elements, 0, array.length);
+    list.size = array.length;
+    return list;
+  }
+
+  public int size() {
+    return size;
+  }
+
+  public int get(int index) {
+    Objects.checkIndex(index, size);
+    return elements[index];
+  }
+
+  public void set(int index, int value) {
+    Objects.checkIndex(index, size);
+    elements[index] = value;
+  }
+
+  public void add(int value) {
+    if (size == elements.length) {
+      elements = Arrays.copyOf(elements, elements.length + (elements.length >> 1) + 1);
+    }
+    elements[size++] = value;
+  }
+
+  /** Removes the last element and returns it. */
+  public int removeLast() {
+    if (size == 0) {
+      throw new IllegalStateException("Can't remove from empty list");
+    }
+    return elements[--size];
+  }
+
+  public void sort() {
+    Arrays.sort(elements, 0, size);
+  }
+
+  public int[] toArray() {
+    return Arrays.copyOf(elements, size);
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    return o instanceof IntArrayList other && Arrays.equals(elements,
+        0,
+        size,
+        other.elements,
+        0,
+        other.size);
+  }
+
+  @Override
+  public int hashCode() {
+    int hash = 1;
+    for (int i = 0; i < size; i++) {
+      hash = 31 * hash + elements[i];
+    }
+    return hash;
+  }
+
+  @Override
+  public String toString() {
+    return Arrays.toString(toArray());
+  }
+}
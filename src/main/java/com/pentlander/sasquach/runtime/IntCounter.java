@@ -0,0 +1,19 @@
+package com.pentlander.sasquach.runtime;
+
+/** Mutable int that doesn't box on update, unlike a {@link Ref} of an int. */
+public final class IntCounter {
+  private int value;
+
+  public IntCounter(int value) {
+    this.value = value;
+  }
+
+  public int get() {
+    return value;
+  }
+
+  /** Returns the current value and increments it. */
+  public int getAndIncrement() {
+    return value++;
+  }
+}
@@ -0,0 +1,178 @@
+package com.pentlander.sasquach.runtime;
+
+import java.util.Arrays;
+
+/**
+ * Mutable set of ints backed by an open addressing table with linear probing, so the elements
+ * aren't boxed.
+ * <p>Empty slots hold zero, so whether the set contains zero is tracked separately. Removing an
+ * element shifts the following elements of its probe sequence back instead of leaving a
+ * tombstone, which keeps lookups fast after many removals.</p>
+ */
+public final class IntHashSet {
+  private static final int MIN_CAPACITY = 16;
+
+  private int[] table;
+  private int size;
+  private boolean containsZero;
+
+  public IntHashSet() {
+    table = new int[MIN_CAPACITY];
+  }
+
+  public static IntHashSet fromArray(int[] array) {
+    var set = new IntHashSet();
+    for (var value : array) {
+      set.add(value);
+    }
+    return set;
+  }
+
+  public int size() {
+    return containsZero ? size + 1 : size;
+  }
+
+  public boolean contains(int value) {
+    if (value == 0) {
+      return containsZero;
+    }
+    var mask = table.length - 1;
+    for (int i = slot(value, mask); ; i = (i + 1) & mask) {
+      var element = table[i];
+      if (element == value) {
+        return true;
+      } else if (element == 0) {
+        return false;
+      }
+    }
+  }
+
+  /** Adds the value and returns true if the set didn't already contain it. */
+  public boolean add(int value) {
+    if (value == 0) {
+      var added = !containsZero;
+      containsZero = true;
+      return added;
+    }
+    var mask = table.length - 1;
+    int i = slot(value, mask);
+    for (; table[i] != 0; i = (i + 1) & mask) {
+      if (table[i] == value) {
+        return false;
+      }
+    }
+    table[i] = value;
+    // Keep the load factor at or below 1/2 so probe sequences stay short
+    if (++size > table.length >> 1) {
+      resize(table.length << 1);
+    }
+    return true;
+  }
+
+  /** Removes the value and returns true if the set contained it. */
+  public boolean remove(int value) {
+    if (value == 0) {
+      var removed = containsZero;
+      containsZero = false;
+      return removed;
+    }
+    var mask = table.length - 1;
+    for (int i = slot(value, mask); table[i] != 0; i = (i + 1) & mask) {
+      if (table[i] == value) {
+        shiftBack(i, mask);
+        size--;
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /** Returns the elements of the set in an unspecified order. */
+  public int[] toArray() {
+    var array = new int[size()];
+    int j = 0;
+    if (containsZero) {
+      array[j++] = 0;
+    }
+    for (var element : table) {
+      if (element != 0) {
+        array[j++] = element;
+      }
+    }
+    return array;
+  }
+
+  /** Returns the elements of the set in an unspecified order. */
+  public IntArrayList toList() {
+    return IntArrayList.fromArray(toArray());
+  }
+
+  /**
+   * Moves elements after the removed slot back into it if their home slot is at or before it, so
+   * that no probe sequence passes over an empty slot.
+   */
+  private void shiftBack(int removed, int mask) {
+    int gap = removed;
+    for (int i = (gap + 1) & mask; table[i] != 0; i = (i + 1) & mask) {
+      var home = slot(table[i], mask);
+      // Distance from the home slot to the current slot vs from the home slot to the gap
+      if (((i - home) & mask) >= ((i - gap) & mask)) {
+        table[gap] = table[i];
+        gap = i;
+      }
+    }
+    table[gap] = 0;
+  }
+
+  private void resize(int capacity) {
+    var oldTable = table;
+    table = new int[capacity];
+    var mask = capacity - 1;
+    for (var element : oldTable) {
+      if (element != 0) {
+        int i = slot(element, mask);
+        while (table[i] != 0) {
+          i = (i + 1) & mask;
+        }
+        table[i] = element;
+      }
+    }
+  }
+
+  /** Spreads the bits of the value with a Fibonacci hash, since ints are often sequential. */
+  private static int slot(int value, int mask) {
+    var hash = value * 0x9E3779B9;
+    return (hash ^ (hash >>> 16)) & mask;
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) {
+      return true;
+    }
+    if (!(o instanceof IntHashSet other) || size() != other.size()
+        || containsZero != other.containsZero) {
+      return false;
+    }
+    for (var element : table) {
+      if (element != 0 && !other.contains(element)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  @Override
+  public int hashCode() {
+    int hash = 0;
+    for (var element : table) {
+      hash += element;
+    }
+    return hash;
+  }
+
+  @Override
+  public String toString() {
+    return Arrays.toString(toArray());
+  }
+}
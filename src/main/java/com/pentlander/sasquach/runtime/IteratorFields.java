@@ -0,0 +1,60 @@
+package com.pentlander.sasquach.runtime;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import org.jspecify.annotations.Nullable;
+
+/**
+ * Looks up the cursor fields of an iterator.
+ * <p>An iterator only has to define a {@code next} function that returns an option. Iterators
+ * made by {@code Iterator.create} also have {@code hasNext} and {@code nextItem} fields, which
+ * step through the iterator without allocating an option for each item. They aren't part of the
+ * iterator type, so the std iterator functions look them up here to take the fast path.</p>
+ */
+public final class IteratorFields {
+  private static final String HAS_NEXT = "hasNext";
+  private static final String NEXT_ITEM = "nextItem";
+
+  /** The hasNext and nextItem fields of a class, or an empty array if it doesn't have both. */
+  private static final ClassValue<Field[]> CURSOR_FIELDS = new ClassValue<>() {
+    @Override
+    protected Field[] computeValue(Class<?> type) {
+      var hasNext = publicField(type, HAS_NEXT);
+      var nextItem = publicField(type, NEXT_ITEM);
+      return hasNext != null && nextItem != null ? new Field[]{hasNext, nextItem} : new Field[0];
+    }
+  };
+
+  private IteratorFields() {
+  }
+
+  private static @Nullable Field publicField(Class<?> type, String name) {
+    try {
+      var field = type.getField(name);
+      return Modifier.isStatic(field.getModifiers()) ? null : field;
+    } catch (NoSuchFieldException e) {
+      return null;
+    }
+  }
+
+  public static <I> boolean hasCursor(I iter) {
+    return CURSOR_FIELDS.get(iter.getClass()).length > 0;
+  }
+
+  public static <I, F> F hasNext(I iter) {
+    return cursorField(iter, 0);
+  }
+
+  public static <I, F> F nextItem(I iter) {
+    return cursorField(iter, 1);
+  }
+
+  @SuppressWarnings("unchecked")
+  private static <F> F cursorField(Object iter, int idx) {
+    try {
+      return (F) CURSOR_FIELDS.get(iter.getClass())[idx].get(iter);
+    } catch (IllegalAccessException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+}
@@ -0,0 +1,221 @@
+package com.pentlander.sasquach.runtime;
+
+/**
+ * Mutable map from longs to longs backed by an open addressing table with linear probing, so
+ * neither the keys nor the values are boxed. Meant for counting and histograms, where
+ * {@link #increment} updates a value with a single probe.
+ * <p>Empty slots have a key of zero, so the entry for the zero key is stored separately. Removing
+ * an entry shifts the following entries of its probe sequence back instead of leaving a
+ * tombstone.</p>
+ * <p>The entries can be iterated over without allocating with a slot cursor: {@link #nextSlot}
+ * returns the slot of the next entry, and {@link #keyAt} and {@link #valueAt} return the entry in
+ * the slot.</p>
+ */
+public final class LongHashMap {
+  private static final int MIN_CAPACITY = 16;
+  /** Slot of the zero key entry, which comes after the slots of the table. */
+  private static final int ZERO_SLOT = -2;
+
+  private long[] keys;
+  private long[] values;
+  private int size;
+  private boolean containsZero;
+  private long zeroValue;
+
+  public LongHashMap() {
+    keys = new long[MIN_CAPACITY];
+    values = new long[MIN_CAPACITY];
+  }
+
+  public int size() {
+    return containsZero ? size + 1 : size;
+  }
+
+  public boolean containsKey(long key) {
+    return key == 0 ? containsZero : find(key) >= 0;
+  }
+
+  /** Returns the value of the key, or the default value if the map doesn't contain the key. */
+  public long get(long key, long defaultValue) {
+    if (key == 0) {
+      return containsZero ? zeroValue : defaultValue;
+    }
+    var i = find(key);
+    return i >= 0 ? values[i] : defaultValue;
+  }
+
+  public void put(long key, long value) {
+    if (key == 0) {
+      containsZero = true;
+      zeroValue = value;
+      return;
+    }
+    values[insertionSlot(key)] = value;
+  }
+
+  /**
+   * Adds the delta to the value of the key, treating a missing key as zero, and returns the new
+   * value.
+   */
+  public long increment(long key, long delta) {
+    if (key == 0) {
+      zeroValue = containsZero ? zeroValue + delta : delta;
+      containsZero = true;
+      return zeroValue;
+    }
+    var i = insertionSlot(key);
+    return values[i] += delta;
+  }
+
+  /** Removes the key and returns true if the map contained it. */
+  public boolean remove(long key) {
+    if (key == 0) {
+      var removed = containsZero;
+      containsZero = false;
+      zeroValue = 0;
+      return removed;
+    }
+    var i = find(key);
+    if (i < 0) {
+      return false;
+    }
+    shiftBack(i, keys.length - 1);
+    size--;
+    return true;
+  }
+
+  /**
+   * Returns the slot of the first entry after the given slot, or -1 if there are no more entries.
+   * Pass -1 to get the slot of the first entry. The map must not be modified while iterating.
+   */
+  public int nextSlot(int slot) {
+    if (slot == ZERO_SLOT) {
+      return -1;
+    }
+    for (int i = slot + 1; i < keys.length; i++) {
+      if (keys[i] != 0) {
+        return i;
+      }
+    }
+    return containsZero ? ZERO_SLOT : -1;
+  }
+
+  public long keyAt(int slot) {
+    return slot == ZERO_SLOT ? 0 : keys[slot];
+  }
+
+  public long valueAt(int slot) {
+    return slot == ZERO_SLOT ? zeroValue : values[slot];
+  }
+
+  /** Returns the slot of the key, or -1 if the map doesn't contain it. The key must not be zero. */
+  private int find(long key) {
+    var mask = keys.length - 1;
+    for (int i = slot(key, mask); ; i = (i + 1) & mask) {
+      var slotKey = keys[i];
+      if (slotKey == key) {
+        return i;
+      } else if (slotKey == 0) {
+        return -1;
+      }
+    }
+  }
+
+  /**
+   * Returns the slot of the key, inserting the key with a value of zero if the map doesn't contain
+   * it. The key must not be zero.
+   */
+  private int insertionSlot(long key) {
+    var mask = keys.length - 1;
+    int i = slot(key, mask);
+    for (; keys[i] != 0; i = (i + 1) & mask) {
+      if (keys[i] == key) {
+        return i;
+      }
+    }
+    keys[i] = key;
+    values[i] = 0;
+    // Keep the load factor at or below 1/2 so probe sequences stay short
+    if (++size > keys.length >> 1) {
+      resize(keys.length << 1);
+      return find(key);
+    }
+    return i;
+  }
+
+  private void shiftBack(int removed, int mask) {
+    int gap = removed;
+    for (int i = (gap + 1) & mask; keys[i] != 0; i = (i + 1) & mask) {
+      var home = slot(keys[i], mask);
+      if (((i - home) & mask) >= ((i - gap) & mask)) {
+        keys[gap] = keys[i];
+        values[gap] = values[i];
+        gap = i;
+      }
+    }
+    keys[gap] = 0;
+    values[gap] = 0;
+  }
+
+  private void resize(int capacity) {
+    var oldKeys = keys;
+    var oldValues = values;
+    keys = new long[capacity];
+    values = new long[capacity];
+    var mask = capacity - 1;
+    for (int j = 0; j < oldKeys.length; j++) {
+      var key = oldKeys[j];
+      if (key != 0) {
+        int i = slot(key, mask);
+        while (keys[i] != 0) {
+          i = (i + 1) & mask;
+        }
+        keys[i] = key;
+        values[i] = oldValues[j];
+      }
+    }
+  }
+
+  private static int slot(long key, int mask) {
+    var hash = key * 0x9E3779B97F4A7C15L;
+    return (int) (hash ^ (hash >>> 32)) & mask;
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) {
+      return true;
+    }
+    if (!(o instanceof LongHashMap other) || size() != other.size()) {
+      return false;
+    }
+    for (int i = nextSlot(-1); i != -1; i = nextSlot(i)) {
+      var key = keyAt(i);
+      if (!other.containsKey(key) || other.get(key, 0) != valueAt(i)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  @Override
+  public int hashCode() {
+    int hash = 0;
+    for (int i = nextSlot(-1); i != -1; i = nextSlot(i)) {
+      hash += Long.hashCode(keyAt(i)) ^ Long.hashCode(valueAt(i));
+    }
+    return hash;
+  }
+
+  @Override
+  public String toString() {
+    var builder = new StringBuilder("{");
+    for (int i = nextSlot(-1); i != -1; i = nextSlot(i)) {
+      if (builder.length() > 1) {
+        builder.append(", ");
+      }
+      builder.append(keyAt(i)).append('=').append(valueAt(i));
+    }
+    return builder.append('}').toString();
+  }
+}
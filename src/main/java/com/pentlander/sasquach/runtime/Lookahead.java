@@ -0,0 +1,37 @@
+package com.pentlander.sasquach.runtime;
+
+import java.util.NoSuchElementException;
+
+/**
+ * Mutable slot that holds at most one value. Iterator adapters that have to look ahead to know
+ * whether there's another item, like filter, buffer the item here instead of wrapping it in an
+ * option.
+ */
+public final class Lookahead<T> {
+  private T value;
+  private boolean present;
+
+  public boolean isPresent() {
+    return present;
+  }
+
+  public T get() {
+    if (!present) {
+      throw new NoSuchElementException();
+    }
+    return value;
+  }
+
+  public void set(T value) {
+    this.value = value;
+    present = true;
+  }
+
+  /** Returns the value and empties the slot. */
+  public T take() {
+    var taken = get();
+    value = null;
+    present = false;
+    return taken;
+  }
+}
@@ -0,0 +1,153 @@
+package com.pentlander.sasquach.runtime;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.BiFunction;
+import java.util.function.IntConsumer;
+
+/**
+ * Parallel operations on vectors that split the work across a {@link ForkJoinPool}.
+ * <p>The vector is split in half recursively until a range has at most {@link #SEQUENTIAL_CUTOFF}
+ * elements, which are processed sequentially. The split only depends on the size of the vector,
+ * so results are combined in the same order on every run, and map and filter keep the order of
+ * the elements.</p>
+ * <p>The work runs in the common pool, unless the {@value #PARALLELISM_PROPERTY} system property
+ * is set, in which case it runs in a pool with that parallelism.</p>
+ * <p>The function arguments are typed as type parameters so a Sasquach function value can be
+ * passed in. Each function is bound with {@link Funcs} once per operation rather than per
+ * element.</p>
+ */
+public final class ParallelOps {
+  static final String PARALLELISM_PROPERTY = "sasquach.parallelism";
+  /** Max number of elements in a range that's processed without splitting it further. */
+  static final int SEQUENTIAL_CUTOFF = 512;
+
+  private static final ForkJoinPool POOL = createPool();
+
+  private ParallelOps() {
+  }
+
+  private static ForkJoinPool createPool() {
+    var parallelism = Integer.getInteger(PARALLELISM_PROPERTY);
+    return parallelism != null ? new ForkJoinPool(parallelism) : ForkJoinPool.commonPool();
+  }
+
+  /** Returns a vector of the results of calling the mapper on each element. */
+  @SuppressWarnings("unchecked")
+  public static <T, R, F> PersistentVector<R> map(PersistentVector<T> vector, F mapper) {
+    var elements = vector.toArray();
+    var results = new Object[elements.length];
+    var mapperFunc = Funcs.bind1(mapper);
+    POOL.invoke(new ForEachAction(0,
+        elements.length,
+        i -> results[i] = mapperFunc.apply(elements[i])));
+    return PersistentVector.fromArray((R[]) results);
+  }
+
+  /** Returns a vector of the elements the filterer returns true for, in their original order. */
+  public static <T, F> PersistentVector<T> filter(PersistentVector<T> vector, F filterer) {
+    var elements = vector.toArray();
+    var keep = new boolean[elements.length];
+    var filtererFunc = Funcs.bind1(filterer);
+    POOL.invoke(new ForEachAction(0,
+        elements.length,
+        i -> keep[i] = (boolean) filtererFunc.apply(elements[i])));
+
+    TransientVector<T> filtered = PersistentVector.<T>empty().asTransient();
+    for (int i = 0; i < elements.length; i++) {
+      if (keep[i]) {
+        @SuppressWarnings("unchecked") var element = (T) elements[i];
+        filtered.conj(element);
+      }
+    }
+    return filtered.persistent();
+  }
+
+  /**
+   * Reduces each range of the vector with the accumulator starting from the initial value, then
+   * combines the results of adjacent ranges with the combiner. The initial value must be an
+   * identity of the combiner and the combiner must be associative for the result to be the same as
+   * a sequential reduce.
+   */
+  @SuppressWarnings("unchecked")
+  public static <T, R, F, G> R reduce(PersistentVector<T> vector, R init, F accumulator,
+      G combiner) {
+    var elements = vector.toArray();
+    return (R) POOL.invoke(new ReduceTask(elements,
+        0,
+        elements.length,
+        init,
+        Funcs.bind2(accumulator),
+        Funcs.bind2(combiner)));
+  }
+
+  /** Calls the function on each element. The order of the calls is unspecified. */
+  public static <T, F> void forEach(PersistentVector<T> vector, F fn) {
+    var elements = vector.toArray();
+    var func = Funcs.bind1(fn);
+    POOL.invoke(new ForEachAction(0, elements.length, i -> func.apply(elements[i])));
+  }
+
+  /** Calls the action with each index in the range. */
+  private static final class ForEachAction extends RecursiveAction {
+    private final int start;
+    private final int end;
+    private final IntConsumer action;
+
+    ForEachAction(int start, int end, IntConsumer action) {
+      this.start = start;
+      this.end = end;
+      this.action = action;
+    }
+
+    @Override
+    protected void compute() {
+      if (end - start <= SEQUENTIAL_CUTOFF) {
+        for (int i = start; i < end; i++) {
+          action.accept(i);
+        }
+        return;
+      }
+      var mid = (start + end) >>> 1;
+      invokeAll(new ForEachAction(start, mid, action), new ForEachAction(mid, end, action));
+    }
+  }
+
+  private static final class ReduceTask extends RecursiveTask<Object> {
+    private final Object[] elements;
+    private final int start;
+    private final int end;
+    private final Object init;
+    private final BiFunction<Object, Object, Object> accumulator;
+    private final BiFunction<Object, Object, Object> combiner;
+
+    ReduceTask(Object[] elements, int start, int end, Object init,
+        BiFunction<Object, Object, Object> accumulator,
+        BiFunction<Object, Object, Object> combiner) {
+      this.elements = elements;
+      this.start = start;
+      this.end = end;
+      this.init = init;
+      this.accumulator = accumulator;
+      this.combiner = combiner;
+    }
+
+    @Override
+    protected Object compute() {
+      if (end - start <= SEQUENTIAL_CUTOFF) {
+        var result = init;
+        for (int i = start; i < end; i++) {
+          result = accumulator.apply(result, elements[i]);
+        }
+        return result;
+      }
+      var mid = (start + end) >>> 1;
+      var left = new ReduceTask(elements, start, mid, init, accumulator, combiner);
+      var right = new ReduceTask(elements, mid, end, init, accumulator, combiner);
+      right.fork();
+      var leftResult = left.compute();
+      return combiner.apply(leftResult, right.join());
+    }
+  }
+}
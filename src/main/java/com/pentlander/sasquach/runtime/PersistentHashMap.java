@@ -0,0 +1,642 @@
+package com.pentlander.sasquach.runtime;
+
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import org.jspecify.annotations.Nullable;
+
+/**
+ * Immutable hash map implemented as a compressed hash-array mapped prefix trie (CHAMP).
+ * <p>The hash of each key is supplied by the caller rather than computed with
+ * {@link Object#hashCode()}, so the map can be used with a user defined hash function. The hashes
+ * are stored next to the keys, since they can't be recomputed when entries are pushed down the
+ * trie. Keys with the same hash are compared with {@link Object#equals}.</p>
+ * <p>Each node stores its entries inline and its sub-nodes at the end of the same array, indexed by
+ * two bitmaps. Updates copy the path from the root to the changed node and share the rest with the
+ * original map, so {@link #assoc}, {@link #dissoc} and {@link #get} are O(log32 n). Removing
+ * entries keeps the trie in a canonical form, where a sub-node never has a single entry.</p>
+ */
+public final class PersistentHashMap<K, V> implements Iterable<Map.Entry<K, V>> {
+  static final int BITS = 5;
+  static final int MASK = (1 << BITS) - 1;
+  static final int HASH_BITS = 32;
+
+  private static final PersistentHashMap<?, ?> EMPTY = new PersistentHashMap<>(BitmapIndexedNode.EMPTY,
+      0);
+
+  private final Node root;
+  private final int size;
+
+  PersistentHashMap(Node root, int size) {
+    this.root = root;
+    this.size = size;
+  }
+
+  @SuppressWarnings("unchecked")
+  public static <K, V> PersistentHashMap<K, V> empty() {
+    return (PersistentHashMap<K, V>) EMPTY;
+  }
+
+  public int size() {
+    return size;
+  }
+
+  /** Returns the value of the key, or null if the map doesn't contain the key. */
+  @SuppressWarnings("unchecked")
+  public @Nullable V get(int hash, K key) {
+    return (V) root.find(key, hash, 0, null);
+  }
+
+  public boolean containsKey(int hash, K key) {
+    return root.find(key, hash, 0, NOT_FOUND) != NOT_FOUND;
+  }
+
+  /** Returns a map with the key set to the value. */
+  public PersistentHashMap<K, V> assoc(int hash, K key, V value) {
+    var change = new Change();
+    var newRoot = root.assoc(null, key, value, hash, 0, change);
+    if (newRoot == root) {
+      return this;
+    }
+    return new PersistentHashMap<>(newRoot, change.sizeChanged ? size + 1 : size);
+  }
+
+  /** Returns a map without the key. */
+  public PersistentHashMap<K, V> dissoc(int hash, K key) {
+    var change = new Change();
+    var newRoot = root.dissoc(null, key, hash, 0, change);
+    if (newRoot == root) {
+      return this;
+    }
+    return new PersistentHashMap<>(newRoot, size - 1);
+  }
+
+  /**
+   * Returns a transient map with the entries of this map. The transient shares the trie with this
+   * map and only copies the nodes it modifies, the first time it modifies them.
+   */
+  public TransientHashMap<K, V> asTransient() {
+    return new TransientHashMap<>(root, size);
+  }
+
+  @Override
+  public Iterator<Map.Entry<K, V>> iterator() {
+    return new EntryIterator<>(root);
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) {
+      return true;
+    }
+    if (!(o instanceof PersistentHashMap<?, ?> other) || size != other.size) {
+      return false;
+    }
+    var iter = new EntryIterator<K, V>(root);
+    while (iter.hasNext()) {
+      var hash = iter.nextHash();
+      var entry = iter.next();
+      var otherValue = other.root.find(entry.getKey(), hash, 0, NOT_FOUND);
+      if (otherValue == NOT_FOUND || !Objects.equals(entry.getValue(), otherValue)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  @Override
+  public int hashCode() {
+    int hashCode = 0;
+    var iter = new EntryIterator<K, V>(root);
+    while (iter.hasNext()) {
+      var hash = iter.nextHash();
+      hashCode += hash ^ Objects.hashCode(iter.next().getValue());
+    }
+    return hashCode;
+  }
+
+  @Override
+  public String toString() {
+    var builder = new StringBuilder("{");
+    for (var entry : this) {
+      if (builder.length() > 1) {
+        builder.append(", ");
+      }
+      builder.append(entry.getKey()).append('=').append(entry.getValue());
+    }
+    return builder.append('}').toString();
+  }
+
+  private static final Object NOT_FOUND = new Object();
+
+  /** Records whether an update added or removed an entry, rather than replacing a value. */
+  static final class Change {
+    boolean sizeChanged;
+  }
+
+  static int mask(int hash, int shift) {
+    return (hash >>> shift) & MASK;
+  }
+
+  static int bitPos(int mask) {
+    return 1 << mask;
+  }
+
+  /**
+   * A node in the trie. Updates take the owner of the transient making them, which is allowed to
+   * modify the nodes it created in place. Persistent maps pass a null owner, so nodes are always
+   * copied.
+   */
+  abstract static sealed class Node permits BitmapIndexedNode, CollisionNode {
+    abstract @Nullable Object find(Object key, int hash, int shift, @Nullable Object notFound);
+
+    abstract Node assoc(@Nullable Object owner, Object key, Object value, int hash, int shift,
+        Change change);
+
+    abstract Node dissoc(@Nullable Object owner, Object key, int hash, int shift, Change change);
+
+    abstract int payloadArity();
+
+    abstract int nodeArity();
+
+    abstract Object keyAt(int idx);
+
+    abstract Object valueAt(int idx);
+
+    abstract int hashAt(int idx);
+
+    abstract Node nodeAt(int idx);
+
+    /** Returns true if the node has a single entry and no sub-nodes, so it can be inlined. */
+    boolean hasSingleEntry() {
+      return payloadArity() == 1 && nodeArity() == 0;
+    }
+  }
+
+  static final class BitmapIndexedNode extends Node {
+    static final BitmapIndexedNode EMPTY = new BitmapIndexedNode(null,
+        0,
+        0,
+        new int[0],
+        new Object[0]);
+
+    final @Nullable Object owner;
+    final int dataMap;
+    final int nodeMap;
+    /** Hashes of the inline entries. */
+    final int[] hashes;
+    /** Keys and values of the inline entries, followed by the sub-nodes in reverse order. */
+    final Object[] content;
+
+    BitmapIndexedNode(@Nullable Object owner, int dataMap, int nodeMap, int[] hashes,
+        Object[] content) {
+      this.owner = owner;
+      this.dataMap = dataMap;
+      this.nodeMap = nodeMap;
+      this.hashes = hashes;
+      this.content = content;
+    }
+
+    private static int index(int bitmap, int bitPos) {
+      return Integer.bitCount(bitmap & (bitPos - 1));
+    }
+
+    private int nodeContentIdx(int bitPos) {
+      return content.length - 1 - index(nodeMap, bitPos);
+    }
+
+    @Override
+    @Nullable Object find(Object key, int hash, int shift, @Nullable Object notFound) {
+      var bitPos = bitPos(mask(hash, shift));
+      if ((dataMap & bitPos) != 0) {
+        var idx = index(dataMap, bitPos);
+        if (hashes[idx] == hash && Objects.equals(content[2 * idx], key)) {
+          return content[2 * idx + 1];
+        }
+        return notFound;
+      }
+      if ((nodeMap & bitPos) != 0) {
+        return ((Node) content[nodeContentIdx(bitPos)]).find(key, hash, shift + BITS, notFound);
+      }
+      return notFound;
+    }
+
+    @Override
+    Node assoc(@Nullable Object owner, Object key, Object value, int hash, int shift,
+        Change change) {
+      var bitPos = bitPos(mask(hash, shift));
+      if ((dataMap & bitPos) != 0) {
+        var idx = index(dataMap, bitPos);
+        var existingKey = content[2 * idx];
+        var existingHash = hashes[idx];
+        if (existingHash == hash && Objects.equals(existingKey, key)) {
+          if (content[2 * idx + 1] == value) {
+            return this;
+          }
+          var node = editable(owner);
+          node.content[2 * idx + 1] = value;
+          return node;
+        }
+
+        var subNode = mergeTwo(owner,
+            existingKey,
+            content[2 * idx + 1],
+            existingHash,
+            key,
+            value,
+            hash,
+            shift + BITS);
+        change.sizeChanged = true;
+        return copyAndMigrateFromInlineToNode(owner, bitPos, subNode);
+      }
+
+      if ((nodeMap & bitPos) != 0) {
+        var contentIdx = nodeContentIdx(bitPos);
+        var subNode = (Node) content[contentIdx];
+        var newSubNode = subNode.assoc(owner, key, value, hash, shift + BITS, change);
+        if (newSubNode == subNode) {
+          return this;
+        }
+        var node = editable(owner);
+        node.content[contentIdx] = newSubNode;
+        return node;
+      }
+
+      change.sizeChanged = true;
+      return copyAndInsertValue(owner, bitPos, key, value, hash);
+    }
+
+    @Override
+    Node dissoc(@Nullable Object owner, Object key, int hash, int shift, Change change) {
+      var bitPos = bitPos(mask(hash, shift));
+      if ((dataMap & bitPos) != 0) {
+        var idx = index(dataMap, bitPos);
+        if (hashes[idx] != hash || !Objects.equals(content[2 * idx], key)) {
+          return this;
+        }
+        change.sizeChanged = true;
+
+        if (payloadArity() == 2 && nodeArity() == 0) {
+          // The remaining entry either becomes the root or gets inlined into the parent node
+          var remainingIdx = 1 - idx;
+          var remainingHash = hashes[remainingIdx];
+          var newDataMap = shift == 0 ? dataMap ^ bitPos : bitPos(mask(remainingHash, 0));
+          return new BitmapIndexedNode(owner,
+              newDataMap,
+              0,
+              new int[]{remainingHash},
+              new Object[]{content[2 * remainingIdx], content[2 * remainingIdx + 1]});
+        }
+        return copyAndRemoveValue(owner, bitPos, idx);
+      }
+
+      if ((nodeMap & bitPos) != 0) {
+        var contentIdx = nodeContentIdx(bitPos);
+        var subNode = (Node) content[contentIdx];
+        var newSubNode = subNode.dissoc(owner, key, hash, shift + BITS, change);
+        if (newSubNode == subNode) {
+          return this;
+        }
+
+        if (newSubNode.hasSingleEntry()) {
+          if (payloadArity() == 0 && nodeArity() == 1) {
+            // This node would only contain the single entry, so let the parent inline it
+            return newSubNode;
+          }
+          return copyAndMigrateFromNodeToInline(owner, bitPos, newSubNode);
+        }
+        var node = editable(owner);
+        node.content[contentIdx] = newSubNode;
+        return node;
+      }
+      return this;
+    }
+
+    /** Returns this node if the owner can modify it in place, otherwise a copy of it. */
+    private BitmapIndexedNode editable(@Nullable Object owner) {
+      if (owner != null && owner == this.owner) {
+        return this;
+      }
+      return new BitmapIndexedNode(owner, dataMap, nodeMap, hashes.clone(), content.clone());
+    }
+
+    private BitmapIndexedNode copyAndInsertValue(@Nullable Object owner, int bitPos, Object key,
+        Object value, int hash) {
+      var idx = index(dataMap, bitPos);
+      var newHashes = new int[hashes.length + 1];
+      System.arraycopy(hashes, 0, newHashes, 0, idx);
+      newHashes[idx] = hash;
+      System.arraycopy(hashes, idx, newHashes, idx + 1, hashes.length - idx);
+
+      var newContent = new Object[content.length + 2];
+      System.arraycopy(content, 0, newContent, 0, 2 * idx);
+      newContent[2 * idx] = key;
+      newContent[2 * idx + 1] = value;
+      System.arraycopy(content, 2 * idx, newContent, 2 * idx + 2, content.length - 2 * idx);
+      return new BitmapIndexedNode(owner, dataMap | bitPos, nodeMap, newHashes, newContent);
+    }
+
+    private BitmapIndexedNode copyAndRemoveValue(@Nullable Object owner, int bitPos, int idx) {
+      var newHashes = new int[hashes.length - 1];
+      System.arraycopy(hashes, 0, newHashes, 0, idx);
+      System.arraycopy(hashes, idx + 1, newHashes, idx, hashes.length - idx - 1);
+
+      var newContent = new Object[content.length - 2];
+      System.arraycopy(content, 0, newContent, 0, 2 * idx);
+      System.arraycopy(content, 2 * idx + 2, newContent, 2 * idx, content.length - 2 * idx - 2);
+      return new BitmapIndexedNode(owner, dataMap ^ bitPos, nodeMap, newHashes, newContent);
+    }
+
+    private BitmapIndexedNode copyAndMigrateFromInlineToNode(@Nullable Object owner, int bitPos,
+        Node subNode) {
+      var idxOld = 2 * index(dataMap, bitPos);
+      var idxNew = content.length - 2 - index(nodeMap, bitPos);
+
+      var newContent = new Object[content.length - 1];
+      // Copy the entries before the removed one, then the entries and nodes up to the new node
+      System.arraycopy(content, 0, newContent, 0, idxOld);
+      System.arraycopy(content, idxOld + 2, newContent, idxOld, idxNew - idxOld);
+      newContent[idxNew] = subNode;
+      System.arraycopy(content, idxNew + 2, newContent, idxNew + 1, content.length - idxNew - 2);
+
+      var idx = index(dataMap, bitPos);
+      var newHashes = new int[hashes.length - 1];
+      System.arraycopy(hashes, 0, newHashes, 0, idx);
+      System.arraycopy(hashes, idx + 1, newHashes, idx, hashes.length - idx - 1);
+      return new BitmapIndexedNode(owner,
+          dataMap ^ bitPos,
+          nodeMap | bitPos,
+          newHashes,
+          newContent);
+    }
+
+    private BitmapIndexedNode copyAndMigrateFromNodeToInline(@Nullable Object owner, int bitPos,
+        Node subNode) {
+      var idxOld = content.length - 1 - index(nodeMap, bitPos);
+      var idxNew = 2 * index(dataMap, bitPos);
+
+      var newContent = new Object[content.length + 1];
+      // Copy the entries before the new one, then the entries and nodes up to the removed node
+      System.arraycopy(content, 0, newContent, 0, idxNew);
+      newContent[idxNew] = subNode.keyAt(0);
+      newContent[idxNew + 1] = subNode.valueAt(0);
+      System.arraycopy(content, idxNew, newContent, idxNew + 2, idxOld - idxNew);
+      System.arraycopy(content, idxOld + 1, newContent, idxOld + 2, content.length - idxOld - 1);
+
+      var idx = index(dataMap, bitPos);
+      var newHashes = new int[hashes.length + 1];
+      System.arraycopy(hashes, 0, newHashes, 0, idx);
+      newHashes[idx] = subNode.hashAt(0);
+      System.arraycopy(hashes, idx, newHashes, idx + 1, hashes.length - idx);
+      return new BitmapIndexedNode(owner,
+          dataMap | bitPos,
+          nodeMap ^ bitPos,
+          newHashes,
+          newContent);
+    }
+
+    @Override
+    int payloadArity() {
+      return Integer.bitCount(dataMap);
+    }
+
+    @Override
+    int nodeArity() {
+      return Integer.bitCount(nodeMap);
+    }
+
+    @Override
+    Object keyAt(int idx) {
+      return content[2 * idx];
+    }
+
+    @Override
+    Object valueAt(int idx) {
+      return content[2 * idx + 1];
+    }
+
+    @Override
+    int hashAt(int idx) {
+      return hashes[idx];
+    }
+
+    @Override
+    Node nodeAt(int idx) {
+      return (Node) content[content.length - 1 - idx];
+    }
+  }
+
+  /** Entries whose keys have the same hash, which can't be told apart by the trie. */
+  static final class CollisionNode extends Node {
+    final @Nullable Object owner;
+    final int hash;
+    /** Keys and values of the entries. */
+    final Object[] content;
+
+    CollisionNode(@Nullable Object owner, int hash, Object[] content) {
+      this.owner = owner;
+      this.hash = hash;
+      this.content = content;
+    }
+
+    private int indexOf(Object key) {
+      for (int i = 0; i < content.length; i += 2) {
+        if (Objects.equals(content[i], key)) {
+          return i;
+        }
+      }
+      return -1;
+    }
+
+    @Override
+    @Nullable Object find(Object key, int hash, int shift, @Nullable Object notFound) {
+      if (hash != this.hash) {
+        return notFound;
+      }
+      var idx = indexOf(key);
+      return idx != -1 ? content[idx + 1] : notFound;
+    }
+
+    @Override
+    Node assoc(@Nullable Object owner, Object key, Object value, int hash, int shift,
+        Change change) {
+      var idx = indexOf(key);
+      if (idx != -1) {
+        if (content[idx + 1] == value) {
+          return this;
+        }
+        var newContent = owner != null && owner == this.owner ? content : content.clone();
+        newContent[idx + 1] = value;
+        return newContent == content ? this : new CollisionNode(owner, hash, newContent);
+      }
+
+      change.sizeChanged = true;
+      var newContent = Arrays.copyOf(content, content.length + 2);
+      newContent[content.length] = key;
+      newContent[content.length + 1] = value;
+      return new CollisionNode(owner, hash, newContent);
+    }
+
+    @Override
+    Node dissoc(@Nullable Object owner, Object key, int hash, int shift, Change change) {
+      var idx = indexOf(key);
+      if (idx == -1) {
+        return this;
+      }
+      change.sizeChanged = true;
+
+      if (content.length == 4) {
+        // The remaining entry gets inlined into the parent node
+        var remainingIdx = idx == 0 ? 2 : 0;
+        return new BitmapIndexedNode(owner,
+            bitPos(mask(hash, 0)),
+            0,
+            new int[]{hash},
+            new Object[]{content[remainingIdx], content[remainingIdx + 1]});
+      }
+
+      var newContent = new Object[content.length - 2];
+      System.arraycopy(content, 0, newContent, 0, idx);
+      System.arraycopy(content, idx + 2, newContent, idx, content.length - idx - 2);
+      return new CollisionNode(owner, hash, newContent);
+    }
+
+    @Override
+    int payloadArity() {
+      return content.length / 2;
+    }
+
+    @Override
+    int nodeArity() {
+      return 0;
+    }
+
+    @Override
+    Object keyAt(int idx) {
+      return content[2 * idx];
+    }
+
+    @Override
+    Object valueAt(int idx) {
+      return content[2 * idx + 1];
+    }
+
+    @Override
+    int hashAt(int idx) {
+      return hash;
+    }
+
+    @Override
+    Node nodeAt(int idx) {
+      throw new IndexOutOfBoundsException(idx);
+    }
+  }
+
+  /**
+   * Returns a node containing the two entries, which differ in their hash below the shift. Entries
+   * whose hashes are completely the same are put into a collision node.
+   */
+  static Node mergeTwo(@Nullable Object owner, Object key0, Object value0, int hash0, Object key1,
+      Object value1, int hash1, int shift) {
+    if (shift >= HASH_BITS) {
+      return new CollisionNode(owner, hash0, new Object[]{key0, value0, key1, value1});
+    }
+
+    var mask0 = mask(hash0, shift);
+    var mask1 = mask(hash1, shift);
+    if (mask0 != mask1) {
+      var dataMap = bitPos(mask0) | bitPos(mask1);
+      if (mask0 < mask1) {
+        return new BitmapIndexedNode(owner,
+            dataMap,
+            0,
+            new int[]{hash0, hash1},
+            new Object[]{key0, value0, key1, value1});
+      }
+      return new BitmapIndexedNode(owner,
+          dataMap,
+          0,
+          new int[]{hash1, hash0},
+          new Object[]{key1, value1, key0, value0});
+    }
+
+    var subNode = mergeTwo(owner, key0, value0, hash0, key1, value1, hash1, shift + BITS);
+    return new BitmapIndexedNode(owner, 0, bitPos(mask0), new int[0], new Object[]{subNode});
+  }
+
+  /** Iterates over the entries depth first, keeping a stack of the nodes being visited. */
+  private static final class EntryIterator<K, V> implements Iterator<Map.Entry<K, V>> {
+    // The trie is at most 7 levels deep, plus a level of collision nodes
+    private static final int MAX_DEPTH = HASH_BITS / BITS + 2;
+
+    private final Node[] nodes = new Node[MAX_DEPTH];
+    private final int[] nodeIdxs = new int[MAX_DEPTH];
+    private int depth = 0;
+    private @Nullable Node payloadNode;
+    private int payloadIdx;
+
+    EntryIterator(Node root) {
+      nodes[0] = root;
+      if (root.payloadArity() > 0) {
+        payloadNode = root;
+      } else {
+        advanceNode();
+      }
+    }
+
+    @Override
+    public boolean hasNext() {
+      return payloadNode != null;
+    }
+
+    /** Returns the hash of the entry that will be returned by the next call to {@link #next}. */
+    int nextHash() {
+      if (payloadNode == null) {
+        throw new NoSuchElementException();
+      }
+      return payloadNode.hashAt(payloadIdx);
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public Map.Entry<K, V> next() {
+      var node = payloadNode;
+      if (node == null) {
+        throw new NoSuchElementException();
+      }
+      var entry = new SimpleImmutableEntry<>((K) node.keyAt(payloadIdx),
+          (V) node.valueAt(payloadIdx));
+      payloadIdx++;
+      if (payloadIdx == node.payloadArity()) {
+        advanceNode();
+      }
+      return entry;
+    }
+
+    /** Moves to the next node in depth first order that has entries. */
+    private void advanceNode() {
+      payloadNode = null;
+      payloadIdx = 0;
+      while (depth >= 0) {
+        var node = nodes[depth];
+        var nodeIdx = nodeIdxs[depth];
+        if (nodeIdx < node.nodeArity()) {
+          nodeIdxs[depth]++;
+          var child = node.nodeAt(nodeIdx);
+          depth++;
+          nodes[depth] = child;
+          nodeIdxs[depth] = 0;
+          if (child.payloadArity() > 0) {
+            payloadNode = child;
+            return;
+          }
+        } else {
+          depth--;
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,362 @@
+package com.pentlander.sasquach.runtime;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import org.jspecify.annotations.Nullable;
+
+/**
+ * Immutable vector backed by a bit-partitioned trie with a branching factor of 32.
+ * <p>Updates copy only the path from the root to the changed leaf, so {@link #conj}, {@link #assoc}
+ * and {@link #pop} are O(log32 n) and share the rest of the trie with the original vector. The last
+ * leaf is kept outside the trie as the tail, which makes appending amortized O(1). A slice is a view
+ * of a range of the trie, so creating one doesn't copy any elements.</p>
+ */
+public final class PersistentVector<T> implements Iterable<T> {
+  static final int BITS = 5;
+  static final int WIDTH = 1 << BITS;
+  static final int MASK = WIDTH - 1;
+
+  static final Node EMPTY_NODE = new Node(null, new Object[WIDTH]);
+  private static final PersistentVector<?> EMPTY = new PersistentVector<>(0,
+      BITS,
+      EMPTY_NODE,
+      new Object[0]);
+
+  /** Number of elements in the trie, including the ones outside the slice. */
+  private final int count;
+  /** Number of bits to shift an index by to get the index into the root node. */
+  private final int shift;
+  private final Node root;
+  private final Object[] tail;
+  /** Index of the first element in the slice. */
+  private final int start;
+  /** Index after the last element in the slice. */
+  private final int end;
+
+  /**
+   * A node in the trie. The owner is the transient that created the node and is allowed to modify
+   * it in place, or null if the node belongs to a persistent vector.
+   */
+  static final class Node {
+    final @Nullable Object owner;
+    final Object[] array;
+
+    Node(@Nullable Object owner, Object[] array) {
+      this.owner = owner;
+      this.array = array;
+    }
+  }
+
+  private PersistentVector(int count, int shift, Node root, Object[] tail, int start, int end) {
+    this.count = count;
+    this.shift = shift;
+    this.root = root;
+    this.tail = tail;
+    this.start = start;
+    this.end = end;
+  }
+
+  PersistentVector(int count, int shift, Node root, Object[] tail) {
+    this(count, shift, root, tail, 0, count);
+  }
+
+  @SuppressWarnings("unchecked")
+  public static <T> PersistentVector<T> empty() {
+    return (PersistentVector<T>) EMPTY;
+  }
+
+  public static <T> PersistentVector<T> fromArray(T[] array) {
+    TransientVector<T> vector = PersistentVector.<T>empty().asTransient();
+    for (var value : array) {
+      vector.conj(value);
+    }
+    return vector.persistent();
+  }
+
+  public static <T> PersistentVector<T> fromList(List<T> list) {
+    TransientVector<T> vector = PersistentVector.<T>empty().asTransient();
+    for (var value : list) {
+      vector.conj(value);
+    }
+    return vector.persistent();
+  }
+
+  public int size() {
+    return end - start;
+  }
+
+  @SuppressWarnings("unchecked")
+  public T get(int index) {
+    Objects.checkIndex(index, size());
+    var trieIndex = start + index;
+    return (T) arrayFor(trieIndex)[trieIndex & MASK];
+  }
+
+  /** Returns a vector with the value appended to the end. */
+  public PersistentVector<T> conj(T value) {
+    // The slice ends before the end of the trie, so the element after it can be replaced
+    if (end < count) {
+      return assocTrie(end, value, start, end + 1);
+    }
+
+    if (count - tailOffset() < WIDTH) {
+      var newTail = Arrays.copyOf(tail, tail.length + 1);
+      newTail[tail.length] = value;
+      return new PersistentVector<>(count + 1, shift, root, newTail, start, end + 1);
+    }
+
+    // The tail is full, so push it into the trie and start a new one
+    var tailNode = new Node(null, tail);
+    var newShift = shift;
+    Node newRoot;
+    if ((count >>> BITS) > (1 << shift)) {
+      // The trie is full, so add a level
+      newRoot = new Node(null, new Object[WIDTH]);
+      newRoot.array[0] = root;
+      newRoot.array[1] = newPath(null, shift, tailNode);
+      newShift += BITS;
+    } else {
+      newRoot = pushTail(shift, root, tailNode);
+    }
+    return new PersistentVector<>(count + 1,
+        newShift,
+        newRoot,
+        new Object[]{value},
+        start,
+        end + 1);
+  }
+
+  /** Returns a vector with the value at the index replaced. */
+  public PersistentVector<T> assoc(int index, T value) {
+    Objects.checkIndex(index, size());
+    return assocTrie(start + index, value, start, end);
+  }
+
+  /** Returns a vector without the last element. */
+  public PersistentVector<T> pop() {
+    if (size() == 0) {
+      throw new IllegalStateException("Can't pop empty vector");
+    }
+    if (end < count) {
+      return new PersistentVector<>(count, shift, root, tail, start, end - 1);
+    }
+    if (count == 1) {
+      return empty();
+    }
+
+    if (count - tailOffset() > 1) {
+      var newTail = Arrays.copyOf(tail, tail.length - 1);
+      return new PersistentVector<>(count - 1, shift, root, newTail, start, end - 1);
+    }
+
+    // The tail only has one element, so the last leaf in the trie becomes the new tail
+    var newTail = arrayFor(count - 2);
+    var newRoot = popTail(shift, root);
+    var newShift = shift;
+    if (newRoot == null) {
+      newRoot = EMPTY_NODE;
+    }
+    if (shift > BITS && newRoot.array[1] == null) {
+      newRoot = (Node) newRoot.array[0];
+      newShift -= BITS;
+    }
+    return new PersistentVector<>(count - 1, newShift, newRoot, newTail, start, end - 1);
+  }
+
+  /**
+   * Returns a view of the elements from {@code fromIndex}, inclusive, to {@code toIndex},
+   * exclusive. The slice shares the trie with this vector.
+   */
+  public PersistentVector<T> slice(int fromIndex, int toIndex) {
+    Objects.checkFromToIndex(fromIndex, toIndex, size());
+    if (fromIndex == toIndex) {
+      return empty();
+    }
+    return new PersistentVector<>(count, shift, root, tail, start + fromIndex, start + toIndex);
+  }
+
+  /** Returns a vector with the elements of the other vector appended to the end. */
+  public PersistentVector<T> concat(PersistentVector<T> other) {
+    var vector = asTransient();
+    for (var value : other) {
+      vector.conj(value);
+    }
+    return vector.persistent();
+  }
+
+  /** Returns a vector with the elements sorted by their natural order. */
+  public PersistentVector<T> sorted() {
+    var array = toArray();
+    Arrays.sort(array);
+    @SuppressWarnings("unchecked") var values = (T[]) array;
+    return fromArray(values);
+  }
+
+  /**
+   * Returns a transient vector with the elements of this vector. The transient shares the trie
+   * with this vector and only copies the nodes it modifies, the first time it modifies them.
+   */
+  public TransientVector<T> asTransient() {
+    if (start == 0 && end == count) {
+      return new TransientVector<>(count, shift, root, tail);
+    }
+    TransientVector<T> transientVector = PersistentVector.<T>empty().asTransient();
+    for (var value : this) {
+      transientVector.conj(value);
+    }
+    return transientVector;
+  }
+
+  public Object[] toArray() {
+    var array = new Object[size()];
+    int i = 0;
+    for (var value : this) {
+      array[i++] = value;
+    }
+    return array;
+  }
+
+  @Override
+  public Iterator<T> iterator() {
+    return new Iterator<>() {
+      private int index = start;
+      private Object[] array = index < end ? arrayFor(index) : tail;
+
+      @Override
+      public boolean hasNext() {
+        return index < end;
+      }
+
+      @SuppressWarnings("unchecked")
+      @Override
+      public T next() {
+        if (!hasNext()) {
+          throw new NoSuchElementException();
+        }
+        // Only need to look up the leaf when crossing into a new one
+        if ((index & MASK) == 0) {
+          array = arrayFor(index);
+        }
+        return (T) array[index++ & MASK];
+      }
+    };
+  }
+
+  int tailOffset() {
+    return count < WIDTH ? 0 : ((count - 1) >>> BITS) << BITS;
+  }
+
+  /** Returns the leaf array that contains the element at the index of the trie. */
+  Object[] arrayFor(int trieIndex) {
+    if (trieIndex >= tailOffset()) {
+      return tail;
+    }
+    var node = root;
+    for (int level = shift; level > 0; level -= BITS) {
+      node = (Node) node.array[(trieIndex >>> level) & MASK];
+    }
+    return node.array;
+  }
+
+  private PersistentVector<T> assocTrie(int trieIndex, T value, int newStart, int newEnd) {
+    if (trieIndex >= tailOffset()) {
+      var newTail = tail.clone();
+      newTail[trieIndex & MASK] = value;
+      return new PersistentVector<>(count, shift, root, newTail, newStart, newEnd);
+    }
+    return new PersistentVector<>(count,
+        shift,
+        doAssoc(shift, root, trieIndex, value),
+        tail,
+        newStart,
+        newEnd);
+  }
+
+  private static Node doAssoc(int level, Node node, int trieIndex, Object value) {
+    var newNode = new Node(null, node.array.clone());
+    if (level == 0) {
+      newNode.array[trieIndex & MASK] = value;
+    } else {
+      var subIndex = (trieIndex >>> level) & MASK;
+      newNode.array[subIndex] = doAssoc(level - BITS, (Node) node.array[subIndex], trieIndex, value);
+    }
+    return newNode;
+  }
+
+  private Node pushTail(int level, Node parent, Node tailNode) {
+    var subIndex = ((count - 1) >>> level) & MASK;
+    var newParent = new Node(null, parent.array.clone());
+    Node nodeToInsert;
+    if (level == BITS) {
+      nodeToInsert = tailNode;
+    } else {
+      var child = (Node) parent.array[subIndex];
+      nodeToInsert = child != null ? pushTail(level - BITS, child, tailNode)
+          : newPath(null, level - BITS, tailNode);
+    }
+    newParent.array[subIndex] = nodeToInsert;
+    return newParent;
+  }
+
+  static Node newPath(@Nullable Object owner, int level, Node node) {
+    if (level == 0) {
+      return node;
+    }
+    var newNode = new Node(owner, new Object[WIDTH]);
+    newNode.array[0] = newPath(owner, level - BITS, node);
+    return newNode;
+  }
+
+  private Node popTail(int level, Node node) {
+    var subIndex = ((count - 2) >>> level) & MASK;
+    if (level > BITS) {
+      var newChild = popTail(level - BITS, (Node) node.array[subIndex]);
+      if (newChild == null && subIndex == 0) {
+        return null;
+      }
+      var newNode = new Node(null, node.array.clone());
+      newNode.array[subIndex] = newChild;
+      return newNode;
+    } else if (subIndex == 0) {
+      return null;
+    }
+    var newNode = new Node(null, node.array.clone());
+    newNode.array[subIndex] = null;
+    return newNode;
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) {
+      return true;
+    }
+    if (!(o instanceof PersistentVector<?> other) || size() != other.size()) {
+      return false;
+    }
+    var iter = iterator();
+    var otherIter = other.iterator();
+    while (iter.hasNext()) {
+      if (!Objects.equals(iter.next(), otherIter.next())) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  @Override
+  public int hashCode() {
+    int hash = 1;
+    for (var value : this) {
+      hash = 31 * hash + Objects.hashCode(value);
+    }
+    return hash;
+  }
+
+  @Override
+  public String toString() {
+    return Arrays.toString(toArray());
+  }
+}
@@ -17,6 +17,10 @@ public class Stdlib {
     return new ArrayList<>(Arrays.asList(arr));
   }
 
+  public static long intToLong(int value) {
+    return value;
+  }
+
   public static <T> boolean equals(T obj, T otherObj) {
     return Objects.equals(obj, otherObj);
   }
@@ -0,0 +1,91 @@
+package com.pentlander.sasquach.runtime;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.StructuredTaskScope;
+import java.util.concurrent.StructuredTaskScope.Subtask;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Runs groups of functions concurrently in a {@link StructuredTaskScope}, each on its own virtual
+ * thread. None of the functions outlive the call, if the group finishes early or times out the
+ * remaining functions are interrupted and waited for.
+ * <p>A timeout of zero or less means there's no timeout. The function arguments are typed as type
+ * parameters so Sasquach function values can be passed in.</p>
+ */
+public final class StructuredTasks {
+  private StructuredTasks() {
+  }
+
+  /**
+   * Runs all the functions and returns their results in the same order, or the failure of the
+   * first function that fails.
+   */
+  public static <T, F> TaskOutcome<PersistentVector<T>> all(PersistentVector<F> fns,
+      int timeoutMillis) {
+    try (var scope = new StructuredTaskScope.ShutdownOnFailure()) {
+      var subtasks = new ArrayList<Subtask<T>>(fns.size());
+      for (var fn : fns) {
+        subtasks.add(scope.fork(() -> call(fn)));
+      }
+      join(scope, timeoutMillis);
+      scope.throwIfFailed();
+
+      TransientVector<T> results = PersistentVector.<T>empty().asTransient();
+      for (var subtask : subtasks) {
+        results.conj(subtask.get());
+      }
+      return TaskOutcome.ok(results.persistent());
+    } catch (ExecutionException e) {
+      return TaskOutcome.failed(e.getCause());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return TaskOutcome.failed(e);
+    } catch (TimeoutException e) {
+      return TaskOutcome.failed(timedOut(timeoutMillis));
+    }
+  }
+
+  /**
+   * Runs all the functions and returns the result of the first one that succeeds, or a failure if
+   * they all fail.
+   */
+  public static <T, F> TaskOutcome<T> race(PersistentVector<F> fns, int timeoutMillis) {
+    if (fns.size() == 0) {
+      return TaskOutcome.failed("No tasks to race");
+    }
+    try (var scope = new StructuredTaskScope.ShutdownOnSuccess<T>()) {
+      for (var fn : fns) {
+        scope.fork(() -> call(fn));
+      }
+      join(scope, timeoutMillis);
+      return TaskOutcome.ok(scope.result());
+    } catch (ExecutionException e) {
+      return TaskOutcome.failed(e.getCause());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return TaskOutcome.failed(e);
+    } catch (TimeoutException e) {
+      return TaskOutcome.failed(timedOut(timeoutMillis));
+    }
+  }
+
+  private static void join(StructuredTaskScope<?> scope, int timeoutMillis)
+      throws InterruptedException, TimeoutException {
+    if (timeoutMillis > 0) {
+      scope.joinUntil(Instant.now().plusMillis(timeoutMillis));
+    } else {
+      scope.join();
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  private static <T> T call(Object fn) {
+    return (T) Funcs.call(fn);
+  }
+
+  private static String timedOut(int timeoutMillis) {
+    return "Tasks timed out after " + timeoutMillis + "ms";
+  }
+}
@@ -0,0 +1,21 @@
+package com.pentlander.sasquach.runtime;
+
+import org.jspecify.annotations.Nullable;
+
+/**
+ * Outcome of a task, either the value it returned or a description of why it failed. The std Task
+ * module converts it into a {@code Result.T}.
+ */
+public record TaskOutcome<T>(boolean isOk, @Nullable T value, @Nullable String error) {
+  static <T> TaskOutcome<T> ok(T value) {
+    return new TaskOutcome<>(true, value, null);
+  }
+
+  static <T> TaskOutcome<T> failed(Throwable throwable) {
+    return new TaskOutcome<>(false, null, throwable.toString());
+  }
+
+  static <T> TaskOutcome<T> failed(String error) {
+    return new TaskOutcome<>(false, null, error);
+  }
+}
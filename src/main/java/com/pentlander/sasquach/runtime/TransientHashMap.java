@@ -0,0 +1,72 @@
+package com.pentlander.sasquach.runtime;
+
+import com.pentlander.sasquach.runtime.PersistentHashMap.Change;
+import com.pentlander.sasquach.runtime.PersistentHashMap.Node;
+import org.jspecify.annotations.Nullable;
+
+/**
+ * Mutable hash map for building a {@link PersistentHashMap} in bulk.
+ * <p>Nodes are copied the first time they're modified and tagged with the transient as their
+ * owner, after which updates that don't change the shape of a node modify it in place.
+ * {@link #persistent()} freezes the transient into a persistent map in O(1) without copying the
+ * trie, after which the transient can't be used anymore.</p>
+ * <p>A transient must only be used by one thread at a time.</p>
+ */
+public final class TransientHashMap<K, V> {
+  private Node root;
+  private int size;
+  private @Nullable Object owner = new Object();
+
+  TransientHashMap(Node root, int size) {
+    this.root = root;
+    this.size = size;
+  }
+
+  public int size() {
+    ensureEditable();
+    return size;
+  }
+
+  /** Returns the value of the key, or null if the map doesn't contain the key. */
+  @SuppressWarnings("unchecked")
+  public @Nullable V get(int hash, K key) {
+    ensureEditable();
+    return (V) root.find(key, hash, 0, null);
+  }
+
+  /** Sets the key to the value and returns this transient. */
+  public TransientHashMap<K, V> assoc(int hash, K key, V value) {
+    ensureEditable();
+    var change = new Change();
+    root = root.assoc(owner, key, value, hash, 0, change);
+    if (change.sizeChanged) {
+      size++;
+    }
+    return this;
+  }
+
+  /** Removes the key and returns this transient. */
+  public TransientHashMap<K, V> dissoc(int hash, K key) {
+    ensureEditable();
+    var change = new Change();
+    root = root.dissoc(owner, key, hash, 0, change);
+    if (change.sizeChanged) {
+      size--;
+    }
+    return this;
+  }
+
+  /** Returns a persistent map with the entries of the transient. */
+  public PersistentHashMap<K, V> persistent() {
+    ensureEditable();
+    // Nodes owned by this transient can't be modified once the owner is cleared
+    owner = null;
+    return new PersistentHashMap<>(root, size);
+  }
+
+  private void ensureEditable() {
+    if (owner == null) {
+      throw new IllegalStateException("Transient used after it was made persistent");
+    }
+  }
+}
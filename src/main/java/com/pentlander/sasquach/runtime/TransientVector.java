@@ -0,0 +1,157 @@
+package com.pentlander.sasquach.runtime;
+
+import static com.pentlander.sasquach.runtime.PersistentVector.BITS;
+import static com.pentlander.sasquach.runtime.PersistentVector.MASK;
+import static com.pentlander.sasquach.runtime.PersistentVector.WIDTH;
+
+import com.pentlander.sasquach.runtime.PersistentVector.Node;
+import java.util.Arrays;
+import java.util.Objects;
+import org.jspecify.annotations.Nullable;
+
+/**
+ * Mutable vector for building a {@link PersistentVector} in bulk.
+ * <p>The transient starts out sharing the trie of a persistent vector. Nodes are copied the first
+ * time they're modified and tagged with the transient as their owner, after which they're modified
+ * in place, so appending doesn't copy the path to the tail on every call.
+ * {@link #persistent()} freezes the transient into a persistent vector in O(1) without copying the
+ * trie, after which the transient can't be used anymore.</p>
+ * <p>A transient must only be used by one thread at a time.</p>
+ */
+public final class TransientVector<T> {
+  private int count;
+  private int shift;
+  private Node root;
+  /** The tail always has room for a full leaf, only the first elements up to count are used. */
+  private Object[] tail;
+  private @Nullable Object owner = new Object();
+
+  TransientVector(int count, int shift, Node root, Object[] tail) {
+    this.count = count;
+    this.shift = shift;
+    this.root = new Node(owner, root.array.clone());
+    this.tail = Arrays.copyOf(tail, WIDTH);
+  }
+
+  public int size() {
+    ensureEditable();
+    return count;
+  }
+
+  @SuppressWarnings("unchecked")
+  public T get(int index) {
+    ensureEditable();
+    Objects.checkIndex(index, count);
+    return (T) arrayFor(index)[index & MASK];
+  }
+
+  /** Appends the value to the end of the vector and returns this transient. */
+  public TransientVector<T> conj(T value) {
+    ensureEditable();
+    if (count - tailOffset() < WIDTH) {
+      tail[count & MASK] = value;
+      count++;
+      return this;
+    }
+
+    // The tail is full, so push it into the trie and start a new one
+    var tailNode = new Node(owner, tail);
+    tail = new Object[WIDTH];
+    tail[0] = value;
+    if ((count >>> BITS) > (1 << shift)) {
+      // The trie is full, so add a level
+      var newRoot = new Node(owner, new Object[WIDTH]);
+      newRoot.array[0] = root;
+      newRoot.array[1] = PersistentVector.newPath(owner, shift, tailNode);
+      root = newRoot;
+      shift += BITS;
+    } else {
+      root = pushTail(shift, root, tailNode);
+    }
+    count++;
+    return this;
+  }
+
+  /** Appends the values of the vector to the end of this vector and returns this transient. */
+  public TransientVector<T> conjAll(PersistentVector<T> values) {
+    for (var value : values) {
+      conj(value);
+    }
+    return this;
+  }
+
+  /** Replaces the value at the index and returns this transient. */
+  public TransientVector<T> assoc(int index, T value) {
+    ensureEditable();
+    Objects.checkIndex(index, count);
+    if (index >= tailOffset()) {
+      tail[index & MASK] = value;
+    } else {
+      root = doAssoc(shift, root, index, value);
+    }
+    return this;
+  }
+
+  /** Returns a persistent vector with the elements of the transient. */
+  public PersistentVector<T> persistent() {
+    ensureEditable();
+    // Nodes owned by this transient can't be modified once the owner is cleared
+    owner = null;
+    var trimmedTail = Arrays.copyOf(tail, count - tailOffset());
+    return new PersistentVector<>(count, shift, root, trimmedTail);
+  }
+
+  private void ensureEditable() {
+    if (owner == null) {
+      throw new IllegalStateException("Transient used after it was made persistent");
+    }
+  }
+
+  private Node editableNode(Node node) {
+    return node.owner == owner ? node : new Node(owner, node.array.clone());
+  }
+
+  private int tailOffset() {
+    return count < WIDTH ? 0 : ((count - 1) >>> BITS) << BITS;
+  }
+
+  private Object[] arrayFor(int index) {
+    if (index >= tailOffset()) {
+      return tail;
+    }
+    var node = root;
+    for (int level = shift; level > 0; level -= BITS) {
+      node = (Node) node.array[(index >>> level) & MASK];
+    }
+    return node.array;
+  }
+
+  private Node doAssoc(int level, Node node, int index, Object value) {
+    var editableNode = editableNode(node);
+    if (level == 0) {
+      editableNode.array[index & MASK] = value;
+    } else {
+      var subIndex = (index >>> level) & MASK;
+      editableNode.array[subIndex] = doAssoc(level - BITS,
+          (Node) node.array[subIndex],
+          index,
+          value);
+    }
+    return editableNode;
+  }
+
+  private Node pushTail(int level, Node parent, Node tailNode) {
+    var editableParent = editableNode(parent);
+    var subIndex = ((count - 1) >>> level) & MASK;
+    Node nodeToInsert;
+    if (level == BITS) {
+      nodeToInsert = tailNode;
+    } else {
+      var child = (Node) editableParent.array[subIndex];
+      nodeToInsert = child != null ? pushTail(level - BITS, child, tailNode)
+          : PersistentVector.newPath(owner, level - BITS, tailNode);
+    }
+    editableParent.array[subIndex] = nodeToInsert;
+    return editableParent;
+  }
+}
@@ -0,0 +1,73 @@
+package com.pentlander.sasquach.runtime;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Function running on its own virtual thread. Blocking in the function only blocks the virtual
+ * thread, so thousands of tasks can block on IO at once without a thread pool.
+ * <p>The function argument is typed as a type parameter so a Sasquach function value can be passed
+ * in.</p>
+ */
+public final class VirtualTask<T> {
+  private final CompletableFuture<T> future = new CompletableFuture<>();
+  private final Thread thread;
+
+  private <F> VirtualTask(F fn) {
+    thread = Thread.ofVirtual().name("sasquach-task").start(() -> {
+      try {
+        @SuppressWarnings("unchecked") var value = (T) Funcs.call(fn);
+        future.complete(value);
+      } catch (Throwable e) {
+        future.completeExceptionally(e);
+      }
+    });
+  }
+
+  public static <T, F> VirtualTask<T> start(F fn) {
+    return new VirtualTask<>(fn);
+  }
+
+  /** Waits for the task to finish. */
+  public TaskOutcome<T> join() {
+    try {
+      return TaskOutcome.ok(future.get());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return TaskOutcome.failed(e);
+    } catch (ExecutionException e) {
+      return TaskOutcome.failed(e.getCause());
+    } catch (CancellationException e) {
+      return TaskOutcome.failed("Task was cancelled");
+    }
+  }
+
+  /**
+   * Waits for the task to finish for at most the timeout. The task keeps running if it times
+   * out.
+   */
+  public TaskOutcome<T> join(int timeoutMillis) {
+    try {
+      return TaskOutcome.ok(future.get(timeoutMillis, TimeUnit.MILLISECONDS));
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return TaskOutcome.failed(e);
+    } catch (ExecutionException e) {
+      return TaskOutcome.failed(e.getCause());
+    } catch (CancellationException e) {
+      return TaskOutcome.failed("Task was cancelled");
+    } catch (TimeoutException e) {
+      return TaskOutcome.failed("Task timed out after " + timeoutMillis + "ms");
+    }
+  }
+
+  /** Interrupts the task's thread. Joining a cancelled task fails. */
+  public void cancel() {
+    if (future.cancel(true)) {
+      thread.interrupt();
+    }
+  }
+}
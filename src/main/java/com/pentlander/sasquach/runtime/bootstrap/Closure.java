@@ -0,0 +1,57 @@
+package com.pentlander.sasquach.runtime.bootstrap;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+
+/**
+ * Base class of the classes generated for anonymous functions.
+ * <p>Each anonymous function gets its own hidden subclass that holds the captured variables in
+ * typed fields and has an {@code invoke} method that calls the function with them. See
+ * {@link ClosureGenerator}.</p>
+ */
+public abstract non-sealed class Closure implements Func {
+  static final String INVOKE_METHOD = "invoke";
+
+  private static final jdk.dynalink.linker.support.Lookup LOOKUP = new jdk.dynalink.linker.support.Lookup(
+      MethodHandles.lookup());
+
+  private static final ClassValue<MethodHandle> INVOKERS = new ClassValue<>() {
+    @Override
+    protected MethodHandle computeValue(Class<?> type) {
+      for (var method : type.getDeclaredMethods()) {
+        if (method.getName().equals(INVOKE_METHOD)) {
+          return LOOKUP.unreflect(method);
+        }
+      }
+      throw new IllegalArgumentException("Closure class has no invoke method: " + type);
+    }
+  };
+
+  private static final ClassValue<MethodHandle> GENERIC_INVOKERS = new ClassValue<>() {
+    @Override
+    protected MethodHandle computeValue(Class<?> type) {
+      var invoker = INVOKERS.get(type);
+      return invoker.asType(MethodType.genericMethodType(invoker.type().parameterCount()));
+    }
+  };
+
+  protected Closure() {
+  }
+
+  /**
+   * Returns a handle of type (ClosureClass, Param0, Param1, ...)ReturnType that invokes the
+   * anonymous function with the captures of the closure.
+   */
+  static MethodHandle invoker(Class<? extends Closure> closureClass) {
+    return INVOKERS.get(closureClass);
+  }
+
+  /**
+   * Returns a handle of type (Object, Object...)Object that invokes the anonymous function with
+   * the closure as the first argument. Primitive params and return values are boxed.
+   */
+  public static MethodHandle genericInvoker(Class<? extends Closure> closureClass) {
+    return GENERIC_INVOKERS.get(closureClass);
+  }
+}
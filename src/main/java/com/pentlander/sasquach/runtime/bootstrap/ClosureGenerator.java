@@ -0,0 +1,91 @@
+package com.pentlander.sasquach.runtime.bootstrap;
+
+import java.lang.classfile.ClassFile;
+import java.lang.classfile.TypeKind;
+import java.lang.constant.ClassDesc;
+import java.lang.constant.ConstantDescs;
+import java.lang.constant.MethodTypeDesc;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.AccessFlag;
+
+/** Generates the classes that hold the captures of anonymous functions. */
+final class ClosureGenerator {
+  private static final ClassDesc CD_CLOSURE = Closure.class.describeConstable().orElseThrow();
+
+  private ClosureGenerator() {
+  }
+
+  /**
+   * Generates a subclass of {@link Closure} for the anonymous function. The first
+   * {@code captureCount} parameters of the function are stored in fields by the constructor and the
+   * remaining parameters are the parameters of the {@code invoke} method.
+   *
+   * @param ownerClass class that contains the static method implementing the anonymous function.
+   * @param funcName name of the static method implementing the anonymous function.
+   * @param funcType type of the static method, including the captures.
+   * @param captureCount number of leading parameters of the method that are captures.
+   */
+  static byte[] generateClosure(Class<?> ownerClass, String funcName, MethodType funcType,
+      int captureCount) {
+    var ownerDesc = ownerClass.describeConstable().orElseThrow();
+    var funcTypeDesc = funcType.describeConstable().orElseThrow();
+    var closureDesc = ClassDesc.of(ownerClass.getName() + "$" + funcName);
+    var captureDescs = funcTypeDesc.parameterList().subList(0, captureCount);
+    var paramDescs = funcTypeDesc.parameterList().subList(captureCount,
+        funcTypeDesc.parameterCount());
+
+    var classFileBytes = ClassFile.of().build(closureDesc, clb -> {
+      clb.withFlags(AccessFlag.PUBLIC, AccessFlag.FINAL, AccessFlag.SYNTHETIC)
+          .withSuperclass(CD_CLOSURE);
+
+      for (int i = 0; i < captureDescs.size(); i++) {
+        clb.withField(captureName(i), captureDescs.get(i), ClassFile.ACC_PRIVATE + ClassFile.ACC_FINAL);
+      }
+
+      clb.withMethodBody(
+          ConstantDescs.INIT_NAME,
+          MethodTypeDesc.of(ConstantDescs.CD_void, captureDescs),
+          ClassFile.ACC_PUBLIC,
+          cob -> {
+            cob.aload(0)
+                .invokespecial(CD_CLOSURE, ConstantDescs.INIT_NAME, ConstantDescs.MTD_void);
+
+            int slot = 1;
+            for (int i = 0; i < captureDescs.size(); i++) {
+              var captureDesc = captureDescs.get(i);
+              var typeKind = TypeKind.from(captureDesc);
+              cob.aload(0)
+                  .loadInstruction(typeKind, slot)
+                  .putfield(closureDesc, captureName(i), captureDesc);
+              slot += typeKind.slotSize();
+            }
+            cob.return_();
+          });
+
+      clb.withMethodBody(
+          Closure.INVOKE_METHOD,
+          MethodTypeDesc.of(funcTypeDesc.returnType(), paramDescs),
+          ClassFile.ACC_PUBLIC + ClassFile.ACC_FINAL,
+          cob -> {
+            for (int i = 0; i < captureDescs.size(); i++) {
+              cob.aload(0).getfield(closureDesc, captureName(i), captureDescs.get(i));
+            }
+            int slot = 1;
+            for (var paramDesc : paramDescs) {
+              var typeKind = TypeKind.from(paramDesc);
+              cob.loadInstruction(typeKind, slot);
+              slot += typeKind.slotSize();
+            }
+            cob.invokestatic(ownerDesc, funcName, funcTypeDesc)
+                .returnInstruction(TypeKind.from(funcTypeDesc.returnType()));
+          });
+    });
+
+    assert ClassFile.of().verify(classFileBytes).isEmpty();
+    return classFileBytes;
+  }
+
+  private static String captureName(int idx) {
+    return "capture" + idx;
+  }
+}
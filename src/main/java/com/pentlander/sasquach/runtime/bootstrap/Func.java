@@ -3,25 +3,71 @@ package com.pentlander.sasquach.runtime.bootstrap;
 import java.lang.constant.ClassDesc;
 import java.lang.invoke.MethodHandle;
 import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.Arrays;
+import java.util.Objects;
+import jdk.dynalink.StandardOperation;
+import org.jspecify.annotations.Nullable;
 
-public sealed interface Func {
+public sealed interface Func permits Func.NamedFunc, Closure {
   ClassDesc CD = Func.class.describeConstable().orElseThrow();
 
-  record NamedFunc(Object inner) implements Func {
-  }
+  final class NamedFunc implements Func {
+    /** Max arity of the functions called from Java, see {@link #invoker(int)}. */
+    private static final int MAX_INVOKER_ARITY = 2;
 
-  record AnonFunc(MethodHandle inner) implements Func {}
+    private final Object inner;
+    /** Invokers by arity, created the first time the function is called from Java. */
+    private final @Nullable MethodHandle[] invokers = new MethodHandle[MAX_INVOKER_ARITY + 1];
 
-  static Func named(Object inner) {
-    return new NamedFunc(inner);
-  }
+    NamedFunc(Object inner) {
+      this.inner = inner;
+    }
+
+    public Object inner() {
+      return inner;
+    }
 
-  static Func anon(MethodHandle methodHandle, Object[] captures) {
-    return new AnonFunc(MethodHandles.insertArguments(methodHandle, 0, captures));
+    /**
+     * Returns a handle of type (Object...)Object that calls the function with the given number of
+     * args. The handle calls the function through a call site of its own, which is bootstrapped
+     * once per function value and arity rather than every time the function is bound.
+     */
+    public MethodHandle invoker(int arity) {
+      Objects.checkIndex(arity, invokers.length);
+      var invoker = invokers[arity];
+      if (invoker == null) {
+        // The call site takes the function and the receiver, which is null for function values
+        var paramTypes = new Class<?>[arity + 2];
+        Arrays.fill(paramTypes, Object.class);
+        paramTypes[0] = Func.class;
+        var callSiteInvoker = StructDispatch.bootstrapMember(MethodHandles.lookup(),
+            StandardOperation.CALL.toString(),
+            MethodType.methodType(Object.class, paramTypes)).dynamicInvoker();
+        // Racing threads may both create an invoker, either one works
+        invoker = MethodHandles.insertArguments(callSiteInvoker, 0, this, null);
+        invokers[arity] = invoker;
+      }
+      return invoker;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      return o instanceof NamedFunc namedFunc && Objects.equals(inner, namedFunc.inner);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hashCode(inner);
+    }
+
+    @Override
+    public String toString() {
+      return "NamedFunc[inner=" + inner + "]";
+    }
   }
 
-  static boolean namedFuncEquals(Object funcA, Object targetA, Object funcB, Object targetB) {
-    return (funcA.equals(funcB) || funcA instanceof NamedFunc nfa && nfa.inner().equals(funcB)
-        || funcB instanceof NamedFunc nfb && nfb.inner().equals(funcA)) && targetA.equals(targetB);
+  static Func named(Object inner) {
+    return new NamedFunc(inner);
   }
 }
@@ -7,24 +7,12 @@ import java.lang.constant.DynamicCallSiteDesc;
 import java.lang.constant.MethodTypeDesc;
 import java.lang.invoke.CallSite;
 import java.lang.invoke.ConstantCallSite;
-import java.lang.invoke.MethodHandle;
 import java.lang.invoke.MethodHandles;
 import java.lang.invoke.MethodHandles.Lookup;
+import java.lang.invoke.MethodHandles.Lookup.ClassOption;
 import java.lang.invoke.MethodType;
 
 public final class FuncBootstrap {
-  private static final jdk.dynalink.linker.support.Lookup LOOKUP = new jdk.dynalink.linker.support.Lookup(
-      MethodHandles.lookup());
-
-  private static final MethodHandle MH_FUNC_ANON = LOOKUP.findStatic(
-      Func.class,
-      "anon",
-      MethodType.methodType(Func.class, MethodHandle.class, Object[].class));
-  private static final MethodTypeDesc MTD_FUNC_ANON = MH_FUNC_ANON.describeConstable()
-      .orElseThrow()
-      .invocationType()
-      .dropParameterTypes(0, 1);
-
   private static final MethodTypeDesc MTD_BOOTSTRAP_FUNC_INIT = bootstrapMethodTypeDesc(MethodType.class);
 
   public static final DirectMethodHandleDesc MHD_BOOTSTRAP_FUNC_INIT = methodHandleDesc(
@@ -32,22 +20,42 @@ public final class FuncBootstrap {
       "bootstrapFuncInit",
       MTD_BOOTSTRAP_FUNC_INIT);
 
-  public static DynamicCallSiteDesc bootstrapFuncInit(String funcName, MethodTypeDesc funcTypeDesc) {
-    return DynamicCallSiteDesc.of(MHD_BOOTSTRAP_FUNC_INIT, funcName, MTD_FUNC_ANON, funcTypeDesc);
+  /**
+   * Returns a call site that creates a {@link Func} for the anonymous function. The call site takes
+   * the captures of the function, which are the first {@code captureCount} parameters of the
+   * function type.
+   */
+  public static DynamicCallSiteDesc bootstrapFuncInit(String funcName, MethodTypeDesc funcTypeDesc,
+      int captureCount) {
+    var invocationType = MethodTypeDesc.of(Func.CD,
+        funcTypeDesc.parameterList().subList(0, captureCount));
+    return DynamicCallSiteDesc.of(MHD_BOOTSTRAP_FUNC_INIT, funcName, invocationType, funcTypeDesc);
   }
 
+  /**
+   * Links a call site that creates a closure for the anonymous function. A class holding the
+   * captures is generated once per anonymous function, so creating a closure only allocates a
+   * single object.
+   */
   public static CallSite bootstrapFuncInit(Lookup lookup, String invokedName,
       MethodType invocationType, MethodType funcMethodType) {
+    var captureCount = invocationType.parameterCount();
     try {
-      var anonFuncMethodHandle = lookup.findStatic(
-          lookup.lookupClass(),
+      var classFileBytes = ClosureGenerator.generateClosure(lookup.lookupClass(),
           invokedName,
-          funcMethodType);
-      return new ConstantCallSite(MethodHandles.insertArguments(
-          MH_FUNC_ANON,
-          0,
-          anonFuncMethodHandle));
-    } catch (NoSuchMethodException | IllegalAccessException e) {
+          funcMethodType,
+          captureCount);
+      var closureLookup = lookup.defineHiddenClass(classFileBytes, true, ClassOption.NESTMATE);
+      var constructor = closureLookup.findConstructor(closureLookup.lookupClass(),
+          funcMethodType.dropParameterTypes(captureCount, funcMethodType.parameterCount())
+              .changeReturnType(void.class));
+      if (captureCount == 0) {
+        // Closures without captures are all the same, so a single instance can be shared
+        var closure = (Func) constructor.invoke();
+        return new ConstantCallSite(MethodHandles.constant(Func.class, closure));
+      }
+      return new ConstantCallSite(constructor.asType(invocationType));
+    } catch (Throwable e) {
       throw new LinkageError("Failed to link func init", e);
     }
   }
@@ -0,0 +1,25 @@
+package com.pentlander.sasquach.runtime.bootstrap;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts how many times call sites have been linked.
+ * <p>A call site that has reached a steady state stops being relinked, so the counts should stop
+ * growing once a program has warmed up. A count that grows with the number of invocations means
+ * a guard is too specific.</p>
+ */
+public final class LinkCounters {
+  private static final LongAdder FUNC_CALL_LINKS = new LongAdder();
+
+  private LinkCounters() {
+  }
+
+  static void funcCallLinked() {
+    FUNC_CALL_LINKS.increment();
+  }
+
+  /** Returns the number of times a call of a function value has been linked. */
+  public static long funcCallLinks() {
+    return FUNC_CALL_LINKS.sum();
+  }
+}
@@ -11,6 +11,7 @@ import java.lang.invoke.CallSite;
 import java.lang.invoke.MethodHandles.Lookup;
 import java.lang.invoke.MethodType;
 import java.util.Arrays;
+import jdk.dynalink.CallSiteDescriptor;
 import jdk.dynalink.DynamicLinker;
 import jdk.dynalink.DynamicLinkerFactory;
 import jdk.dynalink.Operation;
@@ -35,11 +36,18 @@ public final class StructDispatch {
       "bootstrapSpread",
       MTD_BOOTSTRAP_SPREAD);
 
+  /**
+   * Max number of invocations a call site chains before it's considered megamorphic and linked
+   * to an invocation that handles any receiver.
+   */
+  static final int POLYMORPHIC_CACHE_DEPTH = 8;
+
   private static final DynamicLinker DYNAMIC_LINKER;
 
   static {
     var linkerFactory = new DynamicLinkerFactory();
-    linkerFactory.setPrioritizedLinkers(new StructLinker());
+    linkerFactory.setPrioritizedLinkers(new StructLinker(), new StructFieldLinker());
+    linkerFactory.setUnstableRelinkThreshold(POLYMORPHIC_CACHE_DEPTH);
     DYNAMIC_LINKER = linkerFactory.createLinker();
   }
 
@@ -71,7 +79,7 @@ public final class StructDispatch {
   }
 
   public static CallSite bootstrapMember(Lookup caller, String invokedName, MethodType invokedType, Object... values) {
-    return DYNAMIC_LINKER.link(new ChainedCallSite(new StructCallSiteDesc(caller,
+    return DYNAMIC_LINKER.link(new StructCallSite(new StructCallSiteDesc(caller,
         parseOperation(invokedName),
         invokedType,
         values)));
@@ -82,10 +90,20 @@ public final class StructDispatch {
   // the names of the fields in the order they are assigned
   public static CallSite bootstrapSpread(Lookup caller, String invokedName, MethodType invokedType,
       Object... fieldNames) {
-    return DYNAMIC_LINKER.link(new ChainedCallSite(new StructCallSiteDesc(caller,
+    return DYNAMIC_LINKER.link(new StructCallSite(new StructCallSiteDesc(caller,
         StructOperation.STRUCT_INIT,
         invokedType,
         fieldNames)));
   }
 
+  private static final class StructCallSite extends ChainedCallSite {
+    StructCallSite(CallSiteDescriptor descriptor) {
+      super(descriptor);
+    }
+
+    @Override
+    protected int getMaxChainLength() {
+      return POLYMORPHIC_CACHE_DEPTH;
+    }
+  }
 }
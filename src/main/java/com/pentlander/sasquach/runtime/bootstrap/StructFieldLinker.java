@@ -0,0 +1,110 @@
+package com.pentlander.sasquach.runtime.bootstrap;
+
+import com.pentlander.sasquach.runtime.StructBase;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.invoke.SwitchPoint;
+import jdk.dynalink.NamedOperation;
+import jdk.dynalink.NamespaceOperation;
+import jdk.dynalink.StandardNamespace;
+import jdk.dynalink.StandardOperation;
+import jdk.dynalink.linker.GuardedInvocation;
+import jdk.dynalink.linker.GuardingDynamicLinker;
+import jdk.dynalink.linker.LinkRequest;
+import jdk.dynalink.linker.LinkerServices;
+import jdk.dynalink.linker.support.Guards;
+import org.jspecify.annotations.Nullable;
+
+/**
+ * Links field accesses on structs.
+ * <p>While a call site sees a small number of struct classes, each class is linked with a guard
+ * that checks for that exact class. The call site chains the invocations, forming a polymorphic
+ * inline cache. Once the call site has been relinked too many times it is considered megamorphic
+ * and is linked to an invocation without a guard, which looks up a getter for the receiver's class
+ * in a {@link ClassValue} of the call site. The getter has the type of the call site, so primitive
+ * fields aren't boxed. If the receiver doesn't have the field, the invocation throws and the call
+ * site is relinked.</p>
+ * <p>Field accesses that don't refer to a struct field (e.g. module functions) are left for the
+ * fallback linker.</p>
+ */
+final class StructFieldLinker implements GuardingDynamicLinker {
+  private static final jdk.dynalink.linker.support.Lookup LOOKUP = new jdk.dynalink.linker.support.Lookup(
+      MethodHandles.lookup());
+
+  private static final MethodHandle MH_GETTER_FOR = LOOKUP.findOwnStatic(
+      "getterFor",
+      MethodHandle.class,
+      ClassValue.class,
+      Object.class);
+
+  /** Thrown by a megamorphic field access if the receiver doesn't have the field. */
+  private static final class MissingFieldException extends RuntimeException {
+    private static final MissingFieldException INSTANCE = new MissingFieldException();
+
+    private MissingFieldException() {
+      super(null, null, false, false);
+    }
+  }
+
+  @Nullable
+  @Override
+  public GuardedInvocation getGuardedInvocation(LinkRequest linkRequest,
+      LinkerServices linkerServices) {
+    var callSiteDesc = linkRequest.getCallSiteDescriptor();
+    var operation = callSiteDesc.getOperation();
+    var namespaceOp = NamedOperation.getBaseOperation(operation);
+    if (!NamespaceOperation.contains(namespaceOp, StandardOperation.GET, StandardNamespace.PROPERTY)
+        || !(NamedOperation.getName(operation) instanceof String fieldName)
+        || !(linkRequest.getReceiver() instanceof StructBase struct)) {
+      return null;
+    }
+
+    var structClass = struct.getClass();
+    var getter = StructFields.of(structClass).getter(fieldName);
+    if (getter == null) {
+      return null;
+    }
+
+    var callSiteType = callSiteDesc.getMethodType();
+    if (linkRequest.isCallSiteUnstable()) {
+      return new GuardedInvocation(megamorphicGetter(fieldName, callSiteType, linkerServices),
+          null,
+          (SwitchPoint) null,
+          MissingFieldException.class);
+    }
+    return new GuardedInvocation(getter, Guards.getClassGuard(structClass)).asType(linkerServices,
+        callSiteType);
+  }
+
+  /**
+   * Returns a handle of the call site's type that gets the field from any receiver that has it,
+   * or throws {@link MissingFieldException} if the receiver doesn't have it.
+   */
+  private static MethodHandle megamorphicGetter(String fieldName, MethodType callSiteType,
+      LinkerServices linkerServices) {
+    var missingField = MethodHandles.dropArguments(MethodHandles.insertArguments(
+            MethodHandles.throwException(callSiteType.returnType(), MissingFieldException.class),
+            0,
+            MissingFieldException.INSTANCE),
+        0,
+        callSiteType.parameterList());
+    var getters = new ClassValue<MethodHandle>() {
+      @Override
+      protected MethodHandle computeValue(Class<?> type) {
+        var getter = StructBase.class.isAssignableFrom(type) ? StructFields.of(type)
+            .getter(fieldName) : null;
+        return getter != null ? linkerServices.asType(getter, callSiteType) : missingField;
+      }
+    };
+    // Looks up the getter for the receiver's class, then invokes it with the receiver
+    var getterFor = MethodHandles.insertArguments(MH_GETTER_FOR, 0, getters)
+        .asType(MethodType.methodType(MethodHandle.class, callSiteType.parameterType(0)));
+    return MethodHandles.foldArguments(MethodHandles.exactInvoker(callSiteType), getterFor);
+  }
+
+  @SuppressWarnings("unused")
+  private static MethodHandle getterFor(ClassValue<MethodHandle> getters, Object receiver) {
+    return getters.get(receiver.getClass());
+  }
+}
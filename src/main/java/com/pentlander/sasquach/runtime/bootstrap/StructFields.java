@@ -0,0 +1,60 @@
+package com.pentlander.sasquach.runtime.bootstrap;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.Modifier;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.SequencedMap;
+import org.jspecify.annotations.Nullable;
+
+/**
+ * Field metadata of a struct class.
+ * <p>The metadata is computed once per class and cached, so linking a field access doesn't need to
+ * reflect over the class again.</p>
+ */
+final class StructFields {
+  private static final jdk.dynalink.linker.support.Lookup LOOKUP = new jdk.dynalink.linker.support.Lookup(
+      MethodHandles.lookup());
+
+  private static final ClassValue<StructFields> STRUCT_FIELDS = new ClassValue<>() {
+    @Override
+    protected StructFields computeValue(Class<?> type) {
+      return new StructFields(type);
+    }
+  };
+
+  private final SequencedMap<String, Class<?>> fieldTypes;
+  private final Map<String, MethodHandle> getters;
+
+  private StructFields(Class<?> structClass) {
+    var fieldTypes = new LinkedHashMap<String, Class<?>>();
+    var getters = new LinkedHashMap<String, MethodHandle>();
+    for (var field : structClass.getDeclaredFields()) {
+      // Non-public fields aren't struct fields, e.g. the cached hash code
+      if (Modifier.isStatic(field.getModifiers()) || !Modifier.isPublic(field.getModifiers())) {
+        continue;
+      }
+      fieldTypes.put(field.getName(), field.getType());
+      var getter = LOOKUP.unreflectGetter(field);
+      getters.put(field.getName(), getter);
+    }
+    this.fieldTypes = Collections.unmodifiableSequencedMap(fieldTypes);
+    this.getters = getters;
+  }
+
+  static StructFields of(Class<?> structClass) {
+    return STRUCT_FIELDS.get(structClass);
+  }
+
+  /** Returns the types of the instance fields in the order they are declared. */
+  SequencedMap<String, Class<?>> fieldTypes() {
+    return fieldTypes;
+  }
+
+  /** Returns a getter of type (StructClass)FieldType, or null if the field doesn't exist. */
+  @Nullable MethodHandle getter(String fieldName) {
+    return getters.get(fieldName);
+  }
+}
@@ -42,18 +42,25 @@ public final class StructGenerator {
               var fieldType = entry.getValue();
               var typeKind = TypeKind.from(fieldType);
               cob.aload(0)
-                  .loadInstruction(typeKind, slot++)
+                  .loadInstruction(typeKind, slot)
                   .putfield(structDesc, fieldName, fieldType);
+              slot += typeKind.slotSize();
             }
             cob.return_();
           });
     });
 
+    // Verifying is expensive and the generated class only depends on the field types, so only
+    // verify when assertions are enabled
+    assert verify(classFileBytes);
+    return classFileBytes;
+  }
+
+  private static boolean verify(byte[] classFileBytes) {
     var errors = ClassFile.of().verify(classFileBytes);
     if (!errors.isEmpty()) {
       throw errors.getFirst();
     }
-
-    return classFileBytes;
+    return true;
   }
 }
@@ -1,19 +1,17 @@
 package com.pentlander.sasquach.runtime.bootstrap;
 
 import com.pentlander.sasquach.runtime.StructBase;
-import com.pentlander.sasquach.runtime.bootstrap.Func.AnonFunc;
 import com.pentlander.sasquach.runtime.bootstrap.Func.NamedFunc;
 import java.lang.constant.ClassDesc;
 import java.lang.invoke.MethodHandle;
 import java.lang.invoke.MethodHandles;
 import java.lang.invoke.MethodHandles.Lookup;
-import java.lang.invoke.MethodHandles.Lookup.ClassOption;
 import java.lang.invoke.MethodType;
-import java.lang.reflect.Field;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Supplier;
 import jdk.dynalink.CallSiteDescriptor;
 import jdk.dynalink.Operation;
@@ -30,22 +28,41 @@ final class StructLinker implements GuardingDynamicLinker, GuardingTypeConverter
   private static final jdk.dynalink.linker.support.Lookup LOOKUP = new jdk.dynalink.linker.support.Lookup(
       MethodHandles.lookup());
 
-  private static final MethodHandle CHECK_CLASSES = LOOKUP.findOwnStatic(
-      "checkClasses",
+  private static final MethodHandle IS_NAMED_FUNC = LOOKUP.findOwnStatic(
+      "isNamedFunc",
       boolean.class,
-      List.class,
-      Object[].class);
-
-  private static final MethodHandle NAMED_FUNC_EQUALS = LOOKUP.findStatic(
-      Func.class,
-      "namedFuncEquals",
-      MethodType.methodType(boolean.class, Object.class, Object.class, Object.class, Object.class));
+      Object.class,
+      Class.class,
+      Object.class,
+      Object.class);
 
   private static final MethodHandle MH_NAMED_FUNC = LOOKUP.findStatic(
       Func.class,
       "named",
       MethodType.methodType(Func.class, Object.class));
 
+  /**
+   * Spread struct classes and the handles that construct them, cached per nest host of the call
+   * site's class. Every spread in a module and its closures that produces the same field names and
+   * types shares a single class, so a hidden class is only generated the first time a shape is seen
+   * rather than every time a call site is linked. The cache is held in a {@link ClassValue} so it
+   * doesn't keep the module's class loader alive.
+   */
+  private static final ClassValue<SpreadCache> SPREAD_CACHES = new ClassValue<>() {
+    @Override
+    protected SpreadCache computeValue(Class<?> type) {
+      return new SpreadCache(new ConcurrentHashMap<>(), new ConcurrentHashMap<>());
+    }
+  };
+
+  private record SpreadCache(ConcurrentHashMap<StructShape, Class<?>> structClasses,
+                             ConcurrentHashMap<SpreadKey, MethodHandle> handles) {}
+
+  private record StructShape(List<String> fieldNames, List<Class<?>> fieldTypes) {}
+
+  private record SpreadKey(Class<?> structClass, List<String> fieldNames,
+                           List<Class<?>> argClasses) {}
+
   @Override
   public GuardedInvocation convertToType(Class<?> sourceType, Class<?> targetType,
       Supplier<Lookup> lookupSupplier) {
@@ -61,23 +78,19 @@ final class StructLinker implements GuardingDynamicLinker, GuardingTypeConverter
   private static IdxMethodHandle findStructFieldHandle(String fieldName,
       List<Class<?>> structClasses) {
     for (int i = 0; i < structClasses.size(); i++) {
-      var structClass = structClasses.get(i);
-      for (var field : structClass.getDeclaredFields()) {
-        if (field.getName().equals(fieldName)) {
-          return new IdxMethodHandle(i, LOOKUP.unreflectGetter(field));
-        }
+      var getter = StructFields.of(structClasses.get(i)).getter(fieldName);
+      if (getter != null) {
+        return new IdxMethodHandle(i, getter);
       }
     }
     throw new RuntimeException("Unable to find matching field: " + fieldName);
   }
 
-  public static MethodHandle spreadHandle(MethodType invokedType, Object[] fieldNameObjs) {
+  public static MethodHandle spreadHandle(MethodType invokedType, List<String> fieldNames) {
     var targetClass = invokedType.returnType();
-    var targetConstructor = targetClass.getConstructors()[0];
-    var targetFieldNames = Arrays.stream(targetClass.getDeclaredFields())
-        .map(Field::getName)
-        .toList();
-    var fieldNames = Arrays.stream(fieldNameObjs).map(String.class::cast).toList();
+    var targetFieldNames = List.copyOf(StructFields.of(targetClass).fieldTypes().sequencedKeySet());
+    // Generated structs only have a single constructor that takes the fields in declaration order
+    var targetConstructor = LOOKUP.unreflectConstructor(targetClass.getConstructors()[0]);
 
     // Need to take the constructor for the target class transform it such that it accesses the
     // fields and objects in the spread to match the signature
@@ -85,11 +98,12 @@ final class StructLinker implements GuardingDynamicLinker, GuardingTypeConverter
     // Need to create a method type with the same number of args as the constructor where all of the
     // fields supplied are as-is but all of the spreads coming from objects are just of the type of
     // the object they're coming from
-    var reorder = new int[targetConstructor.getParameterCount()];
-    var fieldHandles = new MethodHandle[targetConstructor.getParameterCount()];
+    var paramCount = targetConstructor.type().parameterCount();
+    var reorder = new int[paramCount];
+    var fieldHandles = new MethodHandle[paramCount];
     var params = invokedType.parameterList();
     var structParams = params.subList(fieldNames.size(), params.size());
-    for (int i = 0; i < targetConstructor.getParameterCount(); i++) {
+    for (int i = 0; i < paramCount; i++) {
       var targetFieldName = targetFieldNames.get(i);
       var paramIdx = fieldNames.indexOf(targetFieldName);
       if (paramIdx != -1) {
@@ -97,16 +111,68 @@ final class StructLinker implements GuardingDynamicLinker, GuardingTypeConverter
         fieldHandles[i] = null;
       } else {
         var idxFieldHandle = findStructFieldHandle(targetFieldName, structParams);
+        var getter = idxFieldHandle.methodHandle();
         reorder[i] = idxFieldHandle.idx() + fieldNames.size();
-        fieldHandles[i] = idxFieldHandle.methodHandle();
+        // The field may be declared with an erased type in the target struct
+        fieldHandles[i] = getter.asType(getter.type()
+            .changeReturnType(targetConstructor.type().parameterType(i)));
       }
     }
 
-    var constructorHandle = LOOKUP.unreflectConstructor(targetConstructor);
-    var filteredHandle = MethodHandles.filterArguments(constructorHandle, 0, fieldHandles);
+    var filteredHandle = MethodHandles.filterArguments(targetConstructor, 0, fieldHandles);
     return MethodHandles.permuteArguments(filteredHandle, invokedType, reorder);
   }
 
+  /**
+   * Returns the class of the struct created by spreading the given struct classes into a struct
+   * with the explicitly provided fields. Explicit fields take precedence over spread fields and
+   * earlier spreads take precedence over later ones.
+   */
+  private static Class<?> spreadStructClass(Lookup callSiteLookup, SpreadCache cache,
+      List<String> fieldNames, List<Class<?>> argClasses) throws IllegalAccessException {
+    var fieldTypes = new LinkedHashMap<String, Class<?>>();
+    for (int i = 0; i < argClasses.size(); i++) {
+      var argClass = argClasses.get(i);
+      if (i < fieldNames.size()) {
+        fieldTypes.putIfAbsent(fieldNames.get(i), erasedFieldType(argClass));
+      } else if (StructBase.class.isAssignableFrom(argClass)) {
+        StructFields.of(argClass)
+            .fieldTypes()
+            .forEach((name, type) -> fieldTypes.putIfAbsent(name, erasedFieldType(type)));
+      } else {
+        throw new IllegalArgumentException(
+            "Tried to spread object that is not a struct: " + argClass);
+      }
+    }
+
+    var shape = new StructShape(List.copyOf(fieldTypes.keySet()),
+        List.copyOf(fieldTypes.values()));
+    var structClass = cache.structClasses().get(shape);
+    if (structClass != null) {
+      return structClass;
+    }
+
+    var fieldTypeDescs = new LinkedHashMap<String, ClassDesc>();
+    fieldTypes.forEach((name, type) -> fieldTypeDescs.put(name,
+        type.describeConstable().orElseThrow()));
+    var classFileBytes = StructGenerator.generateDelegateStruct(
+        callSiteLookup.lookupClass().getPackageName(),
+        fieldTypeDescs);
+    // Not a nestmate of the call site's class so that it can be shared by the module's closures.
+    // All the members are public so it doesn't need private access.
+    var newStructClass = callSiteLookup.defineHiddenClass(classFileBytes, true).lookupClass();
+    var existingClass = cache.structClasses().putIfAbsent(shape, newStructClass);
+    return existingClass != null ? existingClass : newStructClass;
+  }
+
+  /**
+   * Hidden classes can't be referenced symbolically, so fields holding another spread struct are
+   * declared as {@link StructBase}.
+   */
+  private static Class<?> erasedFieldType(Class<?> type) {
+    return type.isHidden() ? StructBase.class : type;
+  }
+
   public static final class StructCallSiteDesc extends CallSiteDescriptor {
     private final Object[] values;
 
@@ -144,13 +210,35 @@ final class StructLinker implements GuardingDynamicLinker, GuardingTypeConverter
   }
 
   @SuppressWarnings("unused")
-  private static boolean checkClasses(List<Class<?>>classes, Object[] args) {
-    for (int i = 0; i < classes.size(); i++) {
-      if (!classes.get(i).isInstance(args[i])) {
-        return false;
-      }
+  private static boolean isNamedFunc(Object inner, @Nullable Class<?> receiverClass, Object func,
+      @Nullable Object receiver) {
+    return func instanceof NamedFunc namedFunc && namedFunc.inner() == inner && (receiver != null
+        ? receiver.getClass() == receiverClass : receiverClass == null);
+  }
+
+  /**
+   * Returns a guard that checks the spread struct arguments are exactly of the given classes. The
+   * checks are chained with {@link MethodHandles#guardWithTest}, so the guard doesn't allocate or
+   * loop when invoked.
+   */
+  private static @Nullable MethodHandle spreadGuard(MethodType callSiteType, int spreadStartIdx,
+      List<Class<?>> structClasses) {
+    var guardType = callSiteType.changeReturnType(boolean.class);
+    var alwaysFalse = MethodHandles.dropArguments(MethodHandles.constant(boolean.class, false),
+        0,
+        guardType.parameterList());
+    MethodHandle guard = null;
+    for (int i = structClasses.size() - 1; i >= 0; i--) {
+      var paramIdx = spreadStartIdx + i;
+      // isOfClass checks the first param, so drop the params before the spread struct's param
+      var isOfClass = Guards.isOfClass(structClasses.get(i),
+          guardType.dropParameterTypes(0, paramIdx));
+      isOfClass = MethodHandles.dropArguments(isOfClass,
+          0,
+          guardType.parameterList().subList(0, paramIdx));
+      guard = guard == null ? isOfClass : MethodHandles.guardWithTest(isOfClass, guard, alwaysFalse);
     }
-    return true;
+    return guard;
   }
 
   @Nullable
@@ -169,48 +257,39 @@ final class StructLinker implements GuardingDynamicLinker, GuardingTypeConverter
       switch (structOp) {
         case STRUCT_INIT -> {
           var callSiteDescriptor = (StructCallSiteDesc) structLinkReq.getCallSiteDescriptor();
+          var callSiteType = callSiteDescriptor.getMethodType();
           var fieldNames = callSiteDescriptor.fieldNames();
 
-          // Determine the field types for the returned struct
-          var fieldTypes = new LinkedHashMap<String, ClassDesc>();
+          // Explicit fields are typed by the call site, since they're not guarded. Spread structs
+          // are typed by their runtime class, which the guard checks.
           var args = structLinkReq.getArguments();
           var argClasses = new ArrayList<Class<?>>();
           for (int i = 0; i < args.length; i++) {
-            var argClass = args[i].getClass();
-            argClasses.add(argClass);
             if (i < fieldNames.size()) {
-              fieldTypes.putIfAbsent(fieldNames.get(i), argClass.describeConstable().orElseThrow());
+              argClasses.add(callSiteType.parameterType(i));
             } else if (args[i] instanceof StructBase struct) {
-              for (var field : struct.getClass().getDeclaredFields()) {
-                fieldTypes.putIfAbsent(field.getName(),
-                    field.getType().describeConstable().orElseThrow());
-              }
+              argClasses.add(struct.getClass());
             } else {
               throw new IllegalArgumentException(
                   "Tried to spread object that is not a struct: " + args[i]);
             }
           }
 
-          // Generate and define the class with the field types from the previous section
-          var callSiteLookup = callSiteDescriptor.getLookup();
-          var packageName = callSiteLookup.lookupClass().getPackageName();
-          var classFileBytes = StructGenerator.generateDelegateStruct(packageName, fieldTypes);
-          var delegateStruct = callSiteLookup.defineHiddenClass(
-              classFileBytes,
-              true,
-              ClassOption.NESTMATE).lookupClass();
-
+          var lookup = callSiteDescriptor.getLookup();
+          // Closures are nestmates of their module, so they share the module's cache
+          var cache = SPREAD_CACHES.get(lookup.lookupClass().getNestHost());
+          var delegateStruct = spreadStructClass(lookup, cache, fieldNames, argClasses);
           // Create a method handle that invokes the constructor of the returned struct
-          var handle = spreadHandle(MethodType.methodType(
-                  delegateStruct,
-                  argClasses), fieldNames.toArray())
-              .asType(callSiteDescriptor.getMethodType());
+          var spreadKey = new SpreadKey(delegateStruct, fieldNames, List.copyOf(argClasses));
+          var handle = cache.handles().computeIfAbsent(spreadKey,
+                  key -> spreadHandle(MethodType.methodType(key.structClass(), key.argClasses()),
+                      key.fieldNames()))
+              .asType(callSiteType);
 
           // Create a guard that checks all the spread structs match the types from the
           // previous invocation
           var structClasses = argClasses.subList(fieldNames.size(), args.length);
-          var checkClasses = CHECK_CLASSES.bindTo(structClasses).asCollector(Object[].class, structClasses.size());
-          var guard = MethodHandles.dropArguments(checkClasses, 0, argClasses.subList(0, fieldNames.size()));
+          var guard = spreadGuard(callSiteType, fieldNames.size(), structClasses);
 
           return new GuardedInvocation(handle, guard);
         }
@@ -219,19 +298,27 @@ final class StructLinker implements GuardingDynamicLinker, GuardingTypeConverter
       var callSiteDesc = structLinkReq.getCallSiteDescriptor();
       var args = structLinkReq.getArguments();
       var func = (Func) args[0];
+      LinkCounters.funcCallLinked();
       return switch (func) {
-        case AnonFunc(var inner) -> new GuardedInvocation(
-            MethodHandles.dropArguments(inner, 0, Func.class, Object.class),
-            Guards.getIdentityGuard(func));
-        case NamedFunc(var inner) -> {
+        // Every closure of the same anonymous function has the same class, so guarding on the
+        // class lets the call site stay linked as new closures are passed in
+        case Closure closure -> new GuardedInvocation(
+            MethodHandles.dropArguments(Closure.invoker(closure.getClass()), 1, Object.class),
+            Guards.getClassGuard(closure.getClass()));
+        case NamedFunc namedFunc -> {
+          var inner = namedFunc.inner();
           args[0] = inner;
           var guardedInvocation = linkerServices.getGuardedInvocation(StructLinkRequest.from(structLinkReq.replaceArguments(
               callSiteDesc,
               args), false));
 
+          // The invocation takes the receiver as an argument, so it works for any receiver of the
+          // same class and not only the one it was linked with
+          var receiver = args[1];
+          var receiverClass = receiver != null ? receiver.getClass() : null;
           yield new GuardedInvocation(
               guardedInvocation.getInvocation(),
-              MethodHandles.insertArguments(NAMED_FUNC_EQUALS, 0, func, args[1]),
+              MethodHandles.insertArguments(IS_NAMED_FUNC, 0, inner, receiverClass),
               guardedInvocation.getSwitchPoints(),
               guardedInvocation.getException());
         }
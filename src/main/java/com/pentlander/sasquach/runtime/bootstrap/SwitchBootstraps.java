@@ -12,8 +12,10 @@ import java.lang.invoke.ConstantCallSite;
 import java.lang.invoke.MethodHandle;
 import java.lang.invoke.MethodHandles;
 import java.lang.invoke.MethodType;
+import java.util.Arrays;
 import java.util.List;
 import jdk.dynalink.linker.support.Lookup;
+import org.jspecify.annotations.Nullable;
 
 public final class SwitchBootstraps {
   private SwitchBootstraps() {
@@ -21,6 +23,14 @@ public final class SwitchBootstraps {
 
   private static final Lookup LOOKUP = new Lookup(MethodHandles.lookup());
 
+  /**
+   * Name of the static constant on each variant class holding the index of the variant in its sum
+   * type.
+   */
+  public static final String VARIANT_ORDINAL_FIELD = "$ORDINAL";
+  /** Name of the method on the sum type interface that returns the ordinal of the variant. */
+  public static final String VARIANT_ORDINAL_METHOD = "$ordinal";
+
   private static final MethodTypeDesc MTD_BOOTSTRAP = MethodType.methodType(
           CallSite.class,
           List.of(MethodHandles.Lookup.class, String.class, MethodType.class, Object[].class))
@@ -44,13 +54,84 @@ public final class SwitchBootstraps {
       "doTypeSwitch",
       DO_TYPE_SWITCH_PRIVATE_TYPE);
 
+  private static final MethodHandle IS_ZERO = LOOKUP.findOwnStatic("isZero",
+      boolean.class,
+      int.class);
+
   @SuppressWarnings("unused")
   public static CallSite bootstrapSwitch(MethodHandles.Lookup lookup, String invokedName,
       MethodType invocationType, Object... labels) {
     requireNonNull(labels);
-    // TODO: Verify the labels and object are sum/variant types
-    MethodHandle target = MethodHandles.insertArguments(DO_TYPE_SWITCH, 2, (Object) labels);
-    return new ConstantCallSite(target);
+    MethodHandle typeSwitch = MethodHandles.insertArguments(DO_TYPE_SWITCH, 2, (Object) labels);
+    var ordinalSwitch = ordinalSwitch(lookup, labels);
+    if (ordinalSwitch == null) {
+      return new ConstantCallSite(typeSwitch);
+    }
+
+    // The ordinal table maps straight to the first matching label, so only use it when the switch
+    // starts from the first label
+    var ordinalTarget = MethodHandles.dropArguments(ordinalSwitch, 1, int.class);
+    var isZero = MethodHandles.dropArguments(IS_ZERO, 0, Object.class);
+    return new ConstantCallSite(MethodHandles.guardWithTest(isZero, ordinalTarget, typeSwitch));
+  }
+
+  /**
+   * Returns a handle of type (Object)int that returns the index of the label matching the variant
+   * in constant time, or null if the labels aren't all variants of the same sum type. The variant
+   * ordinal is used to index into a table that maps each ordinal to the first label matching it.
+   */
+  private static @Nullable MethodHandle ordinalSwitch(MethodHandles.Lookup lookup,
+      Object[] labels) {
+    if (labels.length == 0) {
+      return null;
+    }
+    var sumType = sumTypeInterface((Class<?>) labels[0]);
+    if (sumType == null) {
+      return null;
+    }
+
+    var permittedSubclasses = sumType.getPermittedSubclasses();
+    var ordinalToLabel = new int[permittedSubclasses.length];
+    Arrays.fill(ordinalToLabel, labels.length);
+    try {
+      for (int i = labels.length - 1; i >= 0; i--) {
+        var labelClass = (Class<?>) labels[i];
+        if (!sumType.equals(sumTypeInterface(labelClass))) {
+          return null;
+        }
+        var ordinal = (int) lookup.findStaticGetter(labelClass, VARIANT_ORDINAL_FIELD, int.class)
+            .invokeExact();
+        ordinalToLabel[ordinal] = i;
+      }
+
+      var ordinalGetter = lookup.findVirtual(sumType,
+          VARIANT_ORDINAL_METHOD,
+          MethodType.methodType(int.class));
+      var tableLookup = MethodHandles.insertArguments(MethodHandles.arrayElementGetter(int[].class),
+          0,
+          (Object) ordinalToLabel);
+      return MethodHandles.filterReturnValue(ordinalGetter, tableLookup)
+          .asType(MethodType.methodType(int.class, Object.class));
+    } catch (NoSuchFieldException | NoSuchMethodException | IllegalAccessException e) {
+      // Not a variant generated with an ordinal, fall back to checking each label
+      return null;
+    } catch (Throwable e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private static @Nullable Class<?> sumTypeInterface(Class<?> variantClass) {
+    for (var iface : variantClass.getInterfaces()) {
+      if (iface.isSealed()) {
+        return iface;
+      }
+    }
+    return null;
+  }
+
+  @SuppressWarnings("unused")
+  private static boolean isZero(int startIndex) {
+    return startIndex == 0;
   }
 
   private static int doTypeSwitch(Object target, int startIndex, Object[] labels) {
@@ -46,6 +46,7 @@ public class ModuleScopedTypeResolver {
   private final Builder errors = RangedErrorList.builder();
 
   private @Nullable StructType thisStructType;
+  private List<TypeDef> typeDefs = List.of();
 
 
   public ModuleScopedTypeResolver(NameResolutionResult nameResolutionResult,
@@ -100,7 +101,7 @@ public class ModuleScopedTypeResolver {
       errors.addAll(result.errors());
     });
 
-    var typeDefs = struct.typeStatements().stream().map(stmt -> {
+    typeDefs = struct.typeStatements().stream().map(stmt -> {
       var typeNode = stmt.typeNode();
       var typeParams = TypeUtils.typeParamsToUniversal(stmt.typeParameterNodes());
       var resolvedType = namedTypeResolver.resolveNames(typeNode, typeParams);
@@ -116,6 +117,11 @@ public class ModuleScopedTypeResolver {
     return thisStructType;
   }
 
+  /** Returns the type definitions of the module, once the module type is resolved. */
+  public List<TypeDef> typeDefs() {
+    return typeDefs;
+  }
+
   public TypeResolutionResult resolveFunctions() {
     var modScopedTypes = new ResolverModuleScopedTypes();
     var typedFunctions = new ArrayList<TNamedFunction>();
@@ -105,7 +105,7 @@ public record StructType(StructName name, List<TypeParameter> typeParameters,
     return ClassDesc.ofInternalName(internalName());
   }
 
-  private boolean isSynthetic() {
+  public boolean isSynthetic() {
     return name instanceof SyntheticName;
   }
 
@@ -9,9 +9,12 @@ import com.pentlander.sasquach.ast.id.QualifiedModuleId;
 import com.pentlander.sasquach.ast.expression.Expression;
 import com.pentlander.sasquach.name.QualifiedModuleName;
 import com.pentlander.sasquach.nameres.NameResolutionResult;
+import com.pentlander.sasquach.tast.expression.TModuleStruct.TypeDef;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.RecursiveTask;
 import java.util.stream.Stream;
 
@@ -26,12 +29,21 @@ public class TypeResolver implements ModuleTypeProvider {
   }
 
   public TypeResolutionResult resolve(Collection<CompilationUnit> compilationUnits) {
-    return resolve(compilationUnits.stream()
+    resolveModuleTypes(compilationUnits);
+    return resolveFunctions(moduleTasks.keySet());
+  }
+
+  /**
+   * Resolves the type of every module, which only depends on the type annotations of the module's
+   * functions and its type definitions, not on the bodies of the functions.
+   */
+  public void resolveModuleTypes(Collection<CompilationUnit> compilationUnits) {
+    resolveModuleTypes(compilationUnits.stream()
         .map(CompilationUnit::modules)
         .flatMap(Collection::stream));
   }
 
-  private TypeResolutionResult resolve(Stream<ModuleDeclaration> modules) {
+  private void resolveModuleTypes(Stream<ModuleDeclaration> modules) {
     // Ensure that all modules are loaded into the map to avoid a race with the resolution
     // inside the fork
     modules.forEach(module -> {
@@ -45,11 +57,21 @@ public class TypeResolver implements ModuleTypeProvider {
     Map<Expression, Type> _ = moduleTasks.values()
         .stream()
         .collect(toMap(task -> task.moduleDeclaration.struct(), RecursiveTask::join));
-    var moduleResult = TypeResolutionResult.ofTypedModules(Map.of(), RangedErrorList.empty());
+  }
 
-    functionsTasks.values().forEach(RecursiveTask::fork);
-    return functionsTasks.values()
+  /**
+   * Type checks the functions of the modules and returns the typed modules. The module types must
+   * already be resolved.
+   */
+  public TypeResolutionResult resolveFunctions(Set<QualifiedModuleName> moduleNames) {
+    var moduleResult = TypeResolutionResult.ofTypedModules(Map.of(), RangedErrorList.empty());
+    var tasks = functionsTasks.entrySet()
         .stream()
+        .filter(entry -> moduleNames.contains(entry.getKey().moduleName()))
+        .map(Map.Entry::getValue)
+        .toList();
+    tasks.forEach(RecursiveTask::fork);
+    return tasks.stream()
         .reduce(moduleResult,
             (result, task) -> result.merge(task.join()),
             TypeResolutionResult::merge);
@@ -59,6 +81,11 @@ public class TypeResolver implements ModuleTypeProvider {
     return moduleTasks.get(moduleName).join();
   }
 
+  /** Returns the type definitions of the module. The module type must already be resolved. */
+  public List<TypeDef> getTypeDefs(QualifiedModuleName moduleName) {
+    return moduleTasks.get(moduleName).moduleScopedTypeResolver.typeDefs();
+  }
+
   private static class ModuleTask extends RecursiveTask<StructType> {
     private final ModuleDeclaration moduleDeclaration;
     private final ModuleScopedTypeResolver moduleScopedTypeResolver;
@@ -0,0 +1,94 @@
+package com.pentlander.sasquach.type;
+
+import static java.util.stream.Collectors.joining;
+
+import com.pentlander.sasquach.tast.expression.TModuleStruct.TypeDef;
+import com.pentlander.sasquach.type.FunctionType.Param;
+import com.pentlander.sasquach.type.StructType.RowModifier.NamedRow;
+import com.pentlander.sasquach.type.StructType.RowModifier.None;
+import com.pentlander.sasquach.type.StructType.RowModifier.UnnamedRow;
+import java.util.List;
+
+/**
+ * Renders the signature of a module as a string that changes whenever anything another module can
+ * depend on changes.
+ * <p>The signature includes the type of every member of the module and the full definition of every
+ * type defined in the module. Types defined in other modules are only referred to by name, since
+ * changes to them show up in the signatures of the modules that define them.</p>
+ */
+public final class TypeSignatures {
+  private TypeSignatures() {
+  }
+
+  public static String moduleSignature(StructType moduleType, List<TypeDef> typeDefs) {
+    var sb = new StringBuilder();
+    moduleType.memberTypes().forEach((name, type) -> sb.append(name)
+        .append(": ")
+        .append(signature(type, false))
+        .append('\n'));
+    for (var typeDef : typeDefs) {
+      sb.append("type ").append(signature(typeDef.type(), true)).append('\n');
+    }
+    return sb.toString();
+  }
+
+  /**
+   * @param expand if true, named structs and sum types are rendered with their members rather
+   *               than just their name.
+   */
+  private static String signature(Type type, boolean expand) {
+    return switch (type) {
+      case StructType structType when expand || structType.isSynthetic() ->
+          structType.typeNameStr() + typeParams(structType.typeParameters())
+              + structType.memberTypes()
+              .entrySet()
+              .stream()
+              .map(entry -> entry.getKey() + ": " + signature(entry.getValue(), false))
+              .collect(joining(", ", "{ ", rowSignature(structType.rowModifier()) + " }"));
+      case SumType sumType when expand ->
+          sumType.qualifiedTypeName() + typeParams(sumType.typeParameters()) + sumType.types()
+          .stream()
+          .map(variantType -> signature(variantType, true))
+          .collect(joining(" | ", " = ", ""));
+      case StructType structType -> structType.typeNameStr();
+      case SumType sumType -> sumType.qualifiedTypeName().toString();
+      case SingletonType singletonType -> singletonType.name().toString();
+      case FunctionType funcType -> typeParams(funcType.typeParameters())
+          + funcType.parameters().stream().map(TypeSignatures::paramSignature)
+          .collect(joining(", ", "(", ")"))
+          + " -> " + signature(funcType.returnType(), false);
+      case ResolvedLocalNamedType namedType -> namedType.name() + typeArgs(namedType.typeArgs());
+      case ResolvedModuleNamedType namedType -> namedType.name() + typeArgs(namedType.typeArgs());
+      case ClassType classType -> classType.typeClass().getName()
+          + typeArgs(classType.typeArguments());
+      case ArrayType arrayType -> "Array" + typeArgs(List.of(arrayType.elementType()));
+      default -> type.typeNameStr();
+    };
+  }
+
+  private static String paramSignature(Param param) {
+    var label = param.label() != null ? param.label() + " " : "";
+    var defaultMarker = param.hasDefault() ? " = _" : "";
+    return label + signature(param.type(), false) + defaultMarker;
+  }
+
+  private static String rowSignature(StructType.RowModifier rowModifier) {
+    return switch (rowModifier) {
+      case NamedRow(var type) -> ", .." + signature(type, false);
+      case UnnamedRow _ -> ", ..";
+      case None _ -> "";
+    };
+  }
+
+  private static String typeParams(List<TypeParameter> typeParameters) {
+    return typeParameters.isEmpty() ? "" : typeParameters.stream()
+        .map(TypeParameter::toPrettyString)
+        .collect(joining(", ", "[", "]"));
+  }
+
+  private static String typeArgs(List<Type> typeArgs) {
+    return typeArgs.isEmpty() ? "" : typeArgs.stream()
+        .map(typeArg -> signature(typeArg, false))
+        .collect(joining(", ", "[", "]"));
+  }
+}
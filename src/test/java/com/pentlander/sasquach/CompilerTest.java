@@ -0,0 +1,124 @@
+package com.pentlander.sasquach;
+
+import static com.pentlander.sasquach.TestUtils.invokeMain;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.catchThrowableOfType;
+
+import com.pentlander.sasquach.Compiler.Option;
+import com.pentlander.sasquach.name.QualifiedModuleName;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class CompilerTest {
+  private static final QualifiedModuleName BOX = QualifiedModuleName.fromString("main/Box");
+  private static final QualifiedModuleName MAIN = QualifiedModuleName.fromString("main/Main");
+  private static final String BOX_SOURCE = """
+      Box {
+        type T[A] = { value: A },
+
+        new = [A](value: A): T[A] -> T { value = value },
+
+        get = [A](box: T[A]): A -> box.value,
+      }
+      """;
+  private static final Source MAIN_SOURCE = new Source(new SourcePath("main.sasq"), "main", """
+      Main {
+        use main/Box,
+
+        main = (): Int -> {
+          let box = Box.new(5)
+          Box.get(box) + 1
+        },
+      }
+      """);
+
+  private final Compiler compiler = new Compiler(Set.of(Option.NO_STD), 1);
+  private final Map<String, byte[]> classes = new HashMap<>();
+
+  @Test
+  void compileIncremental(@TempDir Path outputPath) throws Exception {
+    var first = build(BOX_SOURCE, BuildCache.empty(), outputPath);
+    assertThat(first.bytecode().moduleClasses()).containsOnlyKeys(BOX, MAIN);
+    // Main calls Box's generic functions with Int, so Box has primitive specializations of them
+    assertThat(first.cache().get(BOX).specializations()).containsExactlyInAnyOrder("new$I", "get$I");
+
+    // Nothing changed
+    var second = build(BOX_SOURCE, first.cache(), outputPath);
+    assertThat(second.bytecode().moduleClasses()).isEmpty();
+
+    // The signature of Box didn't change, so Main isn't compiled. Box still has to include the
+    // specializations that Main calls.
+    var third = build(BOX_SOURCE + "// Comment\n", second.cache(), outputPath);
+    assertThat(third.bytecode().moduleClasses()).containsOnlyKeys(BOX);
+    assertThat(third.cache().get(BOX).specializations()).containsExactlyInAnyOrder("new$I", "get$I");
+    assertThat(third.cache().get(BOX).specializations())
+        .containsExactlyInAnyOrderElementsOf(first.cache().get(BOX).specializations());
+    assertThat(third.staleClasses()).isEmpty();
+
+    var cl = new SasquachClassloader();
+    classes.forEach(cl::addClass);
+    int result = invokeMain(cl.loadModule(MAIN));
+    assertThat(result).isEqualTo(6);
+
+    // Adding a function changes the signature of Box, so Main is compiled again
+    var fourth = build(BOX_SOURCE.replace("get =", "other = (): Int -> 1,\n  get ="),
+        third.cache(),
+        outputPath);
+    assertThat(fourth.bytecode().moduleClasses()).containsOnlyKeys(BOX, MAIN);
+  }
+
+  @Test
+  void cacheFromOtherCompilerIgnored(@TempDir Path outputPath) throws Exception {
+    var result = build(BOX_SOURCE, BuildCache.empty(), outputPath);
+    result.cache().write(outputPath);
+    assertThat(BuildCache.read(outputPath).modules()).containsOnlyKeys(BOX, MAIN);
+
+    result.cache().write(outputPath, "other compiler");
+    assertThat(BuildCache.read(outputPath).modules()).isEmpty();
+  }
+
+  @Test
+  void syntaxErrorsInSameOrderForAnyJobCount() {
+    var sources = new HashMap<SourcePath, Source>();
+    for (var name : List.of("e", "b", "d", "a", "c", "f")) {
+      var source = new Source(new SourcePath(name + ".sasq"), "main", """
+          %s {
+            foo 1,
+            bar = ,
+          }
+          """.formatted(name.toUpperCase()));
+      sources.put(source.path(), source);
+    }
+
+    var sequentialErrors = errorMessages(new Compiler(Set.of(Option.NO_STD), 1), sources);
+    assertThat(sequentialErrors).hasSizeGreaterThanOrEqualTo(sources.size());
+    for (int i = 0; i < 10; i++) {
+      assertThat(errorMessages(new Compiler(Set.of(Option.NO_STD), 4), sources))
+          .isEqualTo(sequentialErrors);
+    }
+  }
+
+  private static List<String> errorMessages(Compiler compiler, Map<SourcePath, Source> sources) {
+    var sourcesObj = Sources.fromMap(sources);
+    var ex = catchThrowableOfType(() -> compiler.compile(sourcesObj), CompilationException.class);
+    assertThat(ex).isNotNull();
+    return ex.errors().stream().map(error -> error.toPrettyString(sourcesObj)).toList();
+  }
+
+  private Compiler.IncrementalResult build(String boxSource, BuildCache cache, Path outputPath)
+      throws Exception {
+    var box = new Source(new SourcePath("box.sasq"), "main", boxSource);
+    var sources = Sources.fromMap(Map.of(box.path(), box, MAIN_SOURCE.path(), MAIN_SOURCE));
+    var result = compiler.compileIncremental(sources, cache, outputPath);
+    for (var entry : result.bytecode().generatedClasses().entrySet()) {
+      Compiler.saveBytecodeToFile(outputPath, entry.getKey(), entry.getValue());
+    }
+    classes.putAll(result.bytecode().generatedClasses());
+    return result;
+  }
+}
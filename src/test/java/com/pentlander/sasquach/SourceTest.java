@@ -0,0 +1,45 @@
+package com.pentlander.sasquach;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.List;
+import java.util.stream.IntStream;
+import org.junit.jupiter.api.Test;
+
+class SourceTest {
+  private static List<String> lines(String contents) {
+    var source = Source.fromString("main", contents);
+    return IntStream.rangeClosed(1, source.lineCount()).mapToObj(source::line).toList();
+  }
+
+  @Test
+  void lines_lastLineWithoutNewline() {
+    assertThat(lines("foo\nbar\nbaz")).containsExactly("foo", "bar", "baz");
+  }
+
+  @Test
+  void lines_trailingNewline() {
+    assertThat(lines("foo\nbar\n")).containsExactly("foo", "bar");
+  }
+
+  @Test
+  void lines_trailingBlankLine() {
+    assertThat(lines("foo\n\n")).containsExactly("foo", "");
+  }
+
+  @Test
+  void lines_crlf() {
+    assertThat(lines("foo\r\nbar\r\n")).containsExactly("foo", "bar");
+    assertThat(lines("foo\r\n\r\nbar")).containsExactly("foo", "", "bar");
+  }
+
+  @Test
+  void lines_emptyFile() {
+    assertThat(lines("")).containsExactly("");
+  }
+
+  @Test
+  void lines_onlyNewline() {
+    assertThat(lines("\n")).containsExactly("");
+  }
+}
@@ -0,0 +1,124 @@
+package com.pentlander.sasquach.backend;
+
+import static com.pentlander.sasquach.Fixtures.QUAL_MOD_NAME;
+import static com.pentlander.sasquach.Fixtures.id;
+import static com.pentlander.sasquach.Fixtures.name;
+import static com.pentlander.sasquach.Fixtures.range;
+import static com.pentlander.sasquach.TestUtils.invokeMain;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.pentlander.sasquach.Compiler;
+import com.pentlander.sasquach.Compiler.Option;
+import com.pentlander.sasquach.SasquachClassloader;
+import com.pentlander.sasquach.Source;
+import com.pentlander.sasquach.Sources;
+import com.pentlander.sasquach.name.QualifiedModuleName;
+import com.pentlander.sasquach.runtime.bootstrap.StructDispatch;
+import com.pentlander.sasquach.backend.ExpressionGenerator.ExprContext;
+import com.pentlander.sasquach.tast.TFunctionParameter;
+import com.pentlander.sasquach.tast.TFunctionParameter.Label;
+import com.pentlander.sasquach.tast.expression.TArrayValue;
+import com.pentlander.sasquach.tast.expression.TVarReference;
+import com.pentlander.sasquach.tast.expression.TVarReference.RefDeclaration.Local;
+import com.pentlander.sasquach.tast.expression.TypedExpression;
+import com.pentlander.sasquach.type.BuiltinType;
+import com.pentlander.sasquach.type.UniversalType;
+import java.lang.classfile.ClassFile;
+import java.lang.classfile.CodeElement;
+import java.lang.classfile.Opcode;
+import java.lang.classfile.instruction.FieldInstruction;
+import java.lang.classfile.instruction.InvokeDynamicInstruction;
+import java.lang.constant.ClassDesc;
+import java.lang.constant.ConstantDescs;
+import java.lang.constant.MethodTypeDesc;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import org.junit.jupiter.api.Test;
+
+@SuppressWarnings("preview")
+class ExpressionGeneratorTest {
+  @Test
+  void arrayValue_specializedTypeParameter() throws Exception {
+    // [a, a] where a: A, generated in the body specialized for A = Int
+    var typeParam = new UniversalType("A");
+    var param = new TFunctionParameter(id("a"), Label.none(), typeParam, range());
+    var paramRef = new TVarReference(name("a"), new Local(param), typeParam, range());
+    var arrayValue = TArrayValue.ofElementType(typeParam,
+        List.<TypedExpression>of(paramRef, paramRef),
+        range());
+
+    var classDesc = ClassDesc.of("test.Arrays");
+    var bytes = ClassFile.of().build(classDesc,
+        clb -> clb.withFlags(ClassFile.ACC_PUBLIC)
+            .withMethodBody("array",
+                MethodTypeDesc.of(ConstantDescs.CD_Object.arrayType(), ConstantDescs.CD_int),
+                ClassFile.ACC_PUBLIC | ClassFile.ACC_STATIC,
+                cob -> {
+                  new ExpressionGenerator(QUAL_MOD_NAME,
+                      new StructLayouts(),
+                      new Specializations(Set.of()),
+                      cob,
+                      ExprContext.ANON_FUNC,
+                      "array",
+                      List.of(param),
+                      Map.of(typeParam, BuiltinType.INT)).generateExpr(arrayValue);
+                  cob.areturn();
+                }));
+    var clazz = new SasquachClassloader().addClass("test.Arrays", bytes);
+
+    var array = (Object[]) clazz.getMethod("array", int.class).invoke(null, 5);
+
+    assertThat(array).containsExactly(5, 5);
+  }
+
+  @Test
+  void fieldAccess_concreteStructs_emitGetfield() throws Exception {
+    var source = Source.fromString("main", """
+        Main {
+          type Point = { x: Int, y: Int },
+          type Shape = | Circle(Int) | Rect { width: Int, height: Int },
+
+          area = (shape: Shape): Int -> match shape {
+            Circle(radius) -> radius * radius * 3,
+            Rect { width, height } -> width * height,
+          },
+
+          main = (): Int -> {
+            let point = Point { x = 1, y = 2 }
+            let tuple = (3, 4)
+            point.x + point.y + tuple._0 + tuple._1 + area(Circle(2)) + area(Rect { width = 5, height = 6 })
+          },
+        }
+        """);
+    var classes = new Compiler(Set.of(Option.NO_STD)).compile(Sources.single(source))
+        .generatedClasses();
+
+    var elements = new ArrayList<CodeElement>();
+    var classModel = ClassFile.of().parse(classes.get("main.Main"));
+    for (var method : classModel.methods()) {
+      method.code().ifPresent(code -> code.forEach(elements::add));
+    }
+    var getfieldNames = new TreeSet<String>();
+    var structDispatchGets = new ArrayList<String>();
+    for (var element : elements) {
+      if (element instanceof FieldInstruction field && field.opcode() == Opcode.GETFIELD) {
+        getfieldNames.add(field.name().stringValue());
+      } else if (element instanceof InvokeDynamicInstruction indy
+          && indy.bootstrapMethod().equals(StructDispatch.MHD_BOOTSTRAP_MEMBER)
+          && indy.name().stringValue().startsWith("GET")) {
+        structDispatchGets.add(indy.name().stringValue());
+      }
+    }
+
+    assertThat(structDispatchGets).isEmpty();
+    assertThat(getfieldNames).containsExactlyInAnyOrder("x", "y", "_0", "_1", "width", "height");
+
+    var cl = new SasquachClassloader();
+    classes.forEach(cl::addClass);
+    int value = invokeMain(cl.loadModule(QualifiedModuleName.fromString("main/Main")));
+    assertThat(value).isEqualTo(1 + 2 + 3 + 4 + 12 + 30);
+  }
+}
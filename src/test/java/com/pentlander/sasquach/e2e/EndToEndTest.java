@@ -2,15 +2,30 @@ package com.pentlander.sasquach.e2e;
 
 import static com.pentlander.sasquach.TestUtils.invokeMain;
 import static com.pentlander.sasquach.TestUtils.invokeName;
+import static java.util.stream.Collectors.joining;
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 
 import com.pentlander.sasquach.BaseTest;
 import com.pentlander.sasquach.CompilationException;
+import com.pentlander.sasquach.runtime.StructBase;
+import com.pentlander.sasquach.runtime.bootstrap.Closure;
+import com.pentlander.sasquach.runtime.bootstrap.LinkCounters;
+import com.pentlander.sasquach.runtime.bootstrap.SwitchBootstraps;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
 import org.junit.jupiter.api.Disabled;
 import org.junit.jupiter.api.Test;
 
 public class EndToEndTest extends BaseTest {
+  private static final String CACHED_HASH_FIELD = "$hash";
+
   @Test
   void missingParamType() throws Exception {
     // Figure out why the local named type isn't being replaced
@@ -72,6 +87,46 @@ public class EndToEndTest extends BaseTest {
     assertThat(sum).isEqualTo(5);
   }
 
+  @Test
+  void genericFunctionCall_otherModule() throws Exception {
+    var clazz = compile( """
+        Box {
+          type T[A] = { value: A },
+
+          new = [A](value: A): T[A] -> T { value = value },
+
+          get = [A](box: T[A]): A -> box.value,
+        }
+
+        Main {
+          use main/Box,
+
+          main = (): Int -> {
+            let box = Box.new(5)
+            Box.get(box) + 1
+          },
+        }
+        """);
+    int result = invokeMain(clazz);
+
+    assertThat(result).isEqualTo(6);
+  }
+
+  @Test
+  void genericFunctionCall_primitiveSpecialization() throws Exception {
+    var clazz = compile( """
+        Main {
+          identity = [A](value: A): A -> value,
+
+          main = (): Int -> identity(5) + 1,
+        }
+        """);
+    int result = invokeMain(clazz);
+
+    assertThat(result).isEqualTo(6);
+    assertThat(clazz.getMethod("identity$I", int.class).getReturnType()).isEqualTo(int.class);
+  }
+
   @Test
   void loopRecur() throws Exception {
     var clazz = compile("""
@@ -136,6 +191,99 @@ public class EndToEndTest extends BaseTest {
     assertThat(sum).isEqualTo(6);
   }
 
+  @Test
+  void higherOrderFunc_newClosuresDontRelink() throws Exception {
+    var clazz = compile( """
+        Main {
+          apply = (fn: (a: Int) -> Int, a: Int): Int -> fn(a),
+
+          main = (): Int -> {
+            loop (let i = 0) -> if (i > 99) {
+              i
+            } else {
+              recur(apply((a: Int): Int -> a + i, 1))
+            }
+          }
+        }
+        """);
+    long linksBefore = LinkCounters.funcCallLinks();
+    int result = invokeMain(clazz);
+
+    assertThat(result).isEqualTo(100);
+    assertThat(LinkCounters.funcCallLinks() - linksBefore).isLessThan(5);
+  }
+
+  @Test
+  void closure_noCaptures_sameInstance() throws Exception {
+    var clazz = compile("""
+        Main {
+          increment = (): (a: Int) -> Int -> (a: Int): Int -> a + 1,
+
+          main = (): Int -> {
+            let fn = increment()
+            fn(1)
+          }
+        }
+        """);
+    Object first = invokeName(clazz, "increment");
+    Object second = invokeName(clazz, "increment");
+    int result = invokeMain(clazz);
+
+    assertThat(first).isInstanceOf(Closure.class).isSameAs(second);
+    assertThat(result).isEqualTo(2);
+  }
+
+  @Test
+  void closure_capturesOfEachType() throws Exception {
+    var clazz = compile("""
+        Main {
+          use foreign java/lang/Math,
+
+          capturing = (): (a: Int) -> { i: Int, l: Long, d: Double, b: Boolean, s: String } -> {
+            let i = 2
+            let l = Math#multiplyFull(3, 4)
+            let d = 2.5
+            let b = true
+            let s = "s"
+            (a: Int): { i: Int, l: Long, d: Double, b: Boolean, s: String } ->
+              { i = i + a, l = l, d = d, b = b, s = s }
+          },
+
+          main = (): { i: Int, l: Long, d: Double, b: Boolean, s: String } -> {
+            let fn = capturing()
+            fn(1)
+          }
+        }
+        """);
+    Object closure = invokeName(clazz, "capturing");
+    Object struct = invokeMain(clazz);
+
+    // Captures are stored in fields of their own types, primitives aren't boxed
+    var captureTypes = Arrays.stream(closure.getClass().getDeclaredFields())
+        .<Class<?>>map(Field::getType)
+        .toList();
+    assertThat(captureTypes).contains(int.class, long.class, double.class, boolean.class, String.class);
+    assertThat(struct).hasFieldOrPropertyWithValue("i", 3)
+        .hasFieldOrPropertyWithValue("l", 12L)
+        .hasFieldOrPropertyWithValue("d", 2.5D)
+        .hasFieldOrPropertyWithValue("b", true)
+        .hasFieldOrPropertyWithValue("s", "s");
+  }
+
+  @Test
+  void higherOrderFunc_genericPrimitiveReturn() throws Exception {
+    var clazz = compile( """
+        Main {
+          apply = [A, B](fn: (a: A) -> B, a: A): B -> fn(a),
+
+          main = (): Boolean -> apply((a: Int): Boolean -> a > 1, 5)
+        }
+        """);
+    boolean result = invokeMain(clazz);
+
+    assertThat(result).isTrue();
+  }
+
   @Test
   void higherOrderFunc_withNestedCapture() throws Exception {
     var clazz = compile( """
@@ -371,6 +519,111 @@ public class EndToEndTest extends BaseTest {
     assertThat(ex).hasMessageContaining("should be 'String'");
   }
 
+  @Test
+  void matchSumType_branchesOutOfOrder() throws Exception {
+    var clazz = compile("""
+        Main {
+          type Shape = | Circle(Int) | Square(Int) | Empty | Rect { width: Int, height: Int },
+
+          area = (shape: Shape): Int -> match shape {
+            Rect { width, height } -> width * height,
+            Empty -> 0,
+            Square(side) -> side * side,
+            Circle(radius) -> 3 * radius * radius,
+          },
+
+          main = (): Int -> area(Circle(1)) + area(Square(2)) + area(Empty) + area(Rect { width = 3, height = 4 }),
+        }
+        """);
+    int sum = invokeMain(clazz);
+
+    assertThat(sum).isEqualTo(3 + 4 + 0 + 12);
+  }
+
+  @Test
+  void matchSumType_wide() throws Exception {
+    var variants = IntStream.range(0, 12).mapToObj(i -> "V" + i).toList();
+    var branches = Stream.of(7, 2, 11, 0, 9, 4, 1, 10, 6, 3, 8, 5)
+        .map(i -> "V%d -> %d".formatted(i, i))
+        .collect(joining(",\n"));
+    var checks = IntStream.range(0, 12)
+        .mapToObj(i -> "checkOrdinal(V%d, %d)".formatted(i, i))
+        .collect(joining(" + "));
+    var clazz = compile("""
+        Main {
+          type Wide = | %s,
+
+          ordinal = (wide: Wide): Int -> match wide {
+            %s,
+          },
+
+          checkOrdinal = (wide: Wide, expected: Int): Int -> if (ordinal(wide) == expected) 1 else 0,
+
+          main = (): Int -> %s,
+        }
+        """.formatted(String.join(" | ", variants), branches, checks));
+    int matches = invokeMain(clazz);
+
+    assertThat(matches).isEqualTo(12);
+  }
+
+  @Test
+  void matchSumType_switchBootstrap() throws Throwable {
+    // Matches always pass every variant and start from the first label, so the label subsets,
+    // restarts and foreign classes the bootstrap also supports are linked directly
+    var clazz = compile("""
+        Main {
+          type Shape = | Circle(Int) | Square(Int) | Empty,
+
+          circle = (): Shape -> Circle(1),
+
+          square = (): Shape -> Square(2),
+
+          empty = (): Shape -> Empty,
+        }
+        """);
+    Object circle = invokeName(clazz, "circle");
+    Object square = invokeName(clazz, "square");
+    Object empty = invokeName(clazz, "empty");
+    var circleClass = circle.getClass();
+    var squareClass = square.getClass();
+    var emptyClass = empty.getClass();
+    var type = MethodType.methodType(int.class, Object.class, int.class);
+
+    // Subset of the variants in a different order from the declaration
+    var subset = SwitchBootstraps.bootstrapSwitch(MethodHandles.lookup(),
+        "switch",
+        type,
+        emptyClass,
+        circleClass).dynamicInvoker();
+    assertThat((int) subset.invokeExact(circle, 0)).isEqualTo(1);
+    assertThat((int) subset.invokeExact(empty, 0)).isEqualTo(0);
+    assertThat((int) subset.invokeExact(square, 0)).isEqualTo(2);
+
+    // A non-zero start index skips the ordinal table and only checks the labels after it
+    var repeated = SwitchBootstraps.bootstrapSwitch(MethodHandles.lookup(),
+        "switch",
+        type,
+        circleClass,
+        squareClass,
+        circleClass).dynamicInvoker();
+    assertThat((int) repeated.invokeExact(circle, 0)).isEqualTo(0);
+    assertThat((int) repeated.invokeExact(circle, 1)).isEqualTo(2);
+    assertThat((int) repeated.invokeExact(square, 2)).isEqualTo(3);
+
+    // Classes without an ordinal fall back to checking each label
+    var mixed = SwitchBootstraps.bootstrapSwitch(MethodHandles.lookup(),
+        "switch",
+        type,
+        squareClass,
+        StructBase.class,
+        String.class).dynamicInvoker();
+    assertThat((int) mixed.invokeExact(square, 0)).isEqualTo(0);
+    assertThat((int) mixed.invokeExact(empty, 0)).isEqualTo(1);
+    assertThat((int) mixed.invokeExact((Object) "str", 0)).isEqualTo(2);
+    assertThat((int) mixed.invokeExact((Object) 1, 0)).isEqualTo(3);
+  }
+
   @Test
   // Test correctly fails here, the `opt` variable doesn't get unified with anything, so it's an
   // unknown type var
@@ -467,6 +720,42 @@ public class EndToEndTest extends BaseTest {
     assertThat(baz).hasFieldOrPropertyWithValue("i", 5);
   }
 
+  @Test
+  void namedStruct_hashCode() throws Exception {
+    var clazz = compile("""
+        Main {
+          type Big = { a: Int, b: Int, c: Int, d: Int, e: Int, f: Int, g: Boolean, h: String },
+          type Small = { a: Int, b: Int },
+          type Row = { a: Int, b: Int, c: Int, d: Int, e: Int, f: Int, g: Int, r: { x: Int, .. } },
+
+          main = (): Big -> Big { a = 1, b = 2, c = 3, d = 4, e = 5, f = 6, g = true, h = "h" },
+
+          small = (): Small -> Small { a = 1, b = 2 },
+
+          row = (): Row -> Row { a = 1, b = 2, c = 3, d = 4, e = 5, f = 6, g = 7, r = { x = 8, y = 9 } },
+
+          tuple = (): (Int, Int, Int, Int, Int, Int, Int, Int) -> (1, 2, 3, 4, 5, 6, 7, 8),
+        }
+        """);
+    Object big = invokeMain(clazz);
+
+    int expectedHash = Objects.hash(1, 2, 3, 4, 5, 6, true, "h");
+    assertThat(big.hashCode()).isEqualTo(expectedHash);
+    var hashField = big.getClass().getDeclaredField(CACHED_HASH_FIELD);
+    hashField.setAccessible(true);
+    assertThat(hashField.getInt(big)).isEqualTo(expectedHash);
+    // The second call returns the cached hash instead of computing it again
+    hashField.setInt(big, 42);
+    assertThat(big.hashCode()).isEqualTo(42);
+
+    for (var name : List.of("small", "row", "tuple")) {
+      Object struct = invokeName(clazz, name);
+      assertThat(struct.getClass().getDeclaredFields()).extracting(Field::getName)
+          .as(name)
+          .doesNotContain(CACHED_HASH_FIELD);
+    }
+  }
+
   @Test
   void spread() throws Exception {
     var clazz = compile("""
@@ -484,6 +773,52 @@ public class EndToEndTest extends BaseTest {
         .hasFieldOrPropertyWithValue("baz", "baz");
   }
 
+  @Test
+  void spread_wideFields() throws Exception {
+    // Long and Double constructor params take up two local slots each
+    var clazz = compile("""
+        Main {
+          use foreign java/lang/Math,
+
+          main = (): { x: Long, y: Double, label: String, z: Long } -> {
+            let point = { x = Math#multiplyFull(1, 2), y = 2.5, label = "p", z = Math#multiplyFull(3, 4) }
+            { x = Math#multiplyFull(10, 10), ..point }
+          }
+        }
+        """);
+    Object struct = invokeName(clazz, "main");
+
+    assertThat(struct).hasFieldOrPropertyWithValue("x", 100L)
+        .hasFieldOrPropertyWithValue("y", 2.5D)
+        .hasFieldOrPropertyWithValue("label", "p")
+        .hasFieldOrPropertyWithValue("z", 12L);
+  }
+
+  @Test
+  void rowPolymorphicFieldAccess_megamorphic() throws Exception {
+    // Every struct literal has its own class, so the field access in getX sees more classes than
+    // the call site chains and is linked to the megamorphic getter
+    var calls = IntStream.rangeClosed(1, 12)
+        .mapToObj(i -> "getX({ x = %d, %s })".formatted(i,
+            IntStream.range(0, i).mapToObj(j -> "f%d = %d".formatted(j, j)).collect(joining(", "))))
+        .collect(joining(" + "));
+    var clazz = compile("""
+        Main {
+          getX = [R](struct: { x: Int, ..R }): Int -> struct.x,
+          
+          main = (): Int -> {
+            let first = %s
+            let second = %s
+            first + second
+          }
+        }
+        """.formatted(calls, calls));
+
+    int sum = invokeMain(clazz);
+
+    assertThat(sum).isEqualTo(2 * 12 * 13 / 2);
+  }
+
   @Test
   void interfaceType() throws Exception {
     var clazz = compile("""
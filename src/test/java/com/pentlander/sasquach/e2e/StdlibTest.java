@@ -5,6 +5,12 @@ import static org.assertj.core.api.Assertions.assertThat;
 
 import com.pentlander.sasquach.BaseTest;
 import com.pentlander.sasquach.BaseTest.DefaultOptions;
+import com.pentlander.sasquach.runtime.bootstrap.LinkCounters;
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 import org.junit.jupiter.api.Nested;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.params.ParameterizedTest;
@@ -85,6 +91,350 @@ public class StdlibTest extends BaseTest {
       int value = invokeMain(clazz);
       assertThat(value).isEqualTo(1);
     }
+
+    @Test
+    void userDefinedIterator_optionNext() throws Exception {
+      var clazz = compile("""
+        Main {
+          use std/Iterator,
+          use std/Option,
+          use std/Ref,
+        
+          counter = (limit: Int): { name: String, next: () -> Option.T[Int] } -> {
+            let count = Ref.new(0)
+            let iter = {
+              name = "counter",
+              next = () -> {
+                let i = Ref.get(count)
+                Ref.set(count, i + 1)
+                if (i < limit) Option.Some(i) else Option.None
+              },
+            }
+            iter
+          },
+        
+          main = (): Int -> {
+            // The lambdas are inlined into a fused loop
+            let fused = counter(6)
+              |> Iterator.map((i) -> i * 2)
+              |> Iterator.filter((i) -> i > 2)
+              |> Iterator.reduce(0, (sum, i) -> sum + i)
+            // The named functions go through the adapters
+            let double = (i: Int): Int -> i * 2
+            let isLarge = (i: Int): Boolean -> i > 2
+            let add = (sum: Int, i: Int): Int -> sum + i
+            let adapted = counter(6)
+              |> Iterator.map(double)
+              |> Iterator.filter(isLarge)
+              |> Iterator.reduce(0, add)
+            fused * 1000 + adapted
+          }
+        }
+        """);
+
+      int value = invokeMain(clazz);
+      // The doubled items above 2 are 4, 6, 8 and 10
+      assertThat(value).isEqualTo(28 * 1000 + 28);
+    }
+
+    @Test
+    void userDefinedIterator_adapters() throws Exception {
+      var clazz = compile("""
+        Main {
+          use std/Iterator,
+          use std/List,
+          use std/Option,
+          use std/Ref,
+        
+          main = (): Int -> {
+            let count = Ref.new(0)
+            let iter = Iterator.new(() -> {
+              let i = Ref.get(count)
+              Ref.set(count, i + 1)
+              if (i < 10) Option.Some(i) else Option.None
+            })
+            let list = List.new() |> List.conj(100) |> List.conj(200)
+            iter
+              |> Iterator.filterMap((i) -> if (i / 2 * 2 == i) Option.Some(i) else Option.None)
+              |> Iterator.flatMap((i) -> List.iter(List.of(i)))
+              |> Iterator.pairwise()
+              |> Iterator.map((pair) -> pair._0 + pair._1)
+              |> Iterator.zip(List.iter(list))
+              |> Iterator.reduce(0, (accum, pair) -> accum + pair._0 + pair._1)
+          }
+        }
+        """);
+
+      int value = invokeMain(clazz);
+      // Evens are 0, 2, 4, 6, 8, the pairwise sums are 2, 6, 10, 14, and zip stops after two
+      assertThat(value).isEqualTo(2 + 6 + 100 + 200);
+    }
+
+    @Test
+    void fusedPipeline() throws Exception {
+      var clazz = compile("""
+        Main {
+          use std/Iterator,
+          use std/List,
+        
+          main = (): Int -> {
+            let offset = 1000
+            let list = loop (let i = 0, let list = List.new()) ->
+              if i < 10 {
+                recur(i + 1, List.conj(list, i))
+              } else {
+                list
+              }
+            list
+              |> List.iter()
+              |> Iterator.map((i) -> i * 3)
+              |> Iterator.filter((i) -> i > 10)
+              |> Iterator.map((i) -> {
+                let plusOffset = i + offset
+                plusOffset
+              })
+              |> Iterator.reduce(0, (sum, i) -> sum + i)
+          }
+        }
+        """);
+
+      int value = invokeMain(clazz);
+      // 12 + 15 + 18 + 21 + 24 + 27 with the offset added to each
+      assertThat(value).isEqualTo(117 + 6 * 1000);
+      assertThat(lambdaMethods(clazz)).isEmpty();
+    }
+
+    @Test
+    void fusedPipeline_forEach() throws Exception {
+      var clazz = compile("""
+        Main {
+          use std/Counter,
+          use std/Int,
+          use std/Iterator,
+          use std/List,
+        
+          main = (): Int -> {
+            let list = loop (let i = 0, let list = List.new()) ->
+              if i < 10 {
+                recur(i + 1, List.conj(list, i))
+              } else {
+                list
+              }
+            let counter = Counter.new()
+            list
+              |> List.iter()
+              |> Iterator.map((i) -> i * 2)
+              |> Iterator.forEach((i) -> Counter.add(counter, Int.toLong(i)))
+            Int.fromLong(Counter.sum(counter))
+          }
+        }
+        """);
+
+      int value = invokeMain(clazz);
+      assertThat(value).isEqualTo(90);
+      assertThat(lambdaMethods(clazz)).isEmpty();
+    }
+
+    @Test
+    void fusedPipeline_forEachFilter() throws Exception {
+      var clazz = compile("""
+        Main {
+          use std/Counter,
+          use std/Int,
+          use std/Iterator,
+          use std/List,
+        
+          main = (): Int -> {
+            let list = loop (let i = 0, let list = List.new()) ->
+              if i < 10 {
+                recur(i + 1, List.conj(list, i))
+              } else {
+                list
+              }
+            let counter = Counter.new()
+            list
+              |> List.iter()
+              |> Iterator.filter((i) -> i > 4)
+              |> Iterator.forEach((i) -> Counter.add(counter, Int.toLong(i)))
+            Int.fromLong(Counter.sum(counter))
+          }
+        }
+        """);
+
+      int value = invokeMain(clazz);
+      // 5 + 6 + 7 + 8 + 9
+      assertThat(value).isEqualTo(35);
+      assertThat(lambdaMethods(clazz)).isEmpty();
+    }
+
+    @Test
+    void partiallyFusedPipeline() throws Exception {
+      // A function that isn't a lambda can't be inlined, so only the reduce is fused into a loop
+      // over the mapped iterator
+      var clazz = compile("""
+        Main {
+          use std/Iterator,
+          use std/List,
+        
+          main = (): Int -> {
+            let list = List.conj(List.conj(List.new(), 1), 2)
+            let triple = (i: Int): Int -> i * 3
+            list
+              |> List.iter()
+              |> Iterator.map(triple)
+              |> Iterator.reduce(0, (sum, i) -> sum + i)
+          }
+        }
+        """);
+
+      int value = invokeMain(clazz);
+      assertThat(value).isEqualTo(9);
+      assertThat(lambdaMethods(clazz)).hasSize(1);
+    }
+
+    /** Anonymous functions are compiled to static methods, inlined ones aren't compiled at all. */
+    private static List<String> lambdaMethods(Class<?> clazz) {
+      return Arrays.stream(clazz.getDeclaredMethods())
+          .map(Method::getName)
+          .filter(name -> name.startsWith("lambda$"))
+          .toList();
+    }
+  }
+
+  @Nested
+  class ListTest extends BaseTest {
+    @Test
+    void conjPopAndSlice() throws Exception {
+      var clazz = compile("""
+        Main {
+          use std/List,
+        
+          main = (): Int -> {
+            let list = loop (let i = 0, let list = List.new()) ->
+              if i < 2000 {
+                recur(i + 1, List.conj(list, i))
+              } else {
+                list
+              }
+            let sliced = list |> List.pop() |> List.slice(1000, 1500) |> List.assoc(0, 7)
+            List.get(sliced, 0) + List.get(sliced, 10) + List.size(sliced) + List.size(list)
+          }
+        }
+        """);
+
+      int value = invokeMain(clazz);
+      assertThat(value).isEqualTo(7 + 1010 + 500 + 2000);
+    }
+
+    @Test
+    void mapAndFilter() throws Exception {
+      var clazz = compile("""
+        Main {
+          use std/List,
+          use std/TransientList,
+        
+          main = (): Int -> {
+            let builder = List.transient(List.new())
+            loop (let i = 0) ->
+              if i < 100 {
+                TransientList.conj(builder, i)
+                recur(i + 1)
+              } else {
+                0
+              }
+            let list = List.persistent(builder)
+            let evens = list |> List.map((i) -> i * 2) |> List.filter((i) -> i > 100)
+            List.size(evens) + List.get(evens, 0)
+          }
+        }
+        """);
+
+      int value = invokeMain(clazz);
+      assertThat(value).isEqualTo(49 + 102);
+    }
+
+    @Test
+    void transient_leavesOriginalUnchanged() throws Exception {
+      var clazz = compile("""
+        Main {
+          use std/List,
+          use std/TransientList,
+
+          main = (): Int -> {
+            let list = loop (let i = 0, let list = List.new()) ->
+              if i < 1100 {
+                recur(i + 1, List.conj(list, i))
+              } else {
+                list
+              }
+            let builder = List.transient(list)
+            TransientList.assoc(builder, 0, 7)
+            TransientList.conjAll(builder, list)
+            let newList = List.persistent(builder)
+            List.get(list, 0) + List.size(list) + List.get(newList, 0) + List.size(newList)
+          }
+        }
+        """);
+
+      int value = invokeMain(clazz);
+      assertThat(value).isEqualTo(0 + 1100 + 7 + 2200);
+    }
+
+    @Test
+    void parMapFilterAndReduce() throws Exception {
+      var clazz = compile("""
+        Main {
+          use std/List,
+        
+          main = (): Int -> {
+            let list = loop (let i = 0, let list = List.new()) ->
+              if i < 5000 {
+                recur(i + 1, List.conj(list, i))
+              } else {
+                list
+              }
+            let odds = list |> List.parMap((i) -> i * 2 + 1) |> List.parFilter((i) -> i > 9000)
+            let sum = List.parReduce(odds, 0, (sum, i) -> sum + i, (left, right) -> left + right)
+            sum + List.get(odds, 0) + List.size(odds)
+          }
+        }
+        """);
+
+      int value = invokeMain(clazz);
+      // The odd numbers from 9001 to 9999
+      assertThat(value).isEqualTo(500 * (9001 + 9999) / 2 + 9001 + 500);
+    }
+
+    @Test
+    void parMap_manyClosureClasses() throws Exception {
+      // More closure classes than a polymorphic call site holds
+      var stages = IntStream.rangeClosed(1, 12)
+          .mapToObj(n -> "|> List.parMap((i) -> i + %d)".formatted(n))
+          .collect(Collectors.joining("\n"));
+      var clazz = compile("""
+        Main {
+          use std/List,
+        
+          main = (): Int -> {
+            let list = loop (let i = 0, let list = List.new()) ->
+              if i < 2000 {
+                recur(i + 1, List.conj(list, 0))
+              } else {
+                list
+              }
+            let mapped = list
+              %s
+            List.get(mapped, 1999)
+          }
+        }
+        """.formatted(stages));
+
+      long linksBefore = LinkCounters.funcCallLinks();
+      int value = invokeMain(clazz);
+      assertThat(value).isEqualTo(12 * 13 / 2);
+      // Closures are called through their bound invoker, not through a shared call site
+      assertThat(LinkCounters.funcCallLinks() - linksBefore).isLessThan(5);
+    }
   }
 
   @Nested
@@ -114,6 +464,65 @@ public class StdlibTest extends BaseTest {
       assertThat(value).isEqualTo(1);
     }
 
+    @Test
+    void assocAndDissoc_manyKeys() throws Exception {
+      var clazz = compile("""
+        Main {
+          use std/Hash,
+          use std/Map,
+          use std/Option,
+        
+          main = (): Int -> {
+            // Only a few distinct hashes, so keys collide at every level of the trie
+            let hash = Hash.new((value: Int) -> value / 100)
+            let map = loop (let i = 0, let map = Map.new(hash)) ->
+              if i < 1000 {
+                recur(i + 1, Map.assoc(map, i, i * 2))
+              } else {
+                map
+              }
+            let smallerMap = loop (let i = 0, let map = map) ->
+              if i < 1000 {
+                recur(i + 2, Map.dissoc(map, i))
+              } else {
+                map
+              }
+            Map.size(smallerMap) + Map.getOr(smallerMap, 999, 0) + Map.getOr(smallerMap, 998, 0)
+          }
+        }
+        """);
+
+      int value = invokeMain(clazz);
+      assertThat(value).isEqualTo(500 + 1998);
+    }
+
+    @Test
+    void transient_leavesOriginalUnchanged() throws Exception {
+      var clazz = compile("""
+        Main {
+          use std/Hash,
+          use std/Map,
+          use std/TransientMap,
+
+          main = (): Int -> {
+            // Every key has the same hash, so they all share one collision node
+            let hash = Hash.new((value: Int) -> 0)
+            let map = Map.new(hash) |> Map.assoc(1, 10) |> Map.assoc(2, 20) |> Map.assoc(3, 30)
+            let builder = Map.transient(map)
+            TransientMap.assoc(builder, 1, 100)
+            TransientMap.dissoc(builder, 2)
+            TransientMap.assoc(builder, 4, 40)
+            let newMap = Map.persistent(builder)
+            let originalSum = Map.size(map) + Map.getOr(map, 1, 0) + Map.getOr(map, 2, 0)
+            originalSum + Map.getOr(newMap, 1, 0) + Map.getOr(newMap, 2, 0) + Map.getOr(newMap, 4, 0)
+          }
+        }
+        """);
+
+      int value = invokeMain(clazz);
+      assertThat(value).isEqualTo(3 + 10 + 20 + 100 + 0 + 40);
+    }
+
     @Test
     void assocAndGet_structKey() throws Exception {
       var clazz = compileDebug("""
@@ -143,4 +552,204 @@ public class StdlibTest extends BaseTest {
       assertThat(value).isEqualTo(10);
     }
   }
+
+  @Nested
+  class PrimitiveCollectionTest extends BaseTest {
+    @Test
+    void intListAndLongMap_histogram() throws Exception {
+      var clazz = compile("""
+        Main {
+          use std/Int,
+          use std/IntList,
+          use std/IntSet,
+          use std/LongMap,
+        
+          main = (): Int -> {
+            let list = loop (let i = 0, let list = IntList.new()) ->
+              if i < 1000 {
+                recur(i + 1, IntList.add(list, i))
+              } else {
+                list
+              }
+            let buckets = list |> IntList.map((i) -> i / 100) |> IntList.filter((i) -> i < 5)
+            let histogram = IntList.reduce(buckets, LongMap.new(), (map, bucket) -> {
+              LongMap.increment(map, Int.toLong(bucket), Int.toLong(1))
+              map
+            })
+            let set = IntList.reduce(buckets, IntSet.new(), (set, bucket) -> IntSet.add(set, bucket))
+            let bucketCount = Int.fromLong(LongMap.get(histogram, Int.toLong(3), Int.toLong(0)))
+            bucketCount + LongMap.size(histogram) + IntSet.size(set) + IntList.sum(list)
+          }
+        }
+        """);
+
+      int value = invokeMain(clazz);
+      assertThat(value).isEqualTo(100 + 5 + 5 + 499500);
+    }
+  }
+
+  @Nested
+  class TaskTest extends BaseTest {
+    @Test
+    void spawnAndAll() throws Exception {
+      var clazz = compile("""
+        Main {
+          use std/List,
+          use std/Result,
+          use std/Task,
+        
+          main = (): Int -> {
+            let task = Task.spawn(() -> 40)
+            let joined = task |> Task.join() |> Result.getOrElse(() -> 0)
+            let fns = List.new() |> List.conj(() -> 1) |> List.conj(() -> 2)
+            let all = fns
+              |> Task.all()
+              |> Result.map((results) -> List.get(results, 0) * 10 + List.get(results, 1))
+              |> Result.getOrElse(() -> 0)
+            joined + all
+          }
+        }
+        """);
+
+      int value = invokeMain(clazz);
+      assertThat(value).isEqualTo(40 + 12);
+    }
+
+    @Test
+    void race_returnsFirstToSucceed() throws Exception {
+      var clazz = compile(TASK_HELPERS.formatted("""
+          main = (): Int -> {
+            let fns = List.new()
+              |> List.conj(() -> slow(1))
+              |> List.conj(() -> Int.parse("not a number"))
+              |> List.conj(() -> 3)
+            fns |> Task.race() |> Result.getOrElse(() -> 0)
+          }
+          """));
+
+      int value = invokeMain(clazz);
+      // The slow function is cancelled once another one succeeds and the failure is ignored
+      assertThat(value).isEqualTo(3);
+    }
+
+    @Test
+    void all_failure() throws Exception {
+      var clazz = compile(TASK_HELPERS.formatted("""
+          main = (): String -> {
+            let fns = List.new()
+              |> List.conj(() -> slow(1))
+              |> List.conj(() -> Int.parse("not a number"))
+            fns |> Task.all() |> errorOf()
+          }
+          """));
+
+      String error = invokeMain(clazz);
+      assertThat(error).startsWith("java.lang.NumberFormatException");
+    }
+
+    @Test
+    void race_allFail() throws Exception {
+      var clazz = compile(TASK_HELPERS.formatted("""
+          main = (): String -> {
+            let fns = List.new() |> List.conj(() -> Int.parse("not a number"))
+            fns |> Task.race() |> errorOf()
+          }
+          """));
+
+      String error = invokeMain(clazz);
+      assertThat(error).startsWith("java.lang.NumberFormatException");
+    }
+
+    @Test
+    void timeouts() throws Exception {
+      var clazz = compile(TASK_HELPERS.formatted("""
+          main = (): (String, String, String) -> {
+            let fns = List.new() |> List.conj(() -> slow(1)) |> List.conj(() -> 2)
+            let task = Task.spawn(() -> slow(1))
+            let joinError = Task.joinTimeout(task, 20) |> errorOf()
+            Task.cancel(task)
+            let allError = Task.allTimeout(fns, 20) |> errorOf()
+            let raceError = Task.raceTimeout(List.new() |> List.conj(() -> slow(1)), 20) |> errorOf()
+            (allError, raceError, joinError)
+          }
+          """));
+
+      Object errors = invokeMain(clazz);
+      assertThat(errors).hasFieldOrPropertyWithValue("_0", "Tasks timed out after 20ms")
+          .hasFieldOrPropertyWithValue("_1", "Tasks timed out after 20ms")
+          .hasFieldOrPropertyWithValue("_2", "Task timed out after 20ms");
+    }
+
+    @Test
+    void cancel() throws Exception {
+      var clazz = compile(TASK_HELPERS.formatted("""
+          main = (): String -> {
+            let task = Task.spawn(() -> slow(1))
+            Task.cancel(task)
+            task |> Task.join() |> errorOf()
+          }
+          """));
+
+      String error = invokeMain(clazz);
+      assertThat(error).isEqualTo("Task was cancelled");
+    }
+
+    private static final String TASK_HELPERS = """
+        Main {
+          use std/Int,
+          use std/List,
+          use std/Result,
+          use std/Task,
+          use foreign java/lang/Thread,
+        
+          // Sleeps for longer than any test runs, so it only returns if it isn't cancelled
+          slow = (value: Int): Int -> {
+            Thread#sleep(Int.toLong(60000))
+            value
+          },
+        
+          errorOf = [A](result: Result.T[A, String]): String -> match result {
+            Result.Ok(_) -> "ok",
+            Result.Err(error) -> error,
+          },
+        
+        %s
+        }
+        """;
+  }
+
+  @Nested
+  class AtomTest extends BaseTest {
+    @Test
+    void swapAndCounter_fromParallelUpdates() throws Exception {
+      var clazz = compile("""
+        Main {
+          use std/Atom,
+          use std/Counter,
+          use std/Int,
+          use std/List,
+        
+          main = (): Int -> {
+            let list = loop (let i = 0, let list = List.new()) ->
+              if i < 5000 {
+                recur(i + 1, List.conj(list, i))
+              } else {
+                list
+              }
+            let atom = Atom.new(0)
+            let counter = Counter.new()
+            List.parForEach(list, (i) -> {
+              Atom.swap(atom, (prev) -> prev + 1)
+              Counter.increment(counter)
+            })
+            let isSet = Atom.compareAndSet(atom, 5000, 1)
+            if (isSet) Atom.get(atom) + Int.fromLong(Counter.sum(counter)) else 0
+          }
+        }
+        """);
+
+      int value = invokeMain(clazz);
+      assertThat(value).isEqualTo(1 + 5000);
+    }
+  }
 }
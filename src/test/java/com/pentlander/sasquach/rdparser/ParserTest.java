@@ -0,0 +1,121 @@
+package com.pentlander.sasquach.rdparser;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.pentlander.sasquach.Source;
+import com.pentlander.sasquach.rdparser.Parser.Child.ChildToken;
+import com.pentlander.sasquach.rdparser.Parser.Child.ChildTree;
+import com.pentlander.sasquach.rdparser.Parser.Tree;
+import com.pentlander.sasquach.rdparser.Parser.TreeKind;
+import com.pentlander.sasquach.rdparser.Scanner.TokenType;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+class ParserTest {
+  private static Parser parser(String source) {
+    var scanRes = new Scanner(Source.fromString("main", source)).scanTokens();
+    return new Parser(scanRes.tokens(), scanRes.newlineIndexes());
+  }
+
+  /** Returns the tree kind of each child tree and the token type of each child token. */
+  private static List<Object> children(Tree tree) {
+    return tree.children().stream().<Object>map(child -> switch (child) {
+      case ChildTree(var childTree, _, _) -> childTree.treeKind();
+      case ChildToken(var token) -> token.type();
+    }).toList();
+  }
+
+  private static Tree child(Tree tree, int idx) {
+    return tree.children().get(idx).expectTree();
+  }
+
+  private static Parser.MarkClosed name(Parser p) {
+    var mark = p.open();
+    p.expect(TokenType.NAME);
+    return p.close(mark, TreeKind.EXPR_VAR_REF);
+  }
+
+  private static Tree finish(Parser p, Parser.MarkOpened root) {
+    p.expect(TokenType.EOF);
+    p.close(root, TreeKind.COMP_UNIT);
+    assertThat(p.errors().isEmpty()).isTrue();
+    return p.buildTree();
+  }
+
+  @Test
+  void checkpoint_nestedInnerRestoreOuterCommit() {
+    var p = parser("a b c");
+    var root = p.open();
+
+    var outer = p.checkpoint();
+    name(p);
+    var inner = p.checkpoint();
+    var mark = p.open();
+    p.expect(TokenType.STRING);
+    p.close(mark, TreeKind.EXPR_LITERAL);
+    assertThat(p.failed()).isTrue();
+    p.restore(inner);
+
+    // The inner restore only undoes the inner speculative parse
+    assertThat(p.failed()).isFalse();
+    assertThat(p.shouldBacktrack()).isTrue();
+    name(p);
+    p.commit(outer);
+    assertThat(p.shouldBacktrack()).isFalse();
+    name(p);
+
+    var tree = finish(p, root);
+    assertThat(children(tree)).containsExactly(TreeKind.EXPR_VAR_REF,
+        TreeKind.EXPR_VAR_REF,
+        TreeKind.EXPR_VAR_REF,
+        TokenType.EOF);
+  }
+
+  @Test
+  void checkpoint_restoreUndoesForwardParentOfEarlierEvent() {
+    var p = parser("a b");
+    var root = p.open();
+    var a = name(p);
+
+    var checkpoint = p.checkpoint();
+    // Links the open event of a, which was added before the checkpoint, to the apply tree
+    var apply = p.openBefore(a);
+    p.expect(TokenType.STRING);
+    p.close(apply, TreeKind.EXPR_APPLY);
+    p.restore(checkpoint);
+
+    // The open event of b takes the index the apply tree had, so a stale link would make it a's
+    // parent
+    name(p);
+
+    var tree = finish(p, root);
+    assertThat(children(tree)).containsExactly(TreeKind.EXPR_VAR_REF,
+        TreeKind.EXPR_VAR_REF,
+        TokenType.EOF);
+  }
+
+  @Test
+  void buildTree_forwardParentsOpenedOnce() {
+    var p = parser("a b c");
+    var root = p.open();
+    var a = name(p);
+
+    var checkpoint = p.checkpoint();
+    var apply = p.openBefore(a);
+    name(p);
+    p.close(apply, TreeKind.EXPR_APPLY);
+    p.commit(checkpoint);
+    // Encloses the apply tree, so a's open event has a chain of two forward parents
+    var pipe = p.openBefore(a);
+    name(p);
+    p.close(pipe, TreeKind.EXPR_PIPE);
+
+    // The forward parents are opened along with a and then skipped as tombstones
+    var tree = finish(p, root);
+    assertThat(children(tree)).containsExactly(TreeKind.EXPR_PIPE, TokenType.EOF);
+    var pipeTree = child(tree, 0);
+    assertThat(children(pipeTree)).containsExactly(TreeKind.EXPR_APPLY, TreeKind.EXPR_VAR_REF);
+    assertThat(children(child(pipeTree, 0))).containsExactly(TreeKind.EXPR_VAR_REF,
+        TreeKind.EXPR_VAR_REF);
+  }
+}
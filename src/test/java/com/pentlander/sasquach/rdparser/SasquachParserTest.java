@@ -1,6 +1,7 @@
 package com.pentlander.sasquach.rdparser;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
 
 import com.pentlander.sasquach.CompilationException;
 import com.pentlander.sasquach.PackageName;
@@ -12,6 +13,7 @@ import com.pentlander.sasquach.rdparser.Parser.Tree;
 import com.pentlander.sasquach.rdparser.Parser.TreeKind;
 import com.pentlander.sasquach.rdparser.Scanner.TokenType;
 import java.util.function.Consumer;
+import java.util.stream.Stream;
 import org.junit.jupiter.api.Nested;
 import org.junit.jupiter.api.Test;
 
@@ -241,6 +243,33 @@ class SasquachParserTest {
     printAndAssertNoErrors(tree);
   }
 
+  @Test
+  void pipe_leftAssociativeAfterBacktracking() {
+    var tree = parse("""
+        Test {
+          test = (a |> b) |> c |> d,
+        }
+        """);
+    var module = firstTree(tree, TreeKind.MODULE);
+    var statement = firstTree(firstTree(module, TreeKind.EXPR_STRUCT), TreeKind.STRUCT_STATEMENT);
+    var outer = firstTree(statement, TreeKind.EXPR_PIPE);
+    var middle = firstTree(outer, TreeKind.EXPR_PIPE);
+    var paren = firstTree(middle, TreeKind.EXPR_PAREN);
+
+    assertThat(outer.lastToken().lexeme()).isEqualTo("d");
+    assertThat(middle.lastToken().lexeme()).isEqualTo("c");
+    assertThat(firstTree(paren, TreeKind.EXPR_PIPE).children()).hasSize(3);
+  }
+
+  @Test
+  void error_includesFoundToken() {
+    assertThatThrownBy(() -> parse("""
+        Test {
+          test foo,
+        }
+        """)).hasStackTraceContaining("but found: 'foo'");
+  }
+
   @Nested
   class TypeExprTest {
     @Test
@@ -266,6 +295,15 @@ class SasquachParserTest {
     }
   }
 
+  private static Tree firstTree(Tree tree, TreeKind treeKind) {
+    return tree.children()
+        .stream()
+        .flatMap(child -> child instanceof ChildTree(var t, _, _) && t.treeKind() == treeKind
+            ? Stream.of(t) : Stream.empty())
+        .findFirst()
+        .orElseThrow();
+  }
+
   private static Tree parse(String sourceStr) {
     var source = Source.fromString("main", sourceStr);
     var scanner = new Scanner(source);
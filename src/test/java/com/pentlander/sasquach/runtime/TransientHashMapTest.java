@@ -0,0 +1,79 @@
+package com.pentlander.sasquach.runtime;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import org.junit.jupiter.api.Test;
+
+class TransientHashMapTest {
+  private static PersistentHashMap<Integer, Integer> range(int size) {
+    PersistentHashMap<Integer, Integer> map = PersistentHashMap.empty();
+    for (int i = 0; i < size; i++) {
+      map = map.assoc(i, i, i);
+    }
+    return map;
+  }
+
+  @Test
+  void assocAndDissoc() {
+    var transientMap = PersistentHashMap.<Integer, Integer>empty().asTransient();
+    for (int i = 0; i < 1000; i++) {
+      transientMap.assoc(i, i, i * 2);
+    }
+    for (int i = 0; i < 1000; i += 2) {
+      transientMap.dissoc(i, i);
+    }
+    transientMap.assoc(1, 1, -1);
+    var map = transientMap.persistent();
+
+    assertThat(map.size()).isEqualTo(500);
+    assertThat(map.get(0, 0)).isNull();
+    assertThat(map.get(1, 1)).isEqualTo(-1);
+    assertThat(map.get(999, 999)).isEqualTo(1998);
+  }
+
+  @Test
+  void assocAndDissoc_collidingHashes() {
+    var transientMap = PersistentHashMap.<String, Integer>empty().asTransient();
+    transientMap.assoc(7, "a", 1).assoc(7, "b", 2).assoc(7, "c", 3).assoc(39, "d", 4);
+
+    assertThat(transientMap.size()).isEqualTo(4);
+    assertThat(transientMap.get(7, "b")).isEqualTo(2);
+
+    transientMap.dissoc(7, "b").dissoc(7, "missing").assoc(7, "c", 30);
+    var map = transientMap.persistent();
+
+    assertThat(map.size()).isEqualTo(3);
+    assertThat(map.get(7, "a")).isEqualTo(1);
+    assertThat(map.get(7, "b")).isNull();
+    assertThat(map.get(7, "c")).isEqualTo(30);
+    assertThat(map.get(39, "d")).isEqualTo(4);
+  }
+
+  @Test
+  void mutate_leavesOriginalUnchanged() {
+    var original = range(100).assoc(5, -5, -5);
+
+    var transientMap = original.asTransient();
+    transientMap.assoc(0, 0, -1).dissoc(1, 1).dissoc(5, -5).assoc(100, 100, 100);
+    var map = transientMap.persistent();
+
+    assertThat(original).isEqualTo(range(100).assoc(5, -5, -5));
+    assertThat(map.size()).isEqualTo(100);
+    assertThat(map.get(0, 0)).isEqualTo(-1);
+    assertThat(map.containsKey(1, 1)).isFalse();
+    assertThat(map.containsKey(5, -5)).isFalse();
+    assertThat(map.get(100, 100)).isEqualTo(100);
+  }
+
+  @Test
+  void useAfterPersistent_throws() {
+    var transientMap = range(10).asTransient();
+    transientMap.persistent();
+
+    assertThrows(IllegalStateException.class, () -> transientMap.assoc(10, 10, 10));
+    assertThrows(IllegalStateException.class, () -> transientMap.dissoc(0, 0));
+    assertThrows(IllegalStateException.class, () -> transientMap.get(0, 0));
+    assertThrows(IllegalStateException.class, transientMap::persistent);
+  }
+}
@@ -0,0 +1,70 @@
+package com.pentlander.sasquach.runtime;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.stream.IntStream;
+import org.junit.jupiter.api.Test;
+
+class TransientVectorTest {
+  private static PersistentVector<Integer> range(int size) {
+    return PersistentVector.fromList(IntStream.range(0, size).boxed().toList());
+  }
+
+  @Test
+  void conj_growsPastRootSplit() {
+    // 32 * 32 + 32 elements fill the root and the tail, so the next conj splits the root
+    var transientVec = PersistentVector.<Integer>empty().asTransient();
+    for (int i = 0; i < 3000; i++) {
+      transientVec.conj(i);
+    }
+    var vector = transientVec.persistent();
+
+    assertThat(vector.size()).isEqualTo(3000);
+    for (int i = 0; i < 3000; i++) {
+      assertThat(vector.get(i)).isEqualTo(i);
+    }
+  }
+
+  @Test
+  void mutate_leavesOriginalUnchanged() {
+    var original = range(1000);
+
+    var transientVec = original.asTransient();
+    transientVec.assoc(0, -1).assoc(500, -1).assoc(999, -1);
+    for (int i = 1000; i < 2000; i++) {
+      transientVec.conj(i);
+    }
+    transientVec.conjAll(range(100));
+    var vector = transientVec.persistent();
+
+    assertThat(original).isEqualTo(range(1000));
+    assertThat(vector.size()).isEqualTo(2100);
+    assertThat(vector.get(0)).isEqualTo(-1);
+    assertThat(vector.get(500)).isEqualTo(-1);
+    assertThat(vector.get(999)).isEqualTo(-1);
+    assertThat(vector.get(1500)).isEqualTo(1500);
+    assertThat(vector.get(2099)).isEqualTo(99);
+  }
+
+  @Test
+  void persistent_leavesResultUnchangedByLaterTransients() {
+    var transientVec = range(1100).asTransient();
+    var vector = transientVec.persistent();
+
+    vector.asTransient().assoc(0, -1).conj(-1).persistent();
+
+    assertThat(vector).isEqualTo(range(1100));
+  }
+
+  @Test
+  void useAfterPersistent_throws() {
+    var transientVec = range(10).asTransient();
+    transientVec.persistent();
+
+    assertThrows(IllegalStateException.class, () -> transientVec.conj(10));
+    assertThrows(IllegalStateException.class, () -> transientVec.assoc(0, 1));
+    assertThrows(IllegalStateException.class, () -> transientVec.get(0));
+    assertThrows(IllegalStateException.class, transientVec::persistent);
+  }
+}